@@ -0,0 +1,6 @@
+-- Amounts are kept in minor units, so the balance arithmetic is exact
+UPDATE account SET amount = ROUND(amount * 100);
+ALTER TABLE account ALTER COLUMN amount BIGINT;
+
+UPDATE transfer SET amount = ROUND(amount * 100);
+ALTER TABLE transfer ALTER COLUMN amount BIGINT;
@@ -0,0 +1,10 @@
+-- Balance of a striped account is spread over its slots, in minor units
+CREATE TABLE account_slot (
+  account_id INT NOT NULL,
+  slot INT NOT NULL,
+  amount BIGINT NOT NULL,
+
+  CONSTRAINT pk_t_account_slot PRIMARY KEY (account_id, slot),
+  CONSTRAINT fk_t_account_slot_account_id FOREIGN KEY (account_id)
+        REFERENCES account(id) ON DELETE CASCADE
+);
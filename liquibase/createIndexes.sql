@@ -0,0 +1,9 @@
+-- Dispensing: status = PENDING order by id limit n,
+-- cleanup and lease reaping: status = PROCESSING
+CREATE INDEX idx_transfer_status_id ON transfer(status, id);
+
+-- Transfers of one processing run: processing_id = ? and status = ?
+CREATE INDEX idx_transfer_processing_id ON transfer(processing_id, status);
+
+-- Expired leases: status = PROCESSING and lease_expiry < now
+CREATE INDEX idx_transfer_status_lease ON transfer(status, lease_expiry);
@@ -0,0 +1,7 @@
+-- Only the transfers in processing hold a lease, the others are never reclaimed
+UPDATE transfer SET lease_expiry = NULL WHERE status <> 1;
+
+-- Expired leases: lease_expiry < now. H2 doesn't range over a column
+-- following an equality, so the lease expiry leads
+DROP INDEX idx_transfer_status_lease;
+CREATE INDEX idx_transfer_status_lease ON transfer(lease_expiry, status);
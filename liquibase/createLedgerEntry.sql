@@ -0,0 +1,13 @@
+-- Balance changes not yet rolled into account.amount, in minor units
+CREATE TABLE ledger_entry (
+  id BIGINT NOT NULL AUTO_INCREMENT,
+  account_id INT NOT NULL,
+  amount BIGINT NOT NULL,
+
+  CONSTRAINT pk_t_ledger_entry PRIMARY KEY (id),
+  CONSTRAINT fk_t_ledger_entry_account_id FOREIGN KEY (account_id)
+        REFERENCES account(id) ON DELETE CASCADE
+);
+
+-- The pending balance change of an account is summed from the index only
+CREATE INDEX idx_ledger_entry_account ON ledger_entry(account_id, amount);
@@ -0,0 +1,115 @@
+package com.github.kgrech.djss.benchmark;
+
+import static com.github.kgrech.djss.jooq.tables.Account.ACCOUNT;
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER;
+
+import com.github.kgrech.djss.jooq.TransferStatus;
+import com.github.kgrech.djss.jooq.tables.records.AccountRecord;
+import com.github.kgrech.djss.jooq.tables.records.TransferRecord;
+import com.github.kgrech.djss.service.DSLContextProvider;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.Random;
+import java.util.UUID;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.LiquibaseException;
+import liquibase.resource.FileSystemResourceAccessor;
+import org.jooq.DSLContext;
+import org.jooq.InsertValuesStep3;
+import org.jooq.InsertValuesStep5;
+
+/**
+ * In-memory H2 database seeded with accounts and pending transfers
+ * between random accounts
+ */
+final class BenchmarkDatabase implements AutoCloseable {
+
+    //Large enough for the transfers never to be rejected
+    static final double BALANCE = 1e12;
+
+    private static final int CHUNK = 1000;
+
+    private final DSLContextProvider provider;
+    private final DSLContext ctx;
+
+    private BenchmarkDatabase(DSLContextProvider provider) {
+        this.provider = provider;
+        this.ctx = provider.getContext();
+    }
+
+    /**
+     * Creates new database
+     * @param accounts number of accounts
+     * @param transfers number of pending transfers
+     */
+    static BenchmarkDatabase create(int accounts, int transfers) {
+        Properties properties = new Properties();
+        properties.setProperty("db.driver", "org.h2.Driver");
+        properties.setProperty("db.url", "jdbc:h2:mem:benchmark-" +
+                UUID.randomUUID() + ";LOCK_MODE=1;DB_CLOSE_DELAY=-1");
+        properties.setProperty("db.username", "sa");
+        properties.setProperty("db.password", "");
+        properties.setProperty("db.pool.maxActive", "32");
+        properties.setProperty("db.pool.poolPreparedStatements", "true");
+
+        BenchmarkDatabase db = new BenchmarkDatabase(
+                new DSLContextProvider(properties));
+        db.migrate();
+        db.seed(accounts, transfers);
+        return db;
+    }
+
+    DSLContext getContext() {
+        return ctx;
+    }
+
+    private void migrate() {
+        try (Connection connection = provider.getConnection()) {
+            Database database = DatabaseFactory.getInstance()
+                    .findCorrectDatabaseImplementation(new JdbcConnection(connection));
+            new Liquibase("liquibase/changelog.xml",
+                    new FileSystemResourceAccessor(), database).update("");
+        } catch (SQLException | LiquibaseException e) {
+            throw new IllegalStateException("Can't create the schema", e);
+        }
+    }
+
+    private void seed(int accounts, int transfers) {
+        for (int from = 1; from <= accounts; from += CHUNK) {
+            InsertValuesStep3<AccountRecord, Integer, String, Double> insert =
+                    ctx.insertInto(ACCOUNT, ACCOUNT.ID, ACCOUNT.NAME, ACCOUNT.AMOUNT);
+            for (int id = from; id < from + CHUNK && id <= accounts; id++) {
+                insert = insert.values(id, "Account " + id, BALANCE);
+            }
+            insert.execute();
+        }
+
+        Random random = new Random(42);
+        for (int from = 0; from < transfers; from += CHUNK) {
+            InsertValuesStep5<TransferRecord, Integer, Integer, TransferStatus, Double, String> insert =
+                    ctx.insertInto(TRANSFER,
+                            TRANSFER.SENDER_ACCOUNT_ID,
+                            TRANSFER.RECEIVER_ACCOUNT_ID,
+                            TRANSFER.STATUS,
+                            TRANSFER.AMOUNT,
+                            TRANSFER.PROCESSING_ID);
+            for (int i = from; i < from + CHUNK && i < transfers; i++) {
+                int sender = 1 + random.nextInt(accounts);
+                int receiver = 1 + (sender + random.nextInt(accounts - 1)) % accounts;
+                insert = insert.values(sender, receiver, TransferStatus.PENDING,
+                        1.0 + random.nextInt(100), null);
+            }
+            insert.execute();
+        }
+    }
+
+    @Override
+    public void close() {
+        ctx.execute("DROP ALL OBJECTS");
+        provider.close();
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.kgrech.djss.benchmark;
+
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER;
+
+import com.github.kgrech.djss.jooq.TransferStatus;
+import com.github.kgrech.djss.service.TransferProcessingScheduler;
+import com.github.kgrech.djss.service.proccessing.TransferDispensingRunnable;
+import java.util.concurrent.TimeUnit;
+import org.jooq.DSLContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Claims the next batch of pending transfers with the dispensing
+ * UPDATE ... IN (SELECT ... LIMIT) query
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispensingBenchmark {
+
+    @Param("1000")
+    public int accounts;
+
+    @Param("10000")
+    public int transfers;
+
+    @Param("10")
+    public int batchSize;
+
+    private BenchmarkDatabase db;
+    private TransferDispensingRunnable runnable;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        db = BenchmarkDatabase.create(accounts, transfers);
+        TransferProcessingScheduler scheduler = new TransferProcessingScheduler() {
+            @Override
+            public void scheduleProcessing(String processingId) {
+            }
+
+            @Override
+            public int queueSize() {
+                return 0;
+            }
+        };
+        runnable = new TransferDispensingRunnable(db.getContext(), batchSize,
+                Integer.MAX_VALUE, scheduler);
+    }
+
+    @Setup(Level.Iteration)
+    public void release() {
+        DSLContext ctx = db.getContext();
+        ctx.update(TRANSFER)
+                .set(TRANSFER.STATUS, TransferStatus.PENDING)
+                .where(TRANSFER.STATUS.eq(TransferStatus.PROCESSING))
+                .execute();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.close();
+    }
+
+    /**
+     * Claims the next batch, once all the transfers are claimed the query
+     * finds nothing, so the seeded transfers should exceed the number of
+     * claimed ones during an iteration
+     * @return number of claimed transfers
+     */
+    @Benchmark
+    public int dispense() {
+        return runnable.dispense();
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.kgrech.djss.benchmark;
+
+import com.github.kgrech.djss.controller.JsonTransformer;
+import com.github.kgrech.djss.controller.WireFormat;
+import com.github.kgrech.djss.jooq.TransferStatus;
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer;
+import com.github.kgrech.djss.view.Page;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization of the responses and deserialization of the request bodies,
+ * through a string and streamed. Compare gc.alloc.rate.norm of the pairs.
+ * The *Cbor benchmarks encode the same models in CBOR
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonTransformerBenchmark {
+
+    @Param({"1", "100"})
+    public int pageSize;
+
+    private final JsonTransformer transformer = new JsonTransformer();
+    private final OutputStream out = ByteStreams.nullOutputStream();
+    private Page<Transfer> page;
+    private String body;
+    private byte[] bodyBytes;
+    private byte[] cborBytes;
+
+    @Setup
+    public void setup() throws IOException {
+        List<Transfer> content = new ArrayList<>(pageSize);
+        long now = System.currentTimeMillis();
+        for (int i = 1; i <= pageSize; i++) {
+            content.add(new Transfer()
+                    .setId(i)
+                    .setSenderAccountId(i)
+                    .setReceiverAccountId(i + 1)
+                    .setStatus(TransferStatus.COMPLETED)
+                    .setAmount(10.5)
+                    .setProcessingId(UUID.randomUUID().toString())
+                    .setProcessingStart(new Timestamp(now))
+                    .setProcessingEnd(new Timestamp(now + 10)));
+        }
+        page = new Page<>(content, pageSize, null);
+        body = transformer.render(content.get(0));
+        bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        cborBytes = WireFormat.CBOR.getMapper().writeValueAsBytes(content.get(0));
+    }
+
+    @Benchmark
+    public String render() throws IOException {
+        return transformer.render(page);
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        transformer.write(page, out);
+    }
+
+    @Benchmark
+    public void writeCbor() throws IOException {
+        transformer.write(page, out, WireFormat.CBOR);
+    }
+
+    @Benchmark
+    public Transfer transform() throws IOException {
+        return transformer.transform(body, Transfer.class);
+    }
+
+    @Benchmark
+    public Transfer transformStream() throws IOException {
+        return transformer.transform(new ByteArrayInputStream(bodyBytes),
+                Transfer.class);
+    }
+
+    @Benchmark
+    public Transfer transformCbor() throws IOException {
+        return transformer.transform(new ByteArrayInputStream(cborBytes),
+                Transfer.class, WireFormat.CBOR);
+    }
+}
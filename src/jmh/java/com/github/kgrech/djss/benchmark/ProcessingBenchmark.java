@@ -0,0 +1,94 @@
+package com.github.kgrech.djss.benchmark;
+
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER;
+
+import com.github.kgrech.djss.jooq.TransferStatus;
+import com.github.kgrech.djss.service.MinorUnitsTransfer;
+import com.github.kgrech.djss.service.proccessing.BatchTransferProcessingRunnable;
+import com.github.kgrech.djss.service.proccessing.TransferProcessingRunnable;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Applies the seeded transfers over and over again. The balances are large
+ * enough, so every transfer completes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessingBenchmark {
+
+    private static final String PROCESSING_ID = "benchmark";
+
+    @Param("1000")
+    public int accounts;
+
+    @Param("10000")
+    public int transfers;
+
+    @Param("10")
+    public int batchSize;
+
+    private BenchmarkDatabase db;
+    private List<MinorUnitsTransfer> seeded;
+    private TransferProcessingRunnable runnable;
+    private BatchTransferProcessingRunnable batchRunnable;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        db = BenchmarkDatabase.create(accounts, transfers);
+        //The final status is written only for the transfers claimed by the
+        //processing
+        db.getContext().update(TRANSFER)
+                .set(TRANSFER.STATUS, TransferStatus.PROCESSING)
+                .set(TRANSFER.PROCESSING_ID, PROCESSING_ID)
+                .execute();
+        runnable = new TransferProcessingRunnable(db.getContext(), PROCESSING_ID);
+        seeded = runnable.fetchTransfers();
+        batchRunnable = new BatchTransferProcessingRunnable(db.getContext(),
+                PROCESSING_ID);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.close();
+    }
+
+    /**
+     * One transfer in its own transaction, database processing mode
+     */
+    @Benchmark
+    public void processTransfer() {
+        runnable.process(seeded.get(next));
+        next = (next + 1) % seeded.size();
+    }
+
+    /**
+     * batchSize transfers in one transaction, batch processing mode
+     */
+    @Benchmark
+    public void processBatch() {
+        if (next + batchSize > seeded.size()) {
+            next = 0;
+        }
+        batchRunnable.processBatch(seeded.subList(next, next + batchSize));
+        next += batchSize;
+    }
+}
@@ -3,6 +3,8 @@
  */
 package com.github.kgrech.djss;
 
+import static spark.Spark.afterAfter;
+import static spark.Spark.before;
 import static spark.Spark.exception;
 import static spark.Spark.internalServerError;
 import static spark.Spark.notFound;
@@ -10,24 +12,52 @@ import static spark.Spark.port;
 import static spark.Spark.stop;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.kgrech.djss.controller.AccountController;
+import com.github.kgrech.djss.controller.JsonTransformer;
+import com.github.kgrech.djss.controller.MetricsController;
+import com.github.kgrech.djss.controller.StatsController;
 import com.github.kgrech.djss.controller.TransferController;
+import com.github.kgrech.djss.controller.TransferEventsController;
+import com.github.kgrech.djss.controller.VirtualThreadPool;
+import com.github.kgrech.djss.exception.ConflictException;
 import com.github.kgrech.djss.exception.NotFoundException;
+import com.github.kgrech.djss.jooq.Tables;
+import com.github.kgrech.djss.jooq.tables.pojos.Account;
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer;
+import com.github.kgrech.djss.metrics.MetricsRegistry;
 import com.github.kgrech.djss.service.DSLContextProvider;
+import com.github.kgrech.djss.service.EntityCache;
+import com.github.kgrech.djss.service.EntityCacheInvalidator;
+import com.github.kgrech.djss.service.ProcessingMode;
 import com.github.kgrech.djss.service.ProcessingService;
+import com.github.kgrech.djss.service.ProcessingSettings;
+import com.github.kgrech.djss.service.RowCounter;
+import com.github.kgrech.djss.service.TransferEvents;
+import com.github.kgrech.djss.service.TransferImporter;
+import com.github.kgrech.djss.service.TransferWatchers;
+import com.github.kgrech.djss.service.intake.IntakeJournal;
+import com.github.kgrech.djss.service.intake.TransferIntake;
 import com.github.kgrech.djss.view.Message;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
 import java.util.function.Consumer;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.jooq.DSLContext;
 import org.jooq.exception.DataAccessException;
 import spark.Response;
+import spark.embeddedserver.EmbeddedServers;
+import spark.embeddedserver.jetty.EmbeddedJettyFactory;
 
 @Slf4j
 @Getter
@@ -37,21 +67,94 @@ public class App implements AutoCloseable {
     private static final String BATCH_KEY = "processing.batch";
     private static final String THREADS_KEY = "processing.threads";
     private static final String QUEUE_KEY = "processing.maxQueue";
+    private static final String ADAPTIVE_KEY = "processing.adaptive";
+    private static final String MIN_BATCH_KEY = "processing.minBatch";
+    private static final String MAX_BATCH_KEY = "processing.maxBatch";
+    private static final String TARGET_LATENCY_KEY = "processing.targetLatency";
+    private static final String PUSH_KEY = "processing.push";
+    private static final String LINGER_KEY = "processing.linger";
+    private static final String LANES_KEY = "processing.lanes";
+    private static final String NODE_ID_KEY = "processing.nodeId";
+    private static final String LEASE_TIME_KEY = "processing.leaseTime";
+    private static final String MODE_KEY = "processing.mode";
+    private static final String JOURNAL_KEY = "processing.journal";
+    private static final String COMPACT_INTERVAL_KEY = "processing.compactInterval";
+    private static final String STRIPED_ACCOUNTS_KEY = "processing.stripedAccounts";
+    private static final String STRIPES_KEY = "processing.stripes";
+    private static final String SHARDS_KEY = "ledger.shards";
+    private static final String FLUSH_INTERVAL_KEY = "ledger.flushInterval";
+    private static final String FLUSH_BATCH_KEY = "ledger.flushBatch";
+    private static final String COUNT_REFRESH_KEY = "page.countRefresh";
+    private static final String CACHE_SIZE_KEY = "cache.maxSize";
+    private static final String CACHE_TTL_KEY = "cache.ttl";
+    private static final String IMPORT_CHUNK_KEY = "import.chunkSize";
+    private static final String INTAKE_KEY = "intake.enabled";
+    private static final String INTAKE_DIR_KEY = "intake.dir";
+    private static final String INTAKE_SEGMENT_KEY = "intake.segmentSize";
+    private static final String INTAKE_FLUSH_INTERVAL_KEY = "intake.flushInterval";
+    private static final String INTAKE_FLUSH_BATCH_KEY = "intake.flushBatch";
+    private static final String EVENTS_BUFFER_KEY = "events.buffer";
+    private static final String EVENTS_HEARTBEAT_KEY = "events.heartbeat";
+    private static final String PROCESSING_POOL_KEY = "db.processingPool.enabled";
+    private static final String PROCESSING_POOL_PREFIX = "db.processingPool.";
+    private static final String VIRTUAL_THREADS_KEY = "virtualThreads.enabled";
     private static final String PORT_KEY = "spark.port";
+    private static final String PERMIT_ATTRIBUTE = "djss.permit";
 
     private final Properties properties = new Properties();
-    private final ObjectMapper mapper = new ObjectMapper();
+    private final JsonTransformer transformer = new JsonTransformer();
+    private final TransferEvents events = new TransferEvents();
 
     private DSLContextProvider provider;
     private DSLContext ctx;
+    private DSLContextProvider processingProvider;
+    private DSLContext processingCtx;
     private ProcessingService processingService;
     private AccountController accountController;
     private TransferController transferController;
+    private TransferEventsController transferEventsController;
+    private TransferIntake intake;
+    private RowCounter accountCounter;
+    private RowCounter transferCounter;
+    private StatsController statsController;
+    private MetricsController metricsController;
+    private EntityCache<Account> accountCache;
+    private EntityCache<Transfer> transferCache;
 
     private int maxThreads;
     private int delay;
     private int batchSize;
     private int maxQueueSize;
+    private boolean adaptive;
+    private int minBatchSize;
+    private int maxBatchSize;
+    private int targetLatency;
+    private boolean push;
+    private int linger;
+    private boolean lanes;
+    private String nodeId;
+    private int leaseTime;
+    private ProcessingMode mode;
+    private boolean journal;
+    private int compactInterval;
+    private Set<Integer> stripedAccounts;
+    private int stripes;
+    private int ledgerShards;
+    private int ledgerFlushInterval;
+    private int ledgerFlushBatch;
+    private int countRefresh;
+    private int cacheSize;
+    private int cacheTtl;
+    private int importChunkSize;
+    private boolean intakeEnabled;
+    private String intakeDir;
+    private int intakeSegmentSize;
+    private int intakeFlushInterval;
+    private int intakeFlushBatch;
+    private int eventsBuffer;
+    private int eventsHeartbeat;
+    private boolean processingPool;
+    private boolean virtualThreads;
     private int port;
 
     private List<Consumer<Properties>> parsers = Arrays.asList(
@@ -59,6 +162,37 @@ public class App implements AutoCloseable {
             (p) -> delay = props(p, DELAY_KEY, 10),
             (p) -> batchSize = props(p, BATCH_KEY, 10),
             (p) -> maxQueueSize = props(p, QUEUE_KEY, 10),
+            (p) -> adaptive = props(p, ADAPTIVE_KEY, false),
+            (p) -> minBatchSize = props(p, MIN_BATCH_KEY, 1),
+            (p) -> maxBatchSize = props(p, MAX_BATCH_KEY, 100),
+            (p) -> targetLatency = props(p, TARGET_LATENCY_KEY, 500),
+            (p) -> push = props(p, PUSH_KEY, false),
+            (p) -> linger = props(p, LINGER_KEY, 100),
+            (p) -> lanes = props(p, LANES_KEY, false),
+            (p) -> nodeId = props(p, NODE_ID_KEY, UUID.randomUUID().toString()),
+            (p) -> leaseTime = props(p, LEASE_TIME_KEY, 30),
+            (p) -> mode = props(p, MODE_KEY, ProcessingMode.DATABASE),
+            (p) -> journal = props(p, JOURNAL_KEY, false),
+            (p) -> compactInterval = props(p, COMPACT_INTERVAL_KEY, 1000),
+            (p) -> stripedAccounts = props(p, STRIPED_ACCOUNTS_KEY,
+                    Collections.emptySet()),
+            (p) -> stripes = props(p, STRIPES_KEY, 8),
+            (p) -> ledgerShards = props(p, SHARDS_KEY, 4),
+            (p) -> ledgerFlushInterval = props(p, FLUSH_INTERVAL_KEY, 50),
+            (p) -> ledgerFlushBatch = props(p, FLUSH_BATCH_KEY, 1000),
+            (p) -> countRefresh = props(p, COUNT_REFRESH_KEY, 60),
+            (p) -> cacheSize = props(p, CACHE_SIZE_KEY, 10000),
+            (p) -> cacheTtl = props(p, CACHE_TTL_KEY, 60),
+            (p) -> importChunkSize = props(p, IMPORT_CHUNK_KEY, 1000),
+            (p) -> intakeEnabled = props(p, INTAKE_KEY, false),
+            (p) -> intakeDir = props(p, INTAKE_DIR_KEY, "./db/intake"),
+            (p) -> intakeSegmentSize = props(p, INTAKE_SEGMENT_KEY, 16 * 1024 * 1024),
+            (p) -> intakeFlushInterval = props(p, INTAKE_FLUSH_INTERVAL_KEY, 50),
+            (p) -> intakeFlushBatch = props(p, INTAKE_FLUSH_BATCH_KEY, 1000),
+            (p) -> eventsBuffer = props(p, EVENTS_BUFFER_KEY, 64),
+            (p) -> eventsHeartbeat = props(p, EVENTS_HEARTBEAT_KEY, 15),
+            (p) -> processingPool = props(p, PROCESSING_POOL_KEY, false),
+            (p) -> virtualThreads = props(p, VIRTUAL_THREADS_KEY, false),
             (p) -> port = props(p, PORT_KEY, 8080)
     );
 
@@ -73,15 +207,82 @@ public class App implements AutoCloseable {
     public void initDSLContext() {
         provider = new DSLContextProvider(properties);
         ctx = provider.getContext();
+        if (processingPool) {
+            //Processing backlog can't starve the rest API of connections
+            processingProvider = new DSLContextProvider("processing",
+                    properties, PROCESSING_POOL_PREFIX);
+            processingCtx = processingProvider.getContext();
+        } else {
+            processingProvider = provider;
+            processingCtx = ctx;
+        }
     }
 
     public void initProcessingService() {
-        processingService = new ProcessingService(delay, maxThreads,
-                batchSize, maxQueueSize, ctx);
+        initProcessingService(processingSettings());
+    }
+
+    /**
+     * Starts the processing, the running one is stopped first
+     * @param settings processing settings
+     */
+    public void initProcessingService(ProcessingSettings settings) {
+        if (processingService != null) {
+            processingService.close();
+        }
+        processingService = new ProcessingService(settings, processingCtx,
+                events);
+    }
+
+    /**
+     * @return processing settings read from the properties
+     */
+    public ProcessingSettings processingSettings() {
+        return ProcessingSettings.builder()
+                .delay(delay)
+                .maxThreads(maxThreads)
+                .virtualThreads(virtualThreads)
+                .maxConcurrency(maxConnections(processingProvider))
+                .batchSize(batchSize)
+                .adaptive(adaptive)
+                .minBatchSize(minBatchSize)
+                .maxBatchSize(maxBatchSize)
+                .targetLatency(targetLatency)
+                .maxQueueSize(maxQueueSize)
+                .push(push)
+                .linger(linger)
+                .lanes(lanes)
+                .nodeId(nodeId)
+                .leaseTime(leaseTime)
+                .mode(mode)
+                .journal(journal)
+                .compactInterval(compactInterval)
+                .stripedAccounts(stripedAccounts)
+                .stripes(stripes)
+                .ledgerShards(ledgerShards)
+                .ledgerFlushInterval(ledgerFlushInterval)
+                .ledgerFlushBatch(ledgerFlushBatch)
+                .build();
     }
 
     public void initSpark() {
         port(port);
+        if (virtualThreads) {
+            //Requests wait for a connection permit, not for a free thread
+            EmbeddedServers.add(EmbeddedServers.defaultIdentifier(),
+                    new EmbeddedJettyFactory().withThreadPool(
+                            new VirtualThreadPool("http-")));
+            Semaphore permits = new Semaphore(maxConnections(provider));
+            before((req, res) -> {
+                permits.acquire();
+                req.attribute(PERMIT_ATTRIBUTE, true);
+            });
+            afterAfter((req, res) -> {
+                if (req.attribute(PERMIT_ATTRIBUTE) != null) {
+                    permits.release();
+                }
+            });
+        }
 
         internalServerError((req, res) ->
                 statusMessage(res, 500, "Internal Server Error"));
@@ -89,18 +290,54 @@ public class App implements AutoCloseable {
                 statusMessage(res, 404, "Not Found"));
 
         exception(DataAccessException.class, (e, req, res) ->
-                statusMessage(res, 400, "Illegal operation!"));
+                res.body(statusMessage(res, 400, "Illegal operation!")));
         exception(NotFoundException.class, (e, req, res) ->
-                statusMessage(res, 404, e.getMessage()));
+                res.body(statusMessage(res, 404, e.getMessage())));
         exception(IllegalArgumentException.class, (e, req, res) ->
-                statusMessage(res, 400, "Bad request: " + e.getMessage()));
+                res.body(statusMessage(res, 400, "Bad request: " + e.getMessage())));
         exception(UnsupportedOperationException.class, (e, req, res) ->
-                statusMessage(res, 400, e.getMessage()));
+                res.body(statusMessage(res, 400, e.getMessage())));
+        exception(ConflictException.class, (e, req, res) ->
+                res.body(statusMessage(res, 409, e.getMessage())));
 
-        accountController = new AccountController(ctx);
+        accountCounter = new RowCounter(ctx, Tables.ACCOUNT, countRefresh);
+        transferCounter = new RowCounter(ctx, Tables.TRANSFER, countRefresh);
+        accountCache = new EntityCache<>("accounts", cacheSize, cacheTtl);
+        transferCache = new EntityCache<>("transfers", cacheSize, cacheTtl);
+        events.addListener(new EntityCacheInvalidator(accountCache,
+                transferCache));
+
+        accountController = new AccountController(ctx, accountCounter,
+                transferCounter, accountCache, transferCache,
+                mode == ProcessingMode.LEDGER);
         accountController.init();
-        transferController = new TransferController(ctx);
+        TransferImporter importer = new TransferImporter(ctx, events,
+                transferCounter, importChunkSize);
+        if (intakeEnabled) {
+            try {
+                intake = new TransferIntake(ctx, events, transferCounter,
+                        new IntakeJournal(Paths.get(intakeDir), intakeSegmentSize),
+                        intakeFlushBatch, intakeFlushInterval);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can't open intake journal", e);
+            }
+        }
+        TransferWatchers watchers = new TransferWatchers(eventsBuffer);
+        events.addListener(watchers);
+        transferEventsController = new TransferEventsController(ctx, watchers,
+                eventsHeartbeat);
+        transferEventsController.init();
+        transferController = new TransferController(ctx, events,
+                transferCounter, transferCache, importer, intake);
         transferController.init();
+        statsController = new StatsController(
+                Arrays.asList(accountCache, transferCache),
+                processingProvider != provider
+                        ? Arrays.asList(provider, processingProvider)
+                        : Collections.singletonList(provider));
+        statsController.init();
+        metricsController = new MetricsController(MetricsRegistry.DEFAULT);
+        metricsController.init();
     }
 
     public void init(String propertiesFile) throws IOException {
@@ -114,9 +351,30 @@ public class App implements AutoCloseable {
         if (processingService != null) {
             processingService.close();
         }
+        if (transferEventsController != null) {
+            transferEventsController.close();
+        }
         if (accountController != null) {
             stop();
         }
+        if (intake != null) {
+            //The accepted transfers are inserted before the pool is closed
+            intake.close();
+        }
+        if (processingProvider != null && processingProvider != provider) {
+            processingProvider.close();
+        }
+        if (provider != null) {
+            provider.close();
+        }
+    }
+
+    private int maxConnections(DSLContextProvider pool) {
+        if (pool == null || pool.getMaxActive() <= 0) {
+            //No limit
+            return Integer.MAX_VALUE;
+        }
+        return pool.getMaxActive();
     }
 
     private String statusMessage(Response res,
@@ -124,7 +382,7 @@ public class App implements AutoCloseable {
         res.type("application/json");
         res.status(status);
         try {
-            return mapper.writeValueAsString(new Message(message));
+            return transformer.render(new Message(message));
         } catch (JsonProcessingException e) {
             log.error("Can't serialize error message", e);
             return "";
@@ -146,6 +404,62 @@ public class App implements AutoCloseable {
         return defaultValue;
     }
 
+    private String props(Properties properties, String name,
+                         String defaultValue) {
+        String strValue = properties.getProperty(name);
+        if (strValue != null && !strValue.trim().isEmpty()) {
+            return strValue.trim();
+        }
+        log.warn("Missing property {}, using default value of {}", name,
+                defaultValue);
+        return defaultValue;
+    }
+
+    private Set<Integer> props(Properties properties, String name,
+                               Set<Integer> defaultValue) {
+        String strValue = properties.getProperty(name);
+        if (strValue != null && !strValue.trim().isEmpty()) {
+            try {
+                Set<Integer> value = new HashSet<>();
+                for (String item : strValue.split(",")) {
+                    value.add(Integer.valueOf(item.trim()));
+                }
+                return value;
+            } catch (NumberFormatException e) {
+                log.warn("Can't convert {} to numbers", strValue, e);
+            }
+        }
+        return defaultValue;
+    }
+
+    private boolean props(Properties properties, String name,
+                          boolean defaultValue) {
+        String strValue = properties.getProperty(name);
+        if (strValue != null) {
+            return Boolean.parseBoolean(strValue.trim());
+        }
+        log.warn("Missing property {}, using default value of {}", name,
+                defaultValue);
+        return defaultValue;
+    }
+
+    private <E extends Enum<E>> E props(Properties properties, String name,
+                                        E defaultValue) {
+        String strValue = properties.getProperty(name);
+        if (strValue != null) {
+            try {
+                return Enum.valueOf(defaultValue.getDeclaringClass(),
+                        strValue.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                log.warn("Can't convert {} to one of {}", strValue,
+                        defaultValue.getDeclaringClass().getEnumConstants(), e);
+            }
+        }
+        log.warn("Missing property {}, using default value of {}", name,
+                defaultValue);
+        return defaultValue;
+    }
+
 
     public static void main(String[] args) throws IOException {
         App app = new App();
@@ -1,23 +1,77 @@
 package com.github.kgrech.djss.controller;
 
 import static com.github.kgrech.djss.jooq.tables.Account.ACCOUNT;
-import static org.jooq.impl.DSL.defaultValue;
+import static com.github.kgrech.djss.jooq.tables.AccountSlot.ACCOUNT_SLOT;
+import static com.github.kgrech.djss.jooq.tables.LedgerEntry.LEDGER_ENTRY;
+import static org.jooq.impl.DSL.max;
+import static org.jooq.impl.DSL.trueCondition;
 
 import com.github.kgrech.djss.view.Page;
+import com.github.kgrech.djss.exception.ConflictException;
 import com.github.kgrech.djss.exception.NotFoundException;
+import com.github.kgrech.djss.jooq.MinorUnits;
+import com.github.kgrech.djss.jooq.RowVersion;
 import com.github.kgrech.djss.jooq.tables.pojos.Account;
-import com.github.kgrech.djss.jooq.tables.records.AccountRecord;
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer;
+import com.github.kgrech.djss.service.EntityCache;
+import com.github.kgrech.djss.service.RowCounter;
+import com.github.kgrech.djss.service.proccessing.AccountJournal;
+import com.github.kgrech.djss.service.proccessing.AccountStripes;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.jooq.Condition;
+import org.jooq.Cursor;
 import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Record2;
+import org.jooq.Result;
 
 public class AccountController extends CRUDController<Account> {
 
     public static final String BASE_URL = "/accounts";
+
+    /**
+     * Account columns with the current balance instead of the snapshot
+     */
+    private static final List<Field<?>> FIELDS = Stream.of(ACCOUNT.fields())
+            .map(f -> f.equals(ACCOUNT.AMOUNT) ? AccountJournal.BALANCE : f)
+            .collect(Collectors.toList());
+
     private final DSLContext ctx;
+    private final RowCounter accountCounter;
+    private final RowCounter transferCounter;
+    private final EntityCache<Account> accountCache;
+    private final EntityCache<Transfer> transferCache;
+    private final boolean ledger;
+
+    public AccountController(DSLContext ctx, RowCounter accountCounter,
+                             RowCounter transferCounter,
+                             EntityCache<Account> accountCache,
+                             EntityCache<Transfer> transferCache) {
+        this(ctx, accountCounter, transferCounter, accountCache, transferCache,
+                false);
+    }
 
-    public AccountController(DSLContext ctx) {
+    /**
+     * Creates new instance
+     * @param ledger true if the balances are owned by the in-memory ledger,
+     *               the amount of an account can't be updated then
+     */
+    public AccountController(DSLContext ctx, RowCounter accountCounter,
+                             RowCounter transferCounter,
+                             EntityCache<Account> accountCache,
+                             EntityCache<Transfer> transferCache,
+                             boolean ledger) {
         super(Account.class);
         this.ctx = ctx;
+        this.accountCounter = accountCounter;
+        this.transferCounter = transferCounter;
+        this.accountCache = accountCache;
+        this.transferCache = transferCache;
+        this.ledger = ledger;
     }
 
     @Override
@@ -27,7 +81,12 @@ public class AccountController extends CRUDController<Account> {
 
     @Override
     protected Account get(int id) {
-        AccountRecord value = ctx.selectFrom(ACCOUNT)
+        return accountCache.get(id, this::fetch);
+    }
+
+    private Account fetch(int id) {
+        Record value = ctx.select(FIELDS)
+                .from(ACCOUNT)
                 .where(ACCOUNT.ID.eq(id))
                 .fetchOne();
         if (value != null) {
@@ -39,56 +98,163 @@ public class AccountController extends CRUDController<Account> {
 
     @Override
     protected Page<Account> getPage(int page, int pageSize) {
-        return ctx.transactionResult(() -> {
-            List<Account> content = ctx
-                    .selectFrom(ACCOUNT)
-                    .offset(pageSize * page)
-                    .limit(pageSize)
-                    .fetch()
-                    .into(Account.class);
-            long total = ctx.selectCount()
-                    .from(ACCOUNT)
-                    .fetchOne().value1();
-            return new Page<>(content, total);
-        });
+        List<Account> content = ctx
+                .select(FIELDS)
+                .from(ACCOUNT)
+                .orderBy(ACCOUNT.ID)
+                .offset(pageSize * page)
+                .limit(pageSize)
+                .fetch()
+                .into(Account.class);
+        return page(content, pageSize);
+    }
+
+    @Override
+    protected Page<Account> getPageAfter(int after, int pageSize) {
+        List<Account> content = ctx
+                .select(FIELDS)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.gt(after))
+                .orderBy(ACCOUNT.ID)
+                .limit(pageSize)
+                .fetch()
+                .into(Account.class);
+        return page(content, pageSize);
+    }
+
+    @Override
+    protected String version(Account value) {
+        return value.getVersion() + "-" + value.getAmount();
+    }
+
+    @Override
+    protected String getPageVersion(int page, int pageSize) {
+        return accountsVersion(ctx
+                .select(ACCOUNT.ID, ACCOUNT.VERSION)
+                .from(ACCOUNT)
+                .orderBy(ACCOUNT.ID)
+                .offset(pageSize * page)
+                .limit(pageSize)
+                .fetch());
+    }
+
+    @Override
+    protected String getPageAfterVersion(int after, int pageSize) {
+        return accountsVersion(ctx
+                .select(ACCOUNT.ID, ACCOUNT.VERSION)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.gt(after))
+                .orderBy(ACCOUNT.ID)
+                .limit(pageSize)
+                .fetch());
+    }
+
+    /**
+     * Returns the version of the page rows. The balance changes without the
+     * version when it is kept in the journal or the slots, so the newest
+     * journal entry and the slots of the page accounts are added instead of
+     * summing the balance of every row
+     */
+    private String accountsVersion(Result<Record2<Integer, Long>> rows) {
+        List<Record> parts = new ArrayList<>(rows);
+        if (!rows.isEmpty()) {
+            parts.addAll(ctx
+                    .select(ACCOUNT_SLOT.ACCOUNT_ID, ACCOUNT_SLOT.SLOT,
+                            ACCOUNT_SLOT.AMOUNT)
+                    .from(ACCOUNT_SLOT)
+                    .where(ACCOUNT_SLOT.ACCOUNT_ID.between(rows.get(0).value1(),
+                            rows.get(rows.size() - 1).value1()))
+                    .orderBy(ACCOUNT_SLOT.ACCOUNT_ID, ACCOUNT_SLOT.SLOT)
+                    .fetch());
+            parts.add(ctx.select(max(LEDGER_ENTRY.ID))
+                    .from(LEDGER_ENTRY)
+                    .fetchOne());
+        }
+        return pageVersion(parts, accountCounter.get());
+    }
+
+    private Page<Account> page(List<Account> content, int pageSize) {
+        Integer next = content.size() == pageSize && pageSize > 0
+                ? content.get(content.size() - 1).getId()
+                : null;
+        return new Page<>(content, accountCounter.get(), next);
+    }
+
+    @Override
+    protected Cursor<Record> export(ExportFilter filter) {
+        Condition condition = trueCondition();
+        if (filter.getFromId() != null) {
+            condition = condition.and(ACCOUNT.ID.ge(filter.getFromId()));
+        }
+        if (filter.getToId() != null) {
+            condition = condition.and(ACCOUNT.ID.le(filter.getToId()));
+        }
+        return ctx.select(FIELDS)
+                .from(ACCOUNT)
+                .where(condition)
+                .orderBy(ACCOUNT.ID)
+                .fetchLazy();
     }
 
     @Override
     protected Account create(Account newInstance) {
-        return ctx.insertInto(ACCOUNT)
+        Account created = ctx.insertInto(ACCOUNT,
+                        ACCOUNT.NAME,
+                        ACCOUNT.AMOUNT)
                 .values(
-                        defaultValue(ACCOUNT.ID),
                         newInstance.getName(),
                         newInstance.getAmount()
                 )
                 .returning()
                 .fetchOne()
                 .into(Account.class);
+        accountCounter.add(1);
+        return created;
     }
 
     @Override
-    protected Account update(int id, Account updateInstance) {
+    protected Account update(int id, Account updateInstance,
+                             String expectedVersion) {
+        if (ledger) {
+            return updateName(id, updateInstance, expectedVersion);
+        }
+        Condition condition = ACCOUNT.ID.eq(id);
+        if (expectedVersion != null) {
+            //The version is "<version>-<amount>", the balance kept in the
+            //journal or the slots changes without the version
+            String[] parts = expectedVersion.split("-", 2);
+            condition = condition.and(ACCOUNT.VERSION.eq(Long.parseLong(parts[0])));
+            if (parts.length > 1) {
+                condition = condition.and(AccountJournal.balance(ACCOUNT.ID)
+                        .eq(MinorUnits.of(Double.parseDouble(parts[1]))));
+            }
+        }
+        Condition matches = condition;
         try {
-            return ctx.transactionResult(() -> {
-                AccountRecord value = ctx.selectFrom(ACCOUNT)
-                        .where(ACCOUNT.ID.eq(id))
-                        .forUpdate()
-                        .fetchOne();
-                if (value == null) {
-                    throw new NotFoundException("Account with " + id + " is not found");
-                }
-
-                ctx.update(ACCOUNT)
+            Account updated = ctx.transactionResult(() -> {
+                //The version is checked by the update itself, so no row is
+                //locked before it
+                int changed = ctx.update(ACCOUNT)
                         .set(ACCOUNT.NAME, updateInstance.getName())
                         .set(ACCOUNT.AMOUNT, updateInstance.getAmount())
-                        .where(ACCOUNT.ID.eq(id))
+                        .set(ACCOUNT.VERSION, RowVersion.NEXT_ACCOUNT)
+                        .where(matches)
                         .execute();
+                if (changed == 0) {
+                    throw rejected(id);
+                }
+                //The new amount replaces the snapshot and the pending changes
+                AccountJournal.reset(ctx, id);
+                AccountStripes.reset(ctx, id);
                 return ctx
-                        .selectFrom(ACCOUNT)
+                        .select(FIELDS)
+                        .from(ACCOUNT)
                         .where(ACCOUNT.ID.eq(id))
                         .fetchOne()
                         .into(Account.class);
             });
+            accountCache.invalidate(id);
+            return updated;
         } catch (RuntimeException e) {
             if (e.getCause() != null && e.getCause() instanceof RuntimeException) {
                 throw (RuntimeException) e.getCause();
@@ -97,10 +263,56 @@ public class AccountController extends CRUDController<Account> {
         }
     }
 
+    /**
+     * Updates the name only. The in-memory ledger applies the transfers to
+     * the balances it holds and writes the changes behind, so an amount
+     * written to the DB would be overwritten by them
+     */
+    private Account updateName(int id, Account updateInstance,
+                               String expectedVersion) {
+        if (updateInstance.getAmount() != null) {
+            throw new UnsupportedOperationException(
+                    "Account amount can't be updated in LEDGER processing mode");
+        }
+        Condition condition = ACCOUNT.ID.eq(id);
+        if (expectedVersion != null) {
+            condition = condition.and(ACCOUNT.VERSION.eq(
+                    Long.parseLong(expectedVersion.split("-", 2)[0])));
+        }
+        int changed = ctx.update(ACCOUNT)
+                .set(ACCOUNT.NAME, updateInstance.getName())
+                .set(ACCOUNT.VERSION, RowVersion.NEXT_ACCOUNT)
+                .where(condition)
+                .execute();
+        if (changed == 0) {
+            throw rejected(id);
+        }
+        accountCache.invalidate(id);
+        return fetch(id);
+    }
+
+    /**
+     * @return the reason the conditional update of the account changed nothing
+     */
+    private RuntimeException rejected(int id) {
+        if (!ctx.fetchExists(ACCOUNT, ACCOUNT.ID.eq(id))) {
+            return new NotFoundException("Account with " + id + " is not found");
+        }
+        return new ConflictException("Account with " + id
+                + " is changed since the expected version");
+    }
+
     @Override
     protected void delete(int id) {
-        ctx.deleteFrom(ACCOUNT)
+        int deleted = ctx.deleteFrom(ACCOUNT)
                 .where(ACCOUNT.ID.eq(id))
                 .execute();
+        if (deleted > 0) {
+            accountCounter.add(-deleted);
+            accountCache.invalidate(id);
+            //Transfers of the account are deleted by cascade
+            transferCounter.invalidate();
+            transferCache.invalidateAll();
+        }
     }
 }
@@ -1,17 +1,26 @@
 package com.github.kgrech.djss.controller;
 
+import static com.google.common.net.HttpHeaders.ETAG;
+import static com.google.common.net.HttpHeaders.IF_MATCH;
+import static com.google.common.net.HttpHeaders.IF_NONE_MATCH;
 import static spark.Spark.path;
 
 import com.github.kgrech.djss.view.Page;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import javax.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
+import org.jooq.Cursor;
+import org.jooq.Record;
 import spark.Request;
-import spark.Spark;
+import spark.Response;
 
 @Slf4j
 public abstract class CRUDController<T> extends JsonController {
 
     public static final String PAGE = "page";
     public static final String PAGE_SZE = "pageSize";
+    public static final String AFTER = "after";
     public static final String ID = ":id";
 
     private final Class<T> tClass;
@@ -22,46 +31,165 @@ public abstract class CRUDController<T> extends JsonController {
 
     public void init() {
         path(getPath(), () -> {
-            get("/", (req, res) ->
-                    getPage(
-                        intParam(req, PAGE, 0),
-                        intParam(req, PAGE_SZE, 10)
-                    )
+            initRoutes();
+            getLines("/export", tClass, req -> export(new ExportFilter(req)));
+            get("/", (req, res) -> {
+                        int pageSize = intParam(req, PAGE_SZE, 10);
+                        if (req.queryParams(AFTER) != null) {
+                            int after = intParam(req, AFTER, 0);
+                            if (notModified(req, res, getPageAfterVersion(after, pageSize))) {
+                                return null;
+                            }
+                            return getPageAfter(after, pageSize);
+                        }
+                        int page = intParam(req, PAGE, 0);
+                        if (notModified(req, res, getPageVersion(page, pageSize))) {
+                            return null;
+                        }
+                        return getPage(page, pageSize);
+                    }
             );
-            get("/" + ID, (req, res) ->
-                    get(intPathParam(req, ID))
+            get("/" + ID, (req, res) -> {
+                        T value = get(intPathParam(req, ID));
+                        if (notModified(req, res, version(value))) {
+                            return null;
+                        }
+                        return value;
+                    }
             );
             post("/", (req, res) -> {
-                        T value = transform(req.body(), tClass);
+                        T value = transform(req, tClass);
                         T created = create(value);
                         res.status(201);
                         return created;
                     }
             );
             put("/" + ID, (req, res) -> {
-                        T value = transform(req.body(), tClass);
-                        return update(intPathParam(req, ID), value);
+                        T value = transform(req, tClass);
+                        return update(intPathParam(req, ID), value,
+                                expectedVersion(req));
                     }
             );
-            Spark.delete("/" + ID, (req, res) -> {
+            delete("/" + ID, (req, res) -> {
                 delete(intPathParam(req, ID));
                 return "";
             });
         });
     }
 
-    protected abstract String getPath();
+    /**
+     * Registers additional routes of the controller. The routes are
+     * registered before the CRUD ones, so they take precedence over /:id
+     */
+    protected void initRoutes() {
+    }
 
     protected abstract T get(int id);
 
     protected abstract Page<T> getPage(int page, int pageSize);
 
+    /**
+     * Returns the page of entities with id greater than after
+     */
+    protected abstract Page<T> getPageAfter(int after, int pageSize);
+
+    /**
+     * Returns the version of the entity, it changes whenever
+     * the representation of the entity does
+     */
+    protected abstract String version(T value);
+
+    /**
+     * Returns the version of the page computed without fetching the page,
+     * see {@link #pageVersion(Iterable, long)}
+     */
+    protected abstract String getPageVersion(int page, int pageSize);
+
+    protected abstract String getPageAfterVersion(int after, int pageSize);
+
+    /**
+     * Returns the cursor over the entities matching the filter ordered by id
+     */
+    protected abstract Cursor<? extends Record> export(ExportFilter filter);
+
     protected abstract T create(T newInstance);
 
-    protected abstract T update(int id, T updateInstance);
+    /**
+     * Updates the entity if it is at the expected version
+     * @param expectedVersion version of the entity the client has seen,
+     *                        see {@link #version(Object)}, or null to update
+     *                        any version
+     * @throws com.github.kgrech.djss.exception.ConflictException if the entity
+     *         is at another version
+     */
+    protected abstract T update(int id, T updateInstance, String expectedVersion);
 
     protected abstract void delete(int id);
 
+    /**
+     * Returns the version of a page from the versions of its rows
+     * @param rows ids and versions of the entities of the page
+     * @param total total number of the entities reported by the page
+     */
+    protected String pageVersion(Iterable<? extends Record> rows, long total) {
+        Hasher hasher = Hashing.murmur3_128().newHasher().putLong(total);
+        for (Record row : rows) {
+            for (int i = 0; i < row.size(); i++) {
+                Object value = row.get(i);
+                if (value instanceof Double) {
+                    hasher.putDouble((Double) value);
+                } else if (value instanceof Number) {
+                    hasher.putLong(((Number) value).longValue());
+                } else {
+                    hasher.putInt(value == null ? 0 : value.hashCode());
+                }
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Sets the ETag of the response and answers 304 if the client has
+     * the same version. The version does not depend on the wire format,
+     * so the ETag is weak
+     * @return true if the body is not needed
+     */
+    private boolean notModified(Request req, Response res, String version) {
+        String etag = "W/\"" + version + "\"";
+        res.header(ETAG, etag);
+        String ifNoneMatch = req.headers(IF_NONE_MATCH);
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || tag.equals(etag) || ("W/" + tag).equals(etag)) {
+                res.status(HttpServletResponse.SC_NOT_MODIFIED);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the version of the If-Match ETag, null if it is missing or *
+     */
+    private String expectedVersion(Request req) {
+        String ifMatch = req.headers(IF_MATCH);
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String tag = ifMatch.trim();
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+        if (tag.length() < 2 || !tag.startsWith("\"") || !tag.endsWith("\"")
+                || tag.indexOf('"', 1) != tag.length() - 1) {
+            throw new IllegalArgumentException("If-Match must be one ETag");
+        }
+        return tag.substring(1, tag.length() - 1);
+    }
+
     private int intParam(Request req, String param, int defaultValue) {
         String value = req.queryParams(param);
         if (value == null) {
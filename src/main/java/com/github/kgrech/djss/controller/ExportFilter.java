@@ -0,0 +1,60 @@
+package com.github.kgrech.djss.controller;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import lombok.Getter;
+import spark.Request;
+
+/**
+ * Filters of the export endpoints. Every filter is optional, id range
+ * is inclusive, time range is applied to the processing end time and
+ * expects ISO-8601 instants
+ */
+@Getter
+public class ExportFilter {
+
+    public static final String FROM_ID = "fromId";
+    public static final String TO_ID = "toId";
+    public static final String STATUS = "status";
+    public static final String SINCE = "since";
+    public static final String UNTIL = "until";
+
+    private final Integer fromId;
+    private final Integer toId;
+    private final String status;
+    private final Timestamp since;
+    private final Timestamp until;
+
+    ExportFilter(Request req) {
+        this.fromId = intParam(req, FROM_ID);
+        this.toId = intParam(req, TO_ID);
+        this.status = req.queryParams(STATUS);
+        this.since = timeParam(req, SINCE);
+        this.until = timeParam(req, UNTIL);
+    }
+
+    private static Integer intParam(Request req, String param) {
+        String value = req.queryParams(param);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Incorrect value of " + param, e);
+        }
+    }
+
+    private static Timestamp timeParam(Request req, String param) {
+        String value = req.queryParams(param);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Timestamp.from(Instant.parse(value));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Incorrect value of " + param, e);
+        }
+    }
+}
@@ -1,39 +1,120 @@
 package com.github.kgrech.djss.controller;
 
-import static com.google.common.net.HttpHeaders.CONTENT_TYPE;
-import static org.eclipse.jetty.http.MimeTypes.Type.APPLICATION_JSON;
+import static com.google.common.net.HttpHeaders.ACCEPT;
 
+import com.github.kgrech.djss.metrics.Histogram;
+import com.github.kgrech.djss.metrics.MetricsRegistry;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Function;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import org.jooq.Cursor;
+import org.jooq.Record;
+import spark.Request;
 import spark.Route;
 import spark.Spark;
 
 
 public abstract class JsonController {
 
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    public static final String HTTP_LATENCY = "djss_http_request_duration_seconds";
+
     private final JsonTransformer transformer = new JsonTransformer();
 
+    /**
+     * Returns base path of the controller routes
+     */
+    protected abstract String getPath();
+
     protected void get(String path, Route route) {
-        Spark.get(path, header(route), transformer);
+        Spark.get(path, timed("GET", path, streamed(route)));
     }
 
     protected void post(String path, Route route) {
-        Spark.post(path, APPLICATION_JSON.asString(),
-                header(route), transformer);
+        Spark.post(path, timed("POST", path, streamed(route)));
     }
 
     protected void put(String path, Route route) {
-        Spark.put(path, APPLICATION_JSON.asString(),
-                header(route), transformer);
+        Spark.put(path, timed("PUT", path, streamed(route)));
     }
 
-    private Route header(Route route) {
+    protected void delete(String path, Route route) {
+        Spark.delete(path, timed("DELETE", path, route));
+    }
+
+    /**
+     * Records the latency of the route, including the failed requests
+     */
+    private Route timed(String method, String path, Route route) {
+        Histogram latency = MetricsRegistry.DEFAULT.latency(HTTP_LATENCY,
+                "Latency of the HTTP requests by route",
+                MetricsRegistry.label("route", method + " " + getPath() + path));
         return (request, response) -> {
-            response.header(CONTENT_TYPE, APPLICATION_JSON.asString());
-            return route.handle(request, response);
+            long start = System.nanoTime();
+            try {
+                return route.handle(request, response);
+            } finally {
+                latency.recordSince(start);
+            }
         };
     }
 
-    public <T> T transform(String body, Class<T> clazz) throws IOException {
-        return transformer.transform(body, clazz);
+    /**
+     * Writes the returned model straight to the response stream
+     * instead of rendering it to a string first, in the format
+     * negotiated by the Accept header. Nothing is written for 304
+     */
+    private Route streamed(Route route) {
+        return (request, response) -> {
+            WireFormat format = WireFormat.accepted(request.headers(ACCEPT));
+            response.type(format.getMediaType());
+            Object model = route.handle(request, response);
+            if (response.raw().getStatus() != HttpServletResponse.SC_NOT_MODIFIED) {
+                transformer.write(model, response.raw().getOutputStream(), format);
+            }
+            return "";
+        };
+    }
+
+    /**
+     * Returns the body of the request as a stream.
+     * Spark reads the whole body into memory on the first access,
+     * the wrapped request is used to stream it instead
+     */
+    protected InputStream bodyStream(Request req) throws IOException {
+        ServletRequest raw = req.raw();
+        if (raw instanceof ServletRequestWrapper) {
+            raw = ((ServletRequestWrapper) raw).getRequest();
+        }
+        return raw.getInputStream();
+    }
+
+    /**
+     * Registers the route streaming the returned cursor as newline
+     * delimited JSON
+     */
+    protected <T> void getLines(String path, Class<T> clazz,
+                                Function<Request, Cursor<? extends Record>> route) {
+        Spark.get(path, timed("GET", path, (request, response) -> {
+            response.type(APPLICATION_NDJSON);
+            try (Cursor<? extends Record> cursor = route.apply(request)) {
+                transformer.writeLines(cursor, clazz,
+                        response.raw().getOutputStream());
+            }
+            return "";
+        }));
+    }
+
+    /**
+     * Reads the request body of the class from the request stream
+     * in the format of its Content-Type
+     */
+    public <T> T transform(Request req, Class<T> clazz) throws IOException {
+        return transformer.transform(bodyStream(req), clazz,
+                WireFormat.of(req.contentType()));
     }
 }
@@ -1,21 +1,92 @@
 package com.github.kgrech.djss.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.jooq.Cursor;
+import org.jooq.Record;
 import spark.ResponseTransformer;
 
+/**
+ * Converts the models to JSON (or another {@link WireFormat}) and back.
+ * The mappers, readers and writers are shared by all the controllers,
+ * the writer of a class resolves its serializer once, so it is not
+ * looked up for every response
+ */
 public class JsonTransformer implements ResponseTransformer {
 
-    private final ObjectMapper mapper = new ObjectMapper();
-
     @Override
     public String render(Object model) throws JsonProcessingException {
-        return mapper.writeValueAsString(model);
+        return writerOf(WireFormat.JSON, model).writeValueAsString(model);
+    }
+
+    /**
+     * Writes the model to the stream as JSON without buffering it as a string
+     * @param out stream to write to, not closed
+     */
+    public void write(Object model, OutputStream out) throws IOException {
+        write(model, out, WireFormat.JSON);
+    }
+
+    /**
+     * Writes the model to the stream in the format
+     * @param out stream to write to, not closed
+     */
+    public void write(Object model, OutputStream out, WireFormat format)
+            throws IOException {
+        try (JsonGenerator generator = format.getMapper().getFactory()
+                .createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            writerOf(format, model).writeValue(generator, model);
+        }
     }
 
     public <T> T transform(String body, Class<T> clazz) throws IOException {
-        return mapper.readValue(body, clazz);
+        return WireFormat.JSON.reader(clazz).readValue(body);
+    }
+
+    /**
+     * Reads the JSON model from the stream without buffering the body as a string
+     */
+    public <T> T transform(InputStream body, Class<T> clazz) throws IOException {
+        return transform(body, clazz, WireFormat.JSON);
+    }
+
+    /**
+     * Reads the model in the format from the stream
+     */
+    public <T> T transform(InputStream body, Class<T> clazz, WireFormat format)
+            throws IOException {
+        return format.reader(clazz).readValue(body);
     }
 
-}
\ No newline at end of file
+    /**
+     * Writes the records of the cursor as newline delimited JSON
+     * one by one, so the result is never kept in memory
+     * @param cursor records to write
+     * @param clazz class the records are converted to
+     * @param out stream to write to, not closed
+     */
+    public <T> void writeLines(Cursor<? extends Record> cursor, Class<T> clazz,
+                               OutputStream out) throws IOException {
+        ObjectWriter lineWriter = WireFormat.JSON.writer(clazz);
+        try (JsonGenerator generator = WireFormat.JSON.getMapper().getFactory()
+                .createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            while (cursor.hasNext()) {
+                lineWriter.writeValue(generator, cursor.fetchNextInto(clazz));
+                generator.writeRaw('\n');
+            }
+        }
+    }
+
+    private static ObjectWriter writerOf(WireFormat format, Object model) {
+        return model == null
+                ? format.getMapper().writer()
+                : format.writer(model.getClass());
+    }
+}
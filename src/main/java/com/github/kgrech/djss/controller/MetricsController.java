@@ -0,0 +1,26 @@
+package com.github.kgrech.djss.controller;
+
+import com.github.kgrech.djss.metrics.MetricsRegistry;
+import spark.Spark;
+
+/**
+ * Exposes the metrics in the Prometheus text format
+ */
+public class MetricsController {
+
+    public static final String BASE_URL = "/metrics";
+    public static final String TEXT_FORMAT = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MetricsRegistry registry;
+
+    public MetricsController(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void init() {
+        Spark.get(BASE_URL, (req, res) -> {
+            res.type(TEXT_FORMAT);
+            return registry.render();
+        });
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.kgrech.djss.controller;
+
+import static spark.Spark.path;
+
+import com.github.kgrech.djss.service.DSLContextProvider;
+import com.github.kgrech.djss.service.EntityCache;
+import com.github.kgrech.djss.view.CacheStatistics;
+import com.github.kgrech.djss.view.PoolStatistics;
+import com.google.common.cache.CacheStats;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Exposes runtime statistics of the service
+ */
+public class StatsController extends JsonController {
+
+    public static final String BASE_URL = "/stats";
+
+    private final List<EntityCache<?>> caches;
+    private final List<DSLContextProvider> pools;
+
+    public StatsController(List<EntityCache<?>> caches,
+                           List<DSLContextProvider> pools) {
+        this.caches = caches;
+        this.pools = pools;
+    }
+
+    @Override
+    protected String getPath() {
+        return BASE_URL;
+    }
+
+    public void init() {
+        path(getPath(), () -> {
+            get("/caches", (req, res) -> cacheStatistics());
+            get("/pools", (req, res) -> poolStatistics());
+        });
+    }
+
+    private List<CacheStatistics> cacheStatistics() {
+        return caches.stream()
+                .map(cache -> {
+                    CacheStats stats = cache.stats();
+                    return new CacheStatistics(cache.getName(), cache.size(),
+                            stats.hitCount(), stats.missCount(),
+                            stats.evictionCount());
+                })
+                .collect(Collectors.toList());
+    }
+
+    private List<PoolStatistics> poolStatistics() {
+        return pools.stream()
+                .map(pool -> new PoolStatistics(pool.getName(),
+                        pool.getNumActive(), pool.getNumIdle(),
+                        pool.getMaxActive(), pool.getAcquired(),
+                        pool.getErrors(), pool.getWaitTime(),
+                        pool.getMaxWaitTime()))
+                .collect(Collectors.toList());
+    }
+}
@@ -1,24 +1,59 @@
 package com.github.kgrech.djss.controller;
 
 import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER;
-import static org.jooq.impl.DSL.defaultValue;
+import static org.jooq.impl.DSL.trueCondition;
 
+import com.github.kgrech.djss.exception.ConflictException;
 import com.github.kgrech.djss.exception.NotFoundException;
+import com.github.kgrech.djss.jooq.RowVersion;
 import com.github.kgrech.djss.jooq.TransferStatus;
 import com.github.kgrech.djss.jooq.tables.pojos.Transfer;
 import com.github.kgrech.djss.jooq.tables.records.TransferRecord;
+import com.github.kgrech.djss.service.EntityCache;
+import com.github.kgrech.djss.service.RowCounter;
+import com.github.kgrech.djss.service.TransferImporter;
+import com.github.kgrech.djss.service.TransferListener;
+import com.github.kgrech.djss.service.intake.TransferIntake;
 import com.github.kgrech.djss.view.Page;
 import java.util.List;
+import org.jooq.Condition;
+import org.jooq.Cursor;
 import org.jooq.DSLContext;
 
 public class TransferController extends CRUDController<Transfer> {
 
     public static final String BASE_URL = "/transfers";
     private final DSLContext ctx;
+    private final TransferListener listener;
+    private final RowCounter transferCounter;
+    private final EntityCache<Transfer> transferCache;
+    private final TransferImporter importer;
+    private final TransferIntake intake;
 
-    public TransferController(DSLContext ctx) {
+    public TransferController(DSLContext ctx, TransferListener listener,
+                              RowCounter transferCounter,
+                              EntityCache<Transfer> transferCache,
+                              TransferImporter importer) {
+        this(ctx, listener, transferCounter, transferCache, importer, null);
+    }
+
+    /**
+     * Creates new instance
+     * @param intake intake the new transfers are submitted to or null
+     *               to insert them directly
+     */
+    public TransferController(DSLContext ctx, TransferListener listener,
+                              RowCounter transferCounter,
+                              EntityCache<Transfer> transferCache,
+                              TransferImporter importer,
+                              TransferIntake intake) {
         super(Transfer.class);
         this.ctx = ctx;
+        this.listener = listener;
+        this.transferCounter = transferCounter;
+        this.transferCache = transferCache;
+        this.importer = importer;
+        this.intake = intake;
     }
 
     @Override
@@ -26,82 +61,188 @@ public class TransferController extends CRUDController<Transfer> {
         return BASE_URL;
     }
 
+    @Override
+    protected void initRoutes() {
+        post("/batch", (req, res) ->
+                importer.importTransfers(bodyStream(req))
+        );
+    }
+
     @Override
     protected Transfer get(int id) {
+        if (intake != null) {
+            //Accepted, but not inserted yet
+            Transfer accepted = intake.find(id);
+            if (accepted != null) {
+                return accepted;
+            }
+        }
+        return transferCache.get(id, this::fetch);
+    }
+
+    private Transfer fetch(int id) {
         TransferRecord value = ctx.selectFrom(TRANSFER)
                 .where(TRANSFER.ID.eq(id))
                 .fetchOne();
         if (value != null) {
             return value.into(Transfer.class);
         } else {
-            throw new NotFoundException("Account with " + id + " is not found");
+            throw new NotFoundException("Transfer with " + id + " is not found");
         }
     }
 
     @Override
     protected Page<Transfer> getPage(int page, int pageSize) {
-        return ctx.transactionResult(() -> {
-            List<Transfer> content = ctx
-                    .selectFrom(TRANSFER)
-                    .offset(pageSize * page)
-                    .limit(pageSize)
-                    .fetch()
-                    .into(Transfer.class);
-            long total = ctx.selectCount()
-                    .from(TRANSFER)
-                    .fetchOne().value1();
-            return new Page<>(content, total);
-        });
+        List<Transfer> content = ctx
+                .selectFrom(TRANSFER)
+                .orderBy(TRANSFER.ID)
+                .offset(pageSize * page)
+                .limit(pageSize)
+                .fetch()
+                .into(Transfer.class);
+        return page(content, pageSize);
+    }
+
+    @Override
+    protected Page<Transfer> getPageAfter(int after, int pageSize) {
+        List<Transfer> content = ctx
+                .selectFrom(TRANSFER)
+                .where(TRANSFER.ID.gt(after))
+                .orderBy(TRANSFER.ID)
+                .limit(pageSize)
+                .fetch()
+                .into(Transfer.class);
+        return page(content, pageSize);
+    }
+
+    @Override
+    protected String version(Transfer value) {
+        return String.valueOf(value.getVersion());
+    }
+
+    @Override
+    protected String getPageVersion(int page, int pageSize) {
+        return pageVersion(ctx
+                .select(TRANSFER.ID, TRANSFER.VERSION)
+                .from(TRANSFER)
+                .orderBy(TRANSFER.ID)
+                .offset(pageSize * page)
+                .limit(pageSize)
+                .fetch(), transferCounter.get());
+    }
+
+    @Override
+    protected String getPageAfterVersion(int after, int pageSize) {
+        return pageVersion(ctx
+                .select(TRANSFER.ID, TRANSFER.VERSION)
+                .from(TRANSFER)
+                .where(TRANSFER.ID.gt(after))
+                .orderBy(TRANSFER.ID)
+                .limit(pageSize)
+                .fetch(), transferCounter.get());
+    }
+
+    private Page<Transfer> page(List<Transfer> content, int pageSize) {
+        Integer next = content.size() == pageSize && pageSize > 0
+                ? content.get(content.size() - 1).getId()
+                : null;
+        return new Page<>(content, transferCounter.get(), next);
+    }
+
+    @Override
+    protected Cursor<TransferRecord> export(ExportFilter filter) {
+        Condition condition = trueCondition();
+        if (filter.getFromId() != null) {
+            condition = condition.and(TRANSFER.ID.ge(filter.getFromId()));
+        }
+        if (filter.getToId() != null) {
+            condition = condition.and(TRANSFER.ID.le(filter.getToId()));
+        }
+        if (filter.getStatus() != null) {
+            condition = condition.and(TRANSFER.STATUS.eq(status(filter.getStatus())));
+        }
+        if (filter.getSince() != null) {
+            condition = condition.and(TRANSFER.PROCESSING_END.ge(filter.getSince()));
+        }
+        if (filter.getUntil() != null) {
+            condition = condition.and(TRANSFER.PROCESSING_END.lt(filter.getUntil()));
+        }
+        return ctx.selectFrom(TRANSFER)
+                .where(condition)
+                .orderBy(TRANSFER.ID)
+                .fetchLazy();
+    }
+
+    private TransferStatus status(String value) {
+        try {
+            return TransferStatus.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown status " + value, e);
+        }
     }
 
     @Override
     protected Transfer create(Transfer newInstance) {
-        return ctx.insertInto(TRANSFER)
+        if (intake != null) {
+            return intake.submit(newInstance);
+        }
+        Transfer created = ctx.insertInto(TRANSFER,
+                        TRANSFER.SENDER_ACCOUNT_ID,
+                        TRANSFER.RECEIVER_ACCOUNT_ID,
+                        TRANSFER.STATUS,
+                        TRANSFER.AMOUNT)
                 .values(
-                        defaultValue(TRANSFER.ID),
                         newInstance.getSenderAccountId(),
                         newInstance.getReceiverAccountId(),
                         TransferStatus.PENDING,
-                        newInstance.getAmount(),
-                        null,
-                        null,
-                        null
+                        newInstance.getAmount()
                 )
                 .returning()
                 .fetchOne()
                 .into(Transfer.class);
+        transferCounter.add(1);
+        listener.transferCreated(created);
+        return created;
     }
 
     @Override
-    protected Transfer update(int id, Transfer updateInstance) {
+    protected Transfer update(int id, Transfer updateInstance,
+                              String expectedVersion) {
+        if (intake != null) {
+            intake.flush(id);
+        }
+        //The status and the version are checked by the update itself,
+        //so no row is locked before it
+        Condition condition = TRANSFER.ID.eq(id)
+                .and(TRANSFER.STATUS.eq(TransferStatus.PENDING));
+        if (expectedVersion != null) {
+            condition = condition.and(
+                    TRANSFER.VERSION.eq(Long.parseLong(expectedVersion)));
+        }
+        Condition matches = condition;
         try {
-            return ctx.transactionResult(() -> {
-                TransferRecord value = ctx.selectFrom(TRANSFER)
-                        .where(TRANSFER.ID.eq(id))
-                        .forUpdate()
-                        .fetchOne();
-                if (value == null) {
-                    throw new NotFoundException("Account with " + id + " is not found");
-                }
-                Transfer transfer = value.into(Transfer.class);
-                if (transfer.getStatus() != TransferStatus.PENDING) {
-                    throw new UnsupportedOperationException(
-                            "Can't update transfer in " + transfer.getStatus() +
-                                    " status");
-                }
-
+            //The row stays locked until the response is read, so it can't be
+            //claimed by the dispensing in between
+            Transfer updated = ctx.transactionResult(() -> {
                 //We do not allow to update status
-                ctx.update(TRANSFER)
+                int changed = ctx.update(TRANSFER)
                         .set(TRANSFER.AMOUNT, updateInstance.getAmount())
                         .set(TRANSFER.SENDER_ACCOUNT_ID, updateInstance.getSenderAccountId())
                         .set(TRANSFER.RECEIVER_ACCOUNT_ID, updateInstance.getReceiverAccountId())
+                        .set(TRANSFER.VERSION, RowVersion.NEXT_TRANSFER)
+                        .where(matches)
                         .execute();
+                if (changed == 0) {
+                    throw rejected(id);
+                }
                 return ctx
                         .selectFrom(TRANSFER)
                         .where(TRANSFER.ID.eq(id))
                         .fetchOne()
                         .into(Transfer.class);
             });
+            transferCache.invalidate(id);
+            return updated;
         } catch (RuntimeException e) {
             if (e.getCause() != null && e.getCause() instanceof RuntimeException) {
                 throw (RuntimeException) e.getCause();
@@ -110,15 +251,37 @@ public class TransferController extends CRUDController<Transfer> {
         }
     }
 
+    /**
+     * @return the reason the conditional update of the transfer changed nothing
+     */
+    private RuntimeException rejected(int id) {
+        TransferStatus status = ctx.select(TRANSFER.STATUS)
+                .from(TRANSFER)
+                .where(TRANSFER.ID.eq(id))
+                .fetchOne(TRANSFER.STATUS);
+        if (status == null) {
+            return new NotFoundException("Transfer with " + id + " is not found");
+        }
+        if (status != TransferStatus.PENDING) {
+            return new UnsupportedOperationException(
+                    "Can't update transfer in " + status + " status");
+        }
+        return new ConflictException("Transfer with " + id
+                + " is changed since the expected version");
+    }
+
     @Override
     protected void delete(int id) {
+        if (intake != null) {
+            intake.flush(id);
+        }
         ctx.transaction(() -> {
             TransferRecord value = ctx.selectFrom(TRANSFER)
                     .where(TRANSFER.ID.eq(id))
                     .forUpdate()
                     .fetchOne();
             if (value == null) {
-                throw new NotFoundException("Account with " + id + " is not found");
+                throw new NotFoundException("Transfer with " + id + " is not found");
             }
             Transfer transfer = value.into(Transfer.class);
             if (transfer.getStatus() != TransferStatus.PENDING) {
@@ -126,9 +289,17 @@ public class TransferController extends CRUDController<Transfer> {
                         "Can't delete transfer in " + transfer.getStatus() +
                                 " status");
             }
+            if (intake != null) {
+                //The transfer stays in the journal until its segment is
+                //deleted. Written once the transfer is known to exist, the
+                //id of a missing one may be given to the next transfer
+                intake.tombstone(id);
+            }
             ctx.deleteFrom(TRANSFER)
                     .where(TRANSFER.ID.eq(id))
                     .execute();
         });
+        transferCache.invalidate(id);
+        transferCounter.add(-1);
     }
 }
@@ -0,0 +1,293 @@
+package com.github.kgrech.djss.controller;
+
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER;
+import static com.google.common.net.HttpHeaders.CACHE_CONTROL;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.github.kgrech.djss.jooq.TransferStatus;
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer;
+import com.github.kgrech.djss.service.TransferWatchers;
+import com.github.kgrech.djss.service.TransferWatchers.Watcher;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import spark.Request;
+import spark.Response;
+import spark.Spark;
+
+/**
+ * Streams the processed transfers as Server-Sent Events. A stream watches
+ * the transfers of the ids query parameter and the transfers of the
+ * accounts one. The request is asynchronous and the writes are not
+ * blocking, so an idle stream holds no thread. The watched transfers
+ * which are processed already are sent first
+ */
+@Slf4j
+public class TransferEventsController implements AutoCloseable {
+
+    public static final String BASE_URL = TransferController.BASE_URL + "/events";
+    public static final String TEXT_EVENT_STREAM = "text/event-stream";
+    public static final String IDS = "ids";
+    public static final String ACCOUNTS = "accounts";
+
+    private static final List<TransferStatus> FINAL_STATUSES = Arrays.asList(
+            TransferStatus.COMPLETED, TransferStatus.REJECTED, TransferStatus.ERROR);
+    private static final byte[] EVENT = "event: transfer\ndata: "
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] EVENT_END = "\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final DSLContext ctx;
+    private final TransferWatchers watchers;
+    private final ObjectWriter writer = WireFormat.JSON.writer(Transfer.class);
+    private final Set<EventStream> streams = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Creates new instance
+     * @param heartbeat seconds between the comments keeping an idle stream
+     *                  open
+     */
+    public TransferEventsController(DSLContext ctx, TransferWatchers watchers,
+                                    int heartbeat) {
+        this.ctx = ctx;
+        this.watchers = watchers;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("transfer-events-%d")
+                        .setDaemon(true)
+                        .build());
+        executor.scheduleWithFixedDelay(this::heartbeat, heartbeat, heartbeat,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Registers the route, must be called before the transfer routes, so
+     * the path is not taken for a transfer id
+     */
+    public void init() {
+        Spark.get(BASE_URL, this::stream);
+    }
+
+    private Object stream(Request req, Response res) throws IOException {
+        Set<Integer> transfers = ids(req, IDS);
+        Set<Integer> accounts = ids(req, ACCOUNTS);
+        if (transfers.isEmpty() && accounts.isEmpty()) {
+            throw new IllegalArgumentException("Either " + IDS + " or "
+                    + ACCOUNTS + " must be given");
+        }
+        HttpServletResponse raw = res.raw();
+        EventStream stream = new EventStream(raw.getOutputStream());
+        //Watching first, so a transfer processed meanwhile is not missed
+        stream.watcher = watchers.watch(transfers, accounts, stream::schedule);
+        List<Transfer> processed;
+        try {
+            processed = transfers.isEmpty()
+                    ? Collections.emptyList()
+                    : ctx.selectFrom(TRANSFER)
+                            .where(TRANSFER.ID.in(transfers))
+                            .and(TRANSFER.STATUS.in(FINAL_STATUSES))
+                            .fetchInto(Transfer.class);
+        } catch (RuntimeException e) {
+            stream.watcher.close();
+            throw e;
+        }
+
+        raw.setStatus(HttpServletResponse.SC_OK);
+        raw.setContentType(TEXT_EVENT_STREAM);
+        raw.setHeader(CACHE_CONTROL, "no-cache");
+        stream.async = req.raw().startAsync();
+        stream.async.setTimeout(0);
+        stream.async.addListener(stream);
+        streams.add(stream);
+        try {
+            for (Transfer transfer : processed) {
+                stream.write(transfer);
+            }
+            //Commits the response, so nothing is written by Spark after the route
+            stream.out.write(HEARTBEAT);
+            stream.out.flush();
+            stream.out.setWriteListener(stream);
+        } catch (IOException e) {
+            log.debug("Transfer events stream is closed", e);
+            stream.finish();
+        }
+        return "";
+    }
+
+    private static Set<Integer> ids(Request req, String param) {
+        Set<Integer> ids = new HashSet<>();
+        String value = req.queryParams(param);
+        if (value == null || value.trim().isEmpty()) {
+            return ids;
+        }
+        try {
+            for (String item : value.split(",")) {
+                ids.add(Integer.valueOf(item.trim()));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Incorrect value of " + param, e);
+        }
+        return ids;
+    }
+
+    private void heartbeat() {
+        for (EventStream stream : streams) {
+            stream.heartbeat = true;
+            stream.drain();
+        }
+    }
+
+    /**
+     * @return number of the open streams
+     */
+    public int size() {
+        return streams.size();
+    }
+
+    /**
+     * Ends all the streams
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        streams.forEach(EventStream::finish);
+    }
+
+    private class EventStream implements WriteListener, AsyncListener {
+
+        private final ServletOutputStream out;
+        private volatile AsyncContext async;
+        private volatile Watcher watcher;
+        private volatile boolean heartbeat;
+        private boolean started;
+        private boolean flush;
+        private boolean finished;
+
+        EventStream(ServletOutputStream out) {
+            this.out = out;
+        }
+
+        void schedule() {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                //The streams are closed
+            }
+        }
+
+        /**
+         * Writes the event at once, a non-blocking write can't be followed
+         * by another one until the output is ready
+         */
+        void write(Transfer transfer) throws IOException {
+            byte[] data = writer.writeValueAsBytes(transfer);
+            byte[] event = new byte[EVENT.length + data.length + EVENT_END.length];
+            System.arraycopy(EVENT, 0, event, 0, EVENT.length);
+            System.arraycopy(data, 0, event, EVENT.length, data.length);
+            System.arraycopy(EVENT_END, 0, event, EVENT.length + data.length,
+                    EVENT_END.length);
+            out.write(event);
+        }
+
+        /**
+         * Writes the buffered transfers while the output is ready. When it is
+         * not, the container calls onWritePossible later
+         */
+        synchronized void drain() {
+            if (!started || finished) {
+                return;
+            }
+            if (watcher.isEvicted()) {
+                log.debug("Slow transfer events stream is evicted");
+                finish();
+                return;
+            }
+            try {
+                while (out.isReady()) {
+                    Transfer transfer = watcher.poll();
+                    if (transfer != null) {
+                        write(transfer);
+                        flush = true;
+                    } else if (heartbeat) {
+                        out.write(HEARTBEAT);
+                        heartbeat = false;
+                        flush = true;
+                    } else if (flush) {
+                        out.flush();
+                        flush = false;
+                    } else {
+                        return;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                log.debug("Transfer events stream is closed", e);
+                finish();
+            }
+        }
+
+        synchronized void finish() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            streams.remove(this);
+            if (watcher != null) {
+                watcher.close();
+            }
+            try {
+                async.complete();
+            } catch (IllegalStateException e) {
+                //Completed by the container already
+            }
+        }
+
+        @Override
+        public synchronized void onWritePossible() {
+            started = true;
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            finish();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            finish();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            finish();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            finish();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.kgrech.djss.controller;
+
+import com.github.kgrech.djss.service.VirtualThreads;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * Jetty thread pool running every job on a new virtual thread.
+ * The number of threads is not limited, the number of requests handled
+ * concurrently is limited by the application.
+ */
+public class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+
+    private final String prefix;
+    private final AtomicInteger threads = new AtomicInteger();
+    private volatile ExecutorService executor;
+
+    public VirtualThreadPool(String prefix) {
+        this.prefix = prefix;
+    }
+
+    @Override
+    protected void doStart() {
+        executor = VirtualThreads.newExecutor(prefix);
+    }
+
+    @Override
+    protected void doStop() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void execute(Runnable job) {
+        executor.execute(() -> {
+            threads.incrementAndGet();
+            try {
+                job.run();
+            } finally {
+                threads.decrementAndGet();
+            }
+        });
+    }
+
+    @Override
+    public void join() throws InterruptedException {
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int getThreads() {
+        return threads.get();
+    }
+
+    @Override
+    public int getIdleThreads() {
+        return 0;
+    }
+
+    @Override
+    public boolean isLowOnThreads() {
+        return false;
+    }
+}
@@ -0,0 +1,114 @@
+package com.github.kgrech.djss.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.github.kgrech.djss.jooq.tables.pojos.Account;
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer;
+import com.github.kgrech.djss.view.Message;
+import com.github.kgrech.djss.view.Page;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.Getter;
+
+/**
+ * Encodings of the request and response bodies. JSON is the default,
+ * CBOR encodes the same models in a compact binary form for the clients
+ * asking for it. Every format has its own mapper, readers and writers
+ */
+public enum WireFormat {
+
+    JSON("application/json", new ObjectMapper()),
+    CBOR("application/cbor", new ObjectMapper(new CBORFactory()));
+
+    @Getter
+    private final String mediaType;
+    @Getter
+    private final ObjectMapper mapper;
+    private final Map<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+    private final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    WireFormat(String mediaType, ObjectMapper mapper) {
+        this.mediaType = mediaType;
+        this.mapper = mapper.disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        for (Class<?> clazz : new Class<?>[]{Account.class, Transfer.class,
+                Page.class, Message.class}) {
+            writer(clazz);
+        }
+        reader(Account.class);
+        reader(Transfer.class);
+    }
+
+    /**
+     * @return writer resolving the serializer of the class once
+     */
+    public ObjectWriter writer(Class<?> clazz) {
+        return writers.computeIfAbsent(clazz, mapper::writerFor);
+    }
+
+    public ObjectReader reader(Class<?> clazz) {
+        return readers.computeIfAbsent(clazz, mapper::readerFor);
+    }
+
+    /**
+     * Selects the format of the response by the Accept header: the supported
+     * media type with the highest q-value wins, the first listed one on
+     * a tie. JSON if none of them is supported
+     */
+    public static WireFormat accepted(String accept) {
+        if (accept == null) {
+            return JSON;
+        }
+        WireFormat accepted = JSON;
+        double best = 0;
+        for (String item : accept.split(",")) {
+            String mediaType = mediaType(item);
+            double quality = quality(item);
+            for (WireFormat format : values()) {
+                if (format.mediaType.equals(mediaType) && quality > best) {
+                    accepted = format;
+                    best = quality;
+                }
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Selects the format of the request body by the Content-Type header,
+     * JSON if it is missing or not supported
+     */
+    public static WireFormat of(String contentType) {
+        if (contentType != null && CBOR.mediaType.equals(mediaType(contentType))) {
+            return CBOR;
+        }
+        return JSON;
+    }
+
+    /**
+     * @return q-value of the Accept header item, 1 if it has none or it is
+     * malformed
+     */
+    private static double quality(String item) {
+        String[] params = item.split(";");
+        for (int i = 1; i < params.length; i++) {
+            String param = params[i].trim();
+            if (param.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 1;
+                }
+            }
+        }
+        return 1;
+    }
+
+    private static String mediaType(String value) {
+        int params = value.indexOf(';');
+        return (params < 0 ? value : value.substring(0, params))
+                .trim().toLowerCase();
+    }
+}
@@ -0,0 +1,22 @@
+package com.github.kgrech.djss.exception;
+
+/**
+ * The entity is changed since the version the client expects
+ */
+public class ConflictException extends RuntimeException {
+
+    public ConflictException() {
+    }
+
+    public ConflictException(String message) {
+        super(message);
+    }
+
+    public ConflictException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public ConflictException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,23 @@
+package com.github.kgrech.djss.exception;
+
+/**
+ * Thrown when the transfer is no longer claimed by the processing,
+ * its lease is expired and the transfer is reclaimed by another one
+ */
+public class LeaseExpiredException extends RuntimeException {
+
+    public LeaseExpiredException() {
+    }
+
+    public LeaseExpiredException(String message) {
+        super(message);
+    }
+
+    public LeaseExpiredException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public LeaseExpiredException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,24 @@
+package com.github.kgrech.djss.jooq;
+
+import org.jooq.impl.AbstractConverter;
+
+/**
+ * Amounts are stored in minor units (cents), the rest API and the pojos
+ * keep them in major units
+ */
+public class AmountConverter extends AbstractConverter<Long, Double> {
+
+    public AmountConverter() {
+        super(Long.class, Double.class);
+    }
+
+    @Override
+    public Double from(Long minorUnits) {
+        return minorUnits != null ? MinorUnits.toAmount(minorUnits) : null;
+    }
+
+    @Override
+    public Long to(Double amount) {
+        return amount != null ? MinorUnits.of(amount) : null;
+    }
+}
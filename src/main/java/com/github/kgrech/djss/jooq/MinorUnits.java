@@ -0,0 +1,45 @@
+package com.github.kgrech.djss.jooq;
+
+import static com.github.kgrech.djss.jooq.tables.Account.ACCOUNT;
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER;
+
+import org.jooq.Field;
+import org.jooq.impl.SQLDataType;
+
+/**
+ * Amounts in minor units. The processing works on these, so the balance
+ * arithmetic is exact and needs no boxed doubles.
+ */
+public final class MinorUnits {
+
+    public static final int PER_UNIT = 100;
+
+    /**
+     * Balance of the account in minor units, bypassing {@link AmountConverter}
+     */
+    public static final Field<Long> ACCOUNT_AMOUNT =
+            ACCOUNT.AMOUNT.coerce(SQLDataType.BIGINT);
+
+    /**
+     * Amount of the transfer in minor units, bypassing {@link AmountConverter}
+     */
+    public static final Field<Long> TRANSFER_AMOUNT =
+            TRANSFER.AMOUNT.coerce(SQLDataType.BIGINT);
+
+    private MinorUnits() {
+    }
+
+    /**
+     * @return amount in minor units rounded to the nearest one
+     */
+    public static long of(double amount) {
+        return Math.round(amount * PER_UNIT);
+    }
+
+    /**
+     * @return amount in major units
+     */
+    public static double toAmount(long minorUnits) {
+        return (double) minorUnits / PER_UNIT;
+    }
+}
@@ -0,0 +1,23 @@
+package com.github.kgrech.djss.jooq;
+
+import static com.github.kgrech.djss.jooq.tables.Account.ACCOUNT;
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER;
+import static org.jooq.impl.DSL.inline;
+
+import org.jooq.Field;
+
+/**
+ * Versions of the account and transfer rows. Every update of a row sets
+ * its version to the next one, so the version changes whenever the row
+ * does and can be used as a validator of the cached copies.
+ * The increment is inlined, so it does not shift the batch bind values.
+ */
+public final class RowVersion {
+
+    public static final Field<Long> NEXT_ACCOUNT = ACCOUNT.VERSION.plus(inline(1L));
+
+    public static final Field<Long> NEXT_TRANSFER = TRANSFER.VERSION.plus(inline(1L));
+
+    private RowVersion() {
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.kgrech.djss.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram with fixed buckets. Recording is lock free and does not
+ * allocate, so it can be used on hot paths.
+ */
+public class Histogram {
+
+    /**
+     * Buckets of the latency histograms in seconds
+     */
+    public static final double[] LATENCY_BUCKETS = {0.0005, 0.001, 0.0025,
+            0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private final double[] buckets;
+    //Upper bounds of the buckets in the recorded unit
+    private final long[] bounds;
+    //Multiplier converting the recorded unit to the reported one
+    private final double scale;
+    //The last counter is the +Inf bucket
+    private final LongAdder[] counts;
+    private final LongAdder sum = new LongAdder();
+
+    Histogram(double[] buckets, double scale) {
+        this.buckets = buckets.clone();
+        this.bounds = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            bounds[i] = Math.round(buckets[i] / scale);
+        }
+        this.scale = scale;
+        this.counts = new LongAdder[buckets.length + 1];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Creates the histogram recording nanoseconds and reporting seconds
+     */
+    static Histogram latency() {
+        return new Histogram(LATENCY_BUCKETS, 1.0 / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * Creates the histogram of the plain values
+     */
+    static Histogram values(double[] buckets) {
+        return new Histogram(buckets, 1);
+    }
+
+    public void record(long value) {
+        int i = 0;
+        while (i < bounds.length && value > bounds[i]) {
+            i++;
+        }
+        counts[i].increment();
+        sum.add(value);
+    }
+
+    /**
+     * Records the time elapsed since start
+     * @param start start time returned by {@link System#nanoTime()}
+     */
+    public void recordSince(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    int buckets() {
+        return bounds.length;
+    }
+
+    double bound(int bucket) {
+        return buckets[bucket];
+    }
+
+    /**
+     * @return number of values in the bucket, not cumulative
+     */
+    long count(int bucket) {
+        return counts[bucket].sum();
+    }
+
+    double sum() {
+        return sum.sum() * scale;
+    }
+}
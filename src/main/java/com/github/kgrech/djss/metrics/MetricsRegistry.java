@@ -0,0 +1,172 @@
+package com.github.kgrech.djss.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Registry of the application metrics rendered in the Prometheus text
+ * format. A metric is identified by its name and labels, registering the
+ * same metric again returns the existing instance, so the metrics survive
+ * restarts of the components recording them.
+ */
+public class MetricsRegistry {
+
+    public static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private static final String COUNTER = "counter";
+    private static final String GAUGE = "gauge";
+    private static final String HISTOGRAM = "histogram";
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    /**
+     * Renders the label pair, escaping the value
+     */
+    public static String label(String name, String value) {
+        return name + "=\"" + value.replace("\\", "\\\\")
+                .replace("\"", "\\\"")
+                .replace("\n", "\\n") + "\"";
+    }
+
+    /**
+     * Returns the counter
+     * @param name name of the metric
+     * @param help description of the metric
+     * @param labels rendered labels, see {@link #label(String, String)},
+     *               empty string if the metric has no labels
+     */
+    public Counter counter(String name, String help, String labels) {
+        return (Counter) family(name, help, COUNTER)
+                .children.computeIfAbsent(labels, l -> new Counter());
+    }
+
+    /**
+     * Returns the histogram recording nanoseconds and reporting seconds
+     */
+    public Histogram latency(String name, String help, String labels) {
+        return (Histogram) family(name, help, HISTOGRAM)
+                .children.computeIfAbsent(labels, l -> Histogram.latency());
+    }
+
+    /**
+     * Returns the histogram of the values
+     * @param buckets upper bounds of the buckets
+     */
+    public Histogram histogram(String name, String help, String labels,
+                               double[] buckets) {
+        return (Histogram) family(name, help, HISTOGRAM)
+                .children.computeIfAbsent(labels, l -> Histogram.values(buckets));
+    }
+
+    /**
+     * Registers the gauge, replacing the previously registered supplier
+     * @param value supplier of the current value
+     */
+    public void gauge(String name, String help, String labels,
+                      DoubleSupplier value) {
+        family(name, help, GAUGE).children.put(labels, value);
+    }
+
+    /**
+     * Removes the gauge, so the values of a stopped component are not
+     * reported
+     */
+    public void removeGauge(String name, String labels, DoubleSupplier value) {
+        Family family;
+        synchronized (this) {
+            family = families.get(name);
+        }
+        if (family != null) {
+            family.children.remove(labels, value);
+        }
+    }
+
+    public String render() {
+        List<Family> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(families.values());
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Family family : snapshot) {
+            family.render(sb);
+        }
+        return sb.toString();
+    }
+
+    private synchronized Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name,
+                n -> new Family(name, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name +
+                    " is already registered as " + family.type);
+        }
+        return family;
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value)
+                && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    private static class Family {
+
+        private final String name;
+        private final String help;
+        private final String type;
+        //Sorted by labels, so the output is stable
+        private final Map<String, Object> children = new ConcurrentSkipListMap<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        void render(StringBuilder sb) {
+            sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            for (Map.Entry<String, Object> child : children.entrySet()) {
+                String labels = child.getKey();
+                Object metric = child.getValue();
+                if (metric instanceof Counter) {
+                    sample(sb, name, labels, ((Counter) metric).get());
+                } else if (metric instanceof DoubleSupplier) {
+                    sample(sb, name, labels, ((DoubleSupplier) metric).getAsDouble());
+                } else {
+                    histogram(sb, labels, (Histogram) metric);
+                }
+            }
+        }
+
+        private void histogram(StringBuilder sb, String labels,
+                               Histogram histogram) {
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            long cumulative = 0;
+            for (int i = 0; i < histogram.buckets(); i++) {
+                cumulative += histogram.count(i);
+                sample(sb, name + "_bucket", prefix + "le=\"" +
+                        format(histogram.bound(i)) + "\"", cumulative);
+            }
+            cumulative += histogram.count(histogram.buckets());
+            sample(sb, name + "_bucket", prefix + "le=\"+Inf\"", cumulative);
+            sample(sb, name + "_sum", labels, histogram.sum());
+            sample(sb, name + "_count", labels, cumulative);
+        }
+
+        private static void sample(StringBuilder sb, String name,
+                                   String labels, double value) {
+            sb.append(name);
+            if (!labels.isEmpty()) {
+                sb.append('{').append(labels).append('}');
+            }
+            sb.append(' ').append(format(value)).append('\n');
+        }
+    }
+}
@@ -1,31 +1,78 @@
 package com.github.kgrech.djss.service;
 
-import com.github.kgrech.djss.App;
-import java.io.IOException;
-import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.dbcp.BasicDataSource;
+import org.apache.commons.pool.impl.GenericKeyedObjectPool;
+import org.apache.commons.pool.impl.GenericObjectPool;
 import org.jooq.Configuration;
 import org.jooq.ConnectionProvider;
 import org.jooq.DSLContext;
 import org.jooq.SQLDialect;
+import org.jooq.exception.DataAccessException;
 import org.jooq.impl.DSL;
-import org.jooq.impl.DataSourceConnectionProvider;
 import org.jooq.impl.DefaultConfiguration;
 import org.jooq.impl.ThreadLocalTransactionProvider;
 
+/**
+ * Connection pool and the jooq context using it.
+ * The pool is configured by db.pool.* properties, the pool with another
+ * prefix falls back to them for missing properties.
+ * The time spent waiting for a connection is recorded.
+ */
+@Slf4j
 public class DSLContextProvider {
 
+    public static final String DEFAULT_PREFIX = "db.pool.";
+
+    @Getter
+    private final String name;
     private final BasicDataSource ds;
 
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder waitTime = new LongAdder();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
     public DSLContextProvider(Properties properties) {
+        this("default", properties, DEFAULT_PREFIX);
+    }
+
+    /**
+     * Creates new instance
+     * @param name name of the pool reported in the stats
+     * @param properties application properties
+     * @param prefix prefix of the pool properties
+     */
+    public DSLContextProvider(String name, Properties properties,
+                              String prefix) {
+        this.name = name;
         this.ds = new BasicDataSource();
         this.ds.setDriverClassName(properties.getProperty("db.driver"));
         this.ds.setUrl(properties.getProperty("db.url"));
         this.ds.setUsername(properties.getProperty("db.username"));
         this.ds.setPassword(properties.getProperty("db.password"));
+
+        PoolProperties pool = new PoolProperties(properties, prefix);
+        this.ds.setMaxActive(pool.intValue("maxActive",
+                GenericObjectPool.DEFAULT_MAX_ACTIVE));
+        this.ds.setMaxIdle(pool.intValue("maxIdle",
+                GenericObjectPool.DEFAULT_MAX_IDLE));
+        this.ds.setMinIdle(pool.intValue("minIdle",
+                GenericObjectPool.DEFAULT_MIN_IDLE));
+        this.ds.setMaxWait(pool.intValue("maxWait",
+                (int) GenericObjectPool.DEFAULT_MAX_WAIT));
+        this.ds.setPoolPreparedStatements(pool.booleanValue(
+                "poolPreparedStatements", false));
+        this.ds.setMaxOpenPreparedStatements(pool.intValue(
+                "maxOpenPreparedStatements",
+                GenericKeyedObjectPool.DEFAULT_MAX_TOTAL));
     }
 
     public Connection getConnection() throws SQLException {
@@ -33,11 +80,127 @@ public class DSLContextProvider {
     }
 
     public DSLContext getContext() {
-        final ConnectionProvider cp = new DataSourceConnectionProvider(ds);
+        final ConnectionProvider cp = new InstrumentedConnectionProvider();
         final Configuration configuration = new DefaultConfiguration()
                 .set(cp)
                 .set(SQLDialect.H2)
                 .set(new ThreadLocalTransactionProvider(cp, true));
         return DSL.using(configuration);
     }
+
+    public int getNumActive() {
+        return ds.getNumActive();
+    }
+
+    public int getNumIdle() {
+        return ds.getNumIdle();
+    }
+
+    public int getMaxActive() {
+        return ds.getMaxActive();
+    }
+
+    /**
+     * @return number of connections taken from the pool
+     */
+    public long getAcquired() {
+        return acquired.sum();
+    }
+
+    /**
+     * @return number of failed attempts to take a connection, including
+     *         the ones timed out waiting for a free connection
+     */
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * @return total time spent waiting for a connection in milliseconds
+     */
+    public long getWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(waitTime.sum());
+    }
+
+    /**
+     * @return the longest wait for a connection in milliseconds
+     */
+    public long getMaxWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitTime.get());
+    }
+
+    public void close() {
+        try {
+            ds.close();
+        } catch (SQLException e) {
+            log.warn("Can't close the {} pool", name, e);
+        }
+    }
+
+    private class InstrumentedConnectionProvider implements ConnectionProvider {
+
+        @Override
+        public Connection acquire() {
+            long start = System.nanoTime();
+            try {
+                Connection connection = ds.getConnection();
+                acquired.increment();
+                return connection;
+            } catch (SQLException e) {
+                errors.increment();
+                throw new DataAccessException(
+                        "Error getting connection from the " + name + " pool", e);
+            } finally {
+                long wait = System.nanoTime() - start;
+                waitTime.add(wait);
+                maxWaitTime.accumulateAndGet(wait, Math::max);
+            }
+        }
+
+        @Override
+        public void release(Connection connection) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                throw new DataAccessException("Error closing connection " +
+                        connection, e);
+            }
+        }
+    }
+
+    private static class PoolProperties {
+
+        private final Properties properties;
+        private final String prefix;
+
+        PoolProperties(Properties properties, String prefix) {
+            this.properties = properties;
+            this.prefix = prefix;
+        }
+
+        int intValue(String key, int defaultValue) {
+            String value = value(key);
+            if (value != null) {
+                try {
+                    return Integer.valueOf(value.trim());
+                } catch (NumberFormatException e) {
+                    log.warn("Can't convert {} to number", value, e);
+                }
+            }
+            return defaultValue;
+        }
+
+        boolean booleanValue(String key, boolean defaultValue) {
+            String value = value(key);
+            return value != null ? Boolean.parseBoolean(value.trim()) : defaultValue;
+        }
+
+        private String value(String key) {
+            String value = properties.getProperty(prefix + key);
+            if (value == null) {
+                value = properties.getProperty(DEFAULT_PREFIX + key);
+            }
+            return value;
+        }
+    }
 }
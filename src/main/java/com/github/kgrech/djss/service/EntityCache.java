@@ -0,0 +1,86 @@
+package com.github.kgrech.djss.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import lombok.Getter;
+
+/**
+ * Bounded read-through cache of entities by id. Entries are evicted by
+ * size and after the ttl since they were loaded.
+ * Writers must call {@link #invalidate(int)} after the change is committed.
+ * A value loaded concurrently with an invalidation is dropped after it is
+ * returned, so stale values never stay in the cache.
+ * @param <T> type of the entity
+ */
+public class EntityCache<T> {
+
+    @Getter
+    private final String name;
+    private final Cache<Integer, T> cache;
+    //Incremented by every invalidation
+    private final AtomicLong epoch = new AtomicLong();
+
+    /**
+     * Creates new instance
+     * @param name name of the cache reported in the stats
+     * @param maxSize max number of entries
+     * @param ttl time to live of the entries in seconds
+     */
+    public EntityCache(String name, long maxSize, long ttl) {
+        this.name = name;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the cached entity or loads it
+     * @param id id of the entity
+     * @param loader loads the entity from the DB, might throw an exception
+     *               if the entity does not exist, must not return null
+     */
+    public T get(int id, IntFunction<T> loader) {
+        long before = epoch.get();
+        T value;
+        try {
+            value = cache.get(id, () -> loader.apply(id));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (RuntimeException e) {
+            //Guava wraps unchecked exceptions of the loader
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        if (epoch.get() != before) {
+            cache.invalidate(id);
+        }
+        return value;
+    }
+
+    public void invalidate(int id) {
+        epoch.incrementAndGet();
+        cache.invalidate(id);
+    }
+
+    public void invalidateAll() {
+        epoch.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.kgrech.djss.service;
+
+import com.github.kgrech.djss.jooq.TransferStatus;
+import com.github.kgrech.djss.jooq.tables.pojos.Account;
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer;
+import java.util.Collection;
+
+/**
+ * Invalidates cached transfers and account balances changed by the
+ * transfer processing
+ */
+public class EntityCacheInvalidator implements TransferListener {
+
+    private final EntityCache<Account> accounts;
+    private final EntityCache<Transfer> transfers;
+
+    public EntityCacheInvalidator(EntityCache<Account> accounts,
+                                  EntityCache<Transfer> transfers) {
+        this.accounts = accounts;
+        this.transfers = transfers;
+    }
+
+    @Override
+    public void transferProcessed(Transfer transfer) {
+        if (transfer.getStatus() == TransferStatus.COMPLETED) {
+            accounts.invalidate(transfer.getSenderAccountId());
+            accounts.invalidate(transfer.getReceiverAccountId());
+        } else if (transfer.getStatus() == TransferStatus.REJECTED) {
+            //The slots of a striped sender are merged before it is rejected
+            accounts.invalidate(transfer.getSenderAccountId());
+        }
+        transfers.invalidate(transfer.getId());
+    }
+
+    @Override
+    public void transfersChanged(Collection<Integer> ids) {
+        invalidate(transfers, ids);
+    }
+
+    @Override
+    public void accountsChanged(Collection<Integer> ids) {
+        invalidate(accounts, ids);
+    }
+
+    private static void invalidate(EntityCache<?> cache, Collection<Integer> ids) {
+        if (ids == null) {
+            cache.invalidateAll();
+            return;
+        }
+        for (int id : ids) {
+            cache.invalidate(id);
+        }
+    }
+}
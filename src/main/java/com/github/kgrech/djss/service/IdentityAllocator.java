@@ -0,0 +1,66 @@
+package com.github.kgrech.djss.service;
+
+import static org.jooq.impl.DSL.field;
+import static org.jooq.impl.DSL.generateSeries;
+import static org.jooq.impl.DSL.name;
+import static org.jooq.impl.DSL.sequence;
+import static org.jooq.impl.DSL.table;
+
+import java.util.List;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Sequence;
+import org.jooq.Table;
+import org.jooq.impl.SQLDataType;
+
+/**
+ * Allocates values of an auto increment column ahead of the insert.
+ * H2 returns only the last generated key of a multi-row insert, so the
+ * values are taken from the sequence backing the column and inserted
+ * explicitly. The sequence is shared with the single row inserts, so the
+ * values never collide.
+ */
+public class IdentityAllocator {
+
+    private final DSLContext ctx;
+    private final Table<?> table;
+    private final Field<Integer> column;
+    private volatile Sequence<Integer> sequence;
+
+    public IdentityAllocator(DSLContext ctx, Table<?> table,
+                             Field<Integer> column) {
+        this.ctx = ctx;
+        this.table = table;
+        this.column = column;
+    }
+
+    /**
+     * Allocates ids
+     * @param count number of ids to allocate
+     * @return the allocated ids, not necessarily sequential
+     */
+    public List<Integer> allocate(int count) {
+        return ctx.select(identitySequence().nextval())
+                .from(generateSeries(1, count))
+                .fetch(0, Integer.class);
+    }
+
+    private Sequence<Integer> identitySequence() {
+        if (sequence == null) {
+            String sequenceName = ctx
+                    .select(field(name("SEQUENCE_NAME"), String.class))
+                    .from(table(name("INFORMATION_SCHEMA", "COLUMNS")))
+                    .where(field(name("TABLE_SCHEMA")).eq(table.getSchema().getName()))
+                    .and(field(name("TABLE_NAME")).eq(table.getName()))
+                    .and(field(name("COLUMN_NAME")).eq(column.getName()))
+                    .fetchOne(0, String.class);
+            if (sequenceName == null) {
+                throw new IllegalStateException(table.getName() + "." +
+                        column.getName() + " is not an auto increment column");
+            }
+            sequence = sequence(name(table.getSchema().getName(), sequenceName),
+                    SQLDataType.INTEGER);
+        }
+        return sequence;
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.kgrech.djss.service;
+
+import static com.github.kgrech.djss.jooq.MinorUnits.TRANSFER_AMOUNT;
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER;
+
+import com.github.kgrech.djss.jooq.MinorUnits;
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer;
+import lombok.Value;
+import org.jooq.Field;
+import org.jooq.Record;
+
+/**
+ * Transfer with its amount in minor units. The amount is read from the DB
+ * as a long or rounded once when the transfer is accepted, so the
+ * processing never converts it from a double again
+ */
+@Value
+public class MinorUnitsTransfer {
+
+    /**
+     * Amount of the transfer in minor units, selected next to the
+     * transfer fields
+     */
+    public static final Field<Long> AMOUNT = TRANSFER_AMOUNT.as("AMOUNT_MINOR_UNITS");
+
+    private final Transfer transfer;
+    private final long amount;
+
+    /**
+     * @param record record with the transfer fields and {@link #AMOUNT}
+     */
+    public static MinorUnitsTransfer of(Record record) {
+        Long amount = record.get(AMOUNT);
+        return new MinorUnitsTransfer(record.into(TRANSFER).into(Transfer.class),
+                amount != null ? amount : 0);
+    }
+
+    /**
+     * @return the transfer with its amount rounded to minor units
+     */
+    public static MinorUnitsTransfer of(Transfer transfer) {
+        return new MinorUnitsTransfer(transfer,
+                MinorUnits.of(transfer.getAmount()));
+    }
+
+    /**
+     * @return false if the transfer has no amount, it can't be processed then
+     */
+    public boolean hasAmount() {
+        return transfer.getAmount() != null;
+    }
+
+    public int getId() {
+        return transfer.getId();
+    }
+
+    public int getSenderAccountId() {
+        return transfer.getSenderAccountId();
+    }
+
+    public int getReceiverAccountId() {
+        return transfer.getReceiverAccountId();
+    }
+}
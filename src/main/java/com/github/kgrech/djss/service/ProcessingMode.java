@@ -0,0 +1,21 @@
+package com.github.kgrech.djss.service;
+
+public enum ProcessingMode {
+
+    /**
+     * Every transfer is processed in its own DB transaction
+     */
+    DATABASE,
+
+    /**
+     * All the transfers of a processing batch are applied in one DB transaction
+     * with batched statements
+     */
+    BATCH,
+
+    /**
+     * Transfers are applied by the in-memory ledger engine and written
+     * to the DB asynchronously
+     */
+    LEDGER
+}
@@ -1,72 +1,309 @@
 package com.github.kgrech.djss.service;
 
-import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER;
-
-import com.github.kgrech.djss.jooq.TransferStatus;
+import com.github.kgrech.djss.metrics.MetricsRegistry;
+import com.github.kgrech.djss.service.proccessing.AccountJournal;
+import com.github.kgrech.djss.service.proccessing.AccountStripes;
+import com.github.kgrech.djss.service.ledger.LedgerEngine;
+import com.github.kgrech.djss.service.proccessing.AdaptiveBatchSize;
+import com.github.kgrech.djss.service.proccessing.BatchTransferProcessingRunnable;
+import com.github.kgrech.djss.service.proccessing.JournalCompactor;
+import com.github.kgrech.djss.service.proccessing.LaneTransferProcessingRunnable;
+import com.github.kgrech.djss.service.proccessing.LeaseReaper;
+import com.github.kgrech.djss.service.proccessing.LedgerProcessingRunnable;
+import com.github.kgrech.djss.service.proccessing.ProcessingLanes;
+import com.github.kgrech.djss.service.proccessing.ProcessingMetrics;
+import com.github.kgrech.djss.service.proccessing.ProcessingNode;
 import com.github.kgrech.djss.service.proccessing.TransferDispensingRunnable;
+import com.github.kgrech.djss.service.proccessing.TransferDispensingTrigger;
 import com.github.kgrech.djss.service.proccessing.TransferProcessingRunnable;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleSupplier;
+import lombok.extern.slf4j.Slf4j;
 import org.jooq.DSLContext;
 
+@Slf4j
 public class ProcessingService implements AutoCloseable, TransferProcessingScheduler {
 
+    private static final String QUEUE_DEPTH = "djss_processing_queue_depth";
+    private static final String ACTIVE_THREADS = "djss_processing_active_threads";
+    private static final String BATCH_LIMIT = "djss_dispense_batch_limit";
+
     private final DSLContext ctx;
+    private final ProcessingMode mode;
+    private final ProcessingNode node;
+    private final AccountJournal journal;
+    private final boolean journaling;
+    private final AccountStripes stripes;
+    private final AdaptiveBatchSize adaptiveBatchSize;
     private final ScheduledExecutorService transferDispensingScheduler;
-    private final ThreadPoolExecutor processingExecutor;
+    private final ExecutorService processingExecutor;
+    private final Semaphore permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LedgerEngine ledgerEngine;
+    private final ProcessingLanes lanes;
+    private final TransferEvents events;
+    private final TransferListener dispensingTrigger;
+    private final DoubleSupplier queueDepth = this::queueSize;
+    private final DoubleSupplier activeThreads;
+    private final DoubleSupplier batchLimit;
 
     /**
      * Creates new instance
-     * @param delay delay between runs in seconds
-     * @param maxThreads max number of transaction processing threads
-     * @param batchSize the size of one batch of transactions to process
-     * @param maxQueueSize the max allowed length of the queue
+     * @param settings processing settings
      * @param ctx jooq context
+     * @param events transfer events
      */
-    public ProcessingService(long delay, int maxThreads,
-                             int batchSize, int maxQueueSize,
-                             DSLContext ctx) {
+    public ProcessingService(ProcessingSettings settings, DSLContext ctx,
+                             TransferEvents events) {
         this.ctx = ctx;
+        this.mode = settings.getMode();
+        this.events = events;
+        this.journal = new AccountJournal(AccountJournal.DEFAULT_COMPACT_BATCH,
+                events);
+        this.node = new ProcessingNode(settings.getNodeId(),
+                settings.getLeaseTime());
+        if (settings.isAdaptive() && mode == ProcessingMode.LEDGER) {
+            //The ledger applies the transfers asynchronously and writes them
+            //behind, the batch latency is not known to adapt to
+            log.warn("Adaptive batch size is not supported in {} mode, using {}",
+                    mode, settings.getBatchSize());
+            this.adaptiveBatchSize = AdaptiveBatchSize.fixed(settings.getBatchSize());
+        } else if (settings.isAdaptive()) {
+            this.adaptiveBatchSize = new AdaptiveBatchSize(settings.getBatchSize(),
+                    settings.getMinBatchSize(), settings.getMaxBatchSize(),
+                    settings.getTargetLatency());
+        } else {
+            this.adaptiveBatchSize = AdaptiveBatchSize.fixed(settings.getBatchSize());
+        }
+        this.batchLimit = adaptiveBatchSize::get;
+        //The batch and the ledger update the snapshots themselves, the cleanup
+        //folds the journal and the slots back into them
+        boolean striping = settings.getStripedAccounts() != null
+                && !settings.getStripedAccounts().isEmpty();
+        if (settings.isJournal() && mode != ProcessingMode.DATABASE) {
+            log.warn("Journal is not supported in {} mode, the balances are "
+                    + "updated in place", mode);
+        }
+        if (striping && mode != ProcessingMode.DATABASE) {
+            log.warn("Striped accounts are not supported in {} mode, "
+                    + "their slots are merged back", mode);
+        }
+        this.journaling = mode == ProcessingMode.DATABASE && settings.isJournal();
+        if (mode == ProcessingMode.DATABASE && striping) {
+            this.stripes = new AccountStripes(settings.getStripedAccounts(),
+                    settings.getStripes());
+        } else {
+            this.stripes = AccountStripes.NONE;
+        }
 
         cleanup();
 
+        if (mode == ProcessingMode.LEDGER) {
+            this.ledgerEngine = new LedgerEngine(ctx,
+                    settings.getLedgerShards(),
+                    settings.getLedgerFlushInterval(),
+                    settings.getLedgerFlushBatch(),
+                    events);
+            this.ledgerEngine.rebuild();
+        } else {
+            this.ledgerEngine = null;
+        }
+
+        int maxThreads = settings.getMaxThreads();
+        if (mode == ProcessingMode.DATABASE && settings.isLanes()) {
+            this.lanes = new ProcessingLanes(maxThreads);
+        } else {
+            this.lanes = null;
+        }
+
         this.transferDispensingScheduler = Executors.newScheduledThreadPool(1);
-        this.processingExecutor = new ThreadPoolExecutor(maxThreads, maxThreads,
-                0L, TimeUnit.MILLISECONDS,
-                new LinkedBlockingQueue<>());
+        if (settings.isVirtualThreads()) {
+            //Threads are cheap, the connections are not
+            int maxConcurrency = settings.getMaxConcurrency();
+            this.processingExecutor = VirtualThreads.newExecutor("processing-");
+            this.permits = new Semaphore(maxConcurrency);
+            this.activeThreads = () -> maxConcurrency - permits.availablePermits();
+        } else {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads,
+                    maxThreads, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>());
+            this.processingExecutor = executor;
+            this.permits = null;
+            this.activeThreads = executor::getActiveCount;
+        }
 
-        Runnable dispensingRunnable = new TransferDispensingRunnable(ctx, batchSize,
-                maxQueueSize,this);
+        TransferDispensingRunnable dispensingRunnable = new TransferDispensingRunnable(ctx,
+                adaptiveBatchSize, settings.getMaxQueueSize(), this, node, events);
         this.transferDispensingScheduler.scheduleWithFixedDelay(dispensingRunnable,
-                0, delay, TimeUnit.SECONDS);
+                0, settings.getDelay(), TimeUnit.SECONDS);
+        if (journaling) {
+            this.transferDispensingScheduler.scheduleWithFixedDelay(
+                    new JournalCompactor(ctx, journal),
+                    settings.getCompactInterval(), settings.getCompactInterval(),
+                    TimeUnit.MILLISECONDS);
+        }
+        if (mode != ProcessingMode.LEDGER) {
+            long reapDelay = Math.max(1, settings.getLeaseTime() / 2);
+            this.transferDispensingScheduler.scheduleWithFixedDelay(
+                    new LeaseReaper(ctx, node, events), reapDelay, reapDelay,
+                    TimeUnit.SECONDS);
+        }
+
+        events.addListener(ProcessingMetrics.OUTCOME_LISTENER);
+        if (adaptiveBatchSize.isAdaptive()) {
+            events.addListener(adaptiveBatchSize);
+        }
+        MetricsRegistry.DEFAULT.gauge(BATCH_LIMIT,
+                "Max number of transfers claimed by one dispensing", "",
+                batchLimit);
+        MetricsRegistry.DEFAULT.gauge(QUEUE_DEPTH,
+                "Number of processing batches waiting for a thread", "",
+                queueDepth);
+        MetricsRegistry.DEFAULT.gauge(ACTIVE_THREADS,
+                "Number of threads processing transfers", "",
+                activeThreads);
+
+        if (settings.isPush()) {
+            this.dispensingTrigger = new TransferDispensingTrigger(dispensingRunnable,
+                    transferDispensingScheduler, adaptiveBatchSize::get,
+                    settings.getLinger());
+            events.addListener(dispensingTrigger);
+        } else {
+            this.dispensingTrigger = null;
+        }
     }
 
     private void cleanup() {
+        //Other modes read the snapshots only
+        journal.compactAll(ctx);
+        if (stripes.unstripeOthers(ctx) > 0) {
+            events.accountsChanged(null);
+        }
         //In case of power failure or etc
-        //Assuming there is only 1 process of this service
-        //Search for all transactions in PROCESSING state and move them to PENDING
-        ctx.update(TRANSFER)
-                .set(TRANSFER.STATUS, TransferStatus.PENDING)
-                .where(TRANSFER.STATUS.eq(TransferStatus.PROCESSING))
-                .execute();
+        int released;
+        if (mode == ProcessingMode.LEDGER) {
+            //The balances are kept in memory, so there is only 1 process
+            //of this service and all the transfers in PROCESSING are its own
+            released = node.releaseAll(ctx);
+        } else {
+            //Other nodes keep processing theirs
+            released = node.releaseOwn(ctx) + node.reclaimExpired(ctx);
+        }
+        if (released > 0) {
+            events.transfersChanged(null);
+        }
     }
 
     @Override
     public void scheduleProcessing(String processingId) {
-        processingExecutor.submit(new TransferProcessingRunnable(ctx, processingId));
+        Runnable runnable = adaptive(newProcessingRunnable(processingId));
+        if (permits == null) {
+            processingExecutor.submit(runnable);
+            return;
+        }
+        waiting.incrementAndGet();
+        processingExecutor.submit(() -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                //The batch stays in PROCESSING until the restart
+                log.warn("Processing {} is interrupted", processingId);
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                waiting.decrementAndGet();
+            }
+            try {
+                runnable.run();
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    private Runnable newProcessingRunnable(String processingId) {
+        switch (mode) {
+            case BATCH:
+                return new BatchTransferProcessingRunnable(ctx, processingId, events,
+                        node.lease(ctx, processingId));
+            case LEDGER:
+                return new LedgerProcessingRunnable(ctx, processingId, ledgerEngine);
+            default:
+                if (lanes != null) {
+                    return new LaneTransferProcessingRunnable(ctx, processingId,
+                            lanes, events, node.lease(ctx, processingId),
+                            journaling ? journal : null, stripes);
+                }
+                return new TransferProcessingRunnable(ctx, processingId, events,
+                        node.lease(ctx, processingId), journaling ? journal : null,
+                        stripes);
+        }
+    }
+
+    /**
+     * Reports the processing time of the batch to the adaptive batch size
+     */
+    private Runnable adaptive(Runnable runnable) {
+        if (!adaptiveBatchSize.isAdaptive()) {
+            return runnable;
+        }
+        if (runnable instanceof LaneTransferProcessingRunnable) {
+            //Reported when the lanes complete the batch, not on the hand over
+            return ((LaneTransferProcessingRunnable) runnable)
+                    .onBatchProcessed(adaptiveBatchSize::batchProcessed);
+        }
+        return () -> {
+            long start = System.nanoTime();
+            try {
+                runnable.run();
+            } finally {
+                adaptiveBatchSize.batchProcessed(System.nanoTime() - start);
+            }
+        };
     }
 
     @Override
     public int queueSize() {
-        return processingExecutor.getQueue().size();
+        int queued = permits != null
+                ? waiting.get()
+                : ((ThreadPoolExecutor) processingExecutor).getQueue().size();
+        if (lanes != null) {
+            //Lanes get transfers, not batches, so count them in batches
+            return queued + lanes.queueSize() / adaptiveBatchSize.get();
+        }
+        return queued;
     }
 
     @Override
     public void close() {
+        if (dispensingTrigger != null) {
+            events.removeListener(dispensingTrigger);
+        }
+        events.removeListener(ProcessingMetrics.OUTCOME_LISTENER);
+        events.removeListener(adaptiveBatchSize);
+        MetricsRegistry.DEFAULT.removeGauge(BATCH_LIMIT, "", batchLimit);
+        MetricsRegistry.DEFAULT.removeGauge(QUEUE_DEPTH, "", queueDepth);
+        MetricsRegistry.DEFAULT.removeGauge(ACTIVE_THREADS, "", activeThreads);
         this.transferDispensingScheduler.shutdown();
         this.processingExecutor.shutdown();
+        if (lanes != null) {
+            lanes.close();
+        }
+        if (ledgerEngine != null) {
+            try {
+                this.processingExecutor.awaitTermination(Long.MAX_VALUE,
+                        TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ledgerEngine.close();
+        }
     }
 }
@@ -0,0 +1,141 @@
+package com.github.kgrech.djss.service;
+
+import java.util.Set;
+import lombok.Builder;
+import lombok.Getter;
+
+@Getter
+@Builder(toBuilder = true)
+public class ProcessingSettings {
+
+    /**
+     * Delay between dispensing runs in seconds
+     */
+    private final long delay;
+
+    /**
+     * Id of this instance, the transfers are claimed for it
+     */
+    private final String nodeId;
+
+    /**
+     * Time in seconds the claimed transfers are leased to the instance,
+     * the lease is renewed while they are processed
+     */
+    private final int leaseTime;
+
+    /**
+     * Max number of transaction processing threads
+     */
+    private final int maxThreads;
+
+    /**
+     * Whether the batches are processed on virtual threads, the number of
+     * batches processed concurrently is limited by maxConcurrency instead
+     * of maxThreads
+     */
+    private final boolean virtualThreads;
+
+    /**
+     * Max number of batches processed concurrently on virtual threads,
+     * normally the size of the connection pool
+     */
+    private final int maxConcurrency;
+
+    /**
+     * The size of one batch of transactions to process
+     */
+    private final int batchSize;
+
+    /**
+     * Whether the size of the batches is adjusted between
+     * minBatchSize and maxBatchSize to keep their processing time
+     * below targetLatency, batchSize is the initial size then
+     */
+    private final boolean adaptive;
+
+    /**
+     * Min size of the batch, used in adaptive mode only
+     */
+    private final int minBatchSize;
+
+    /**
+     * Max size of the batch, used in adaptive mode only
+     */
+    private final int maxBatchSize;
+
+    /**
+     * Target processing time of one batch in milliseconds,
+     * used in adaptive mode only
+     */
+    private final long targetLatency;
+
+    /**
+     * The max allowed length of the processing queue
+     */
+    private final int maxQueueSize;
+
+    /**
+     * Whether new transfers trigger dispensing, so the periodic dispensing
+     * becomes a safety sweep
+     */
+    private final boolean push;
+
+    /**
+     * Max delay of the triggered dispensing in milliseconds,
+     * used in push mode only
+     */
+    private final long linger;
+
+    /**
+     * Whether transfers are processed in lanes keyed by account,
+     * used in {@link ProcessingMode#DATABASE} mode only
+     */
+    private final boolean lanes;
+
+    /**
+     * Whether the balance changes are appended to the journal instead of
+     * updating the accounts in place, used in {@link ProcessingMode#DATABASE}
+     * mode only
+     */
+    private final boolean journal;
+
+    /**
+     * Delay between journal compactions in milliseconds,
+     * used in journal mode only
+     */
+    private final long compactInterval;
+
+    /**
+     * Ids of the accounts with the balance spread over several slot rows,
+     * used in {@link ProcessingMode#DATABASE} mode only
+     */
+    private final Set<Integer> stripedAccounts;
+
+    /**
+     * Number of slots of every striped account
+     */
+    private final int stripes;
+
+    /**
+     * The way the transfers are applied to the accounts
+     */
+    private final ProcessingMode mode;
+
+    /**
+     * Number of ledger shards, used in {@link ProcessingMode#LEDGER} mode only
+     */
+    private final int ledgerShards;
+
+    /**
+     * Delay between ledger write-behind flushes in milliseconds,
+     * used in {@link ProcessingMode#LEDGER} mode only
+     */
+    private final long ledgerFlushInterval;
+
+    /**
+     * Max number of transfers written by one ledger flush,
+     * used in {@link ProcessingMode#LEDGER} mode only
+     */
+    private final int ledgerFlushBatch;
+}
@@ -0,0 +1,68 @@
+package com.github.kgrech.djss.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jooq.DSLContext;
+import org.jooq.Table;
+
+/**
+ * Number of rows in a table maintained incrementally by the code changing
+ * the table. The counter is fetched from the DB on first use, after
+ * {@link #invalidate()} and every refresh interval, so drift caused by
+ * concurrent writes or writes of other processes is bounded.
+ */
+public class RowCounter {
+
+    private final DSLContext ctx;
+    private final Table<?> table;
+    private final long refreshInterval;
+
+    private final AtomicLong value = new AtomicLong();
+    private volatile boolean valid;
+    private volatile long refreshedAt;
+
+    /**
+     * Creates new instance
+     * @param ctx jooq context
+     * @param table table to count
+     * @param refreshInterval interval of re-counting in seconds
+     */
+    public RowCounter(DSLContext ctx, Table<?> table, long refreshInterval) {
+        this.ctx = ctx;
+        this.table = table;
+        this.refreshInterval = TimeUnit.SECONDS.toNanos(refreshInterval);
+    }
+
+    public long get() {
+        if (!valid || System.nanoTime() - refreshedAt > refreshInterval) {
+            refresh();
+        }
+        return value.get();
+    }
+
+    public void add(long delta) {
+        value.addAndGet(delta);
+    }
+
+    /**
+     * Forces re-counting on the next read,
+     * should be called when the number of deleted rows is unknown
+     */
+    public void invalidate() {
+        valid = false;
+    }
+
+    private synchronized void refresh() {
+        if (valid && System.nanoTime() - refreshedAt <= refreshInterval) {
+            return;
+        }
+        long count = ctx.selectCount()
+                .from(table)
+                .fetchOne().value1();
+        //The writers commit first and add afterwards, so a change committed
+        //while counting may be counted twice or missed until the next refresh
+        value.set(count);
+        refreshedAt = System.nanoTime();
+        valid = true;
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.kgrech.djss.service;
+
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Delivers transfer events to all the registered listeners.
+ * A failing listener does not affect the caller or other listeners.
+ */
+@Slf4j
+public class TransferEvents implements TransferListener {
+
+    private final List<TransferListener> listeners = new CopyOnWriteArrayList<>();
+
+    public void addListener(TransferListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(TransferListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void transferCreated(Transfer transfer) {
+        for (TransferListener listener : listeners) {
+            try {
+                listener.transferCreated(transfer);
+            } catch (RuntimeException e) {
+                log.error("Error notifying about transfer {}", transfer.getId(), e);
+            }
+        }
+    }
+
+    @Override
+    public void transferProcessed(Transfer transfer) {
+        for (TransferListener listener : listeners) {
+            try {
+                listener.transferProcessed(transfer);
+            } catch (RuntimeException e) {
+                log.error("Error notifying about transfer {}", transfer.getId(), e);
+            }
+        }
+    }
+
+    @Override
+    public void transfersChanged(Collection<Integer> ids) {
+        for (TransferListener listener : listeners) {
+            try {
+                listener.transfersChanged(ids);
+            } catch (RuntimeException e) {
+                log.error("Error notifying about changed transfers", e);
+            }
+        }
+    }
+
+    @Override
+    public void accountsChanged(Collection<Integer> ids) {
+        for (TransferListener listener : listeners) {
+            try {
+                listener.accountsChanged(ids);
+            } catch (RuntimeException e) {
+                log.error("Error notifying about changed accounts", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.github.kgrech.djss.service;
+
+import static com.github.kgrech.djss.jooq.tables.Account.ACCOUNT;
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.github.kgrech.djss.jooq.MinorUnits;
+import com.github.kgrech.djss.jooq.TransferStatus;
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer;
+import com.github.kgrech.djss.jooq.tables.records.TransferRecord;
+import com.github.kgrech.djss.view.BatchError;
+import com.github.kgrech.djss.view.BatchResult;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.jooq.InsertValuesStep5;
+import org.jooq.exception.DataAccessException;
+
+/**
+ * Creates transfers from a JSON array or a stream of JSON objects
+ * (NDJSON). The body is parsed incrementally and inserted by chunks of
+ * chunkSize transfers, each chunk is one multi-row insert,
+ * so only one chunk is kept in memory.
+ * Invalid items are reported and skipped, the rest of the body is imported.
+ */
+@Slf4j
+public class TransferImporter {
+
+    private static final int MAX_ERRORS = 1000;
+
+    private final ObjectReader reader = new ObjectMapper()
+            .readerFor(Transfer.class);
+
+    private final DSLContext ctx;
+    private final TransferListener listener;
+    private final RowCounter transferCounter;
+    private final IdentityAllocator ids;
+    private final int chunkSize;
+
+    public TransferImporter(DSLContext ctx, TransferListener listener,
+                            RowCounter transferCounter, int chunkSize) {
+        this.ctx = ctx;
+        this.listener = listener;
+        this.transferCounter = transferCounter;
+        this.ids = new IdentityAllocator(ctx, TRANSFER, TRANSFER.ID);
+        this.chunkSize = chunkSize;
+    }
+
+    public BatchResult importTransfers(InputStream body) throws IOException {
+        BatchResult result = new BatchResult();
+        List<Transfer> chunk = new ArrayList<>(chunkSize);
+        List<Long> indexes = new ArrayList<>(chunkSize);
+        long index = 0;
+        try (MappingIterator<Transfer> iterator = reader.readValues(body)) {
+            while (iterator.hasNextValue()) {
+                Transfer transfer;
+                try {
+                    transfer = iterator.nextValue();
+                } catch (JsonMappingException e) {
+                    //The iterator skips the rest of the invalid item
+                    error(result, index++, e.getOriginalMessage());
+                    continue;
+                }
+                String message = validate(transfer);
+                if (message != null) {
+                    error(result, index++, message);
+                    continue;
+                }
+                chunk.add(transfer);
+                indexes.add(index++);
+                if (chunk.size() == chunkSize) {
+                    insert(chunk, indexes, result);
+                }
+            }
+        } catch (JsonProcessingException e) {
+            error(result, index, "Malformed body: " + e.getOriginalMessage());
+        }
+        if (!chunk.isEmpty()) {
+            insert(chunk, indexes, result);
+        }
+        return result;
+    }
+
+    private String validate(Transfer transfer) {
+        if (transfer.getSenderAccountId() == null) {
+            return "Missing sender account";
+        }
+        if (transfer.getReceiverAccountId() == null) {
+            return "Missing receiver account";
+        }
+        //Amounts below the minor unit are rounded to 0
+        if (transfer.getAmount() == null || MinorUnits.of(transfer.getAmount()) <= 0) {
+            return "Amount must be positive";
+        }
+        return null;
+    }
+
+    private void insert(List<Transfer> chunk, List<Long> indexes,
+                        BatchResult result) {
+        Set<Integer> accounts = new HashSet<>();
+        for (Transfer transfer : chunk) {
+            accounts.add(transfer.getSenderAccountId());
+            accounts.add(transfer.getReceiverAccountId());
+        }
+        Set<Integer> existing = new HashSet<>(ctx.select(ACCOUNT.ID)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.in(accounts))
+                .fetch(ACCOUNT.ID));
+
+        List<Transfer> valid = new ArrayList<>(chunk.size());
+        List<Long> validIndexes = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            Transfer transfer = chunk.get(i);
+            if (!existing.contains(transfer.getSenderAccountId())) {
+                error(result, indexes.get(i), "Account with " +
+                        transfer.getSenderAccountId() + " is not found");
+            } else if (!existing.contains(transfer.getReceiverAccountId())) {
+                error(result, indexes.get(i), "Account with " +
+                        transfer.getReceiverAccountId() + " is not found");
+            } else {
+                valid.add(transfer);
+                validIndexes.add(indexes.get(i));
+            }
+        }
+        chunk.clear();
+        indexes.clear();
+        if (valid.isEmpty()) {
+            return;
+        }
+
+        try {
+            List<Integer> allocated = ids.allocate(valid.size());
+            InsertValuesStep5<TransferRecord, Integer, Integer, Integer, TransferStatus, Double> insert =
+                    ctx.insertInto(TRANSFER,
+                            TRANSFER.ID,
+                            TRANSFER.SENDER_ACCOUNT_ID,
+                            TRANSFER.RECEIVER_ACCOUNT_ID,
+                            TRANSFER.STATUS,
+                            TRANSFER.AMOUNT);
+            for (int i = 0; i < valid.size(); i++) {
+                Transfer transfer = valid.get(i)
+                        .setId(allocated.get(i))
+                        .setStatus(TransferStatus.PENDING);
+                insert = insert.values(transfer.getId(),
+                        transfer.getSenderAccountId(),
+                        transfer.getReceiverAccountId(),
+                        transfer.getStatus(),
+                        transfer.getAmount());
+            }
+            insert.execute();
+        } catch (DataAccessException e) {
+            //An account might be deleted concurrently
+            log.warn("Can't insert {} transfers", valid.size(), e);
+            for (Long i : validIndexes) {
+                error(result, i, "Illegal operation!");
+            }
+            return;
+        }
+
+        result.setCreated(result.getCreated() + valid.size());
+        transferCounter.add(valid.size());
+        for (Transfer transfer : valid) {
+            result.addId(transfer.getId());
+            listener.transferCreated(transfer);
+        }
+    }
+
+    private void error(BatchResult result, long index, String message) {
+        result.setFailed(result.getFailed() + 1);
+        if (result.getErrors().size() < MAX_ERRORS) {
+            result.getErrors().add(new BatchError(index, message));
+        }
+    }
+}
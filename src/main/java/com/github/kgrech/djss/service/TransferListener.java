@@ -0,0 +1,40 @@
+package com.github.kgrech.djss.service;
+
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer;
+import java.util.Collection;
+
+public interface TransferListener {
+
+    TransferListener NONE = new TransferListener() {
+    };
+
+    /**
+     * Called after a new transfer is stored in the DB
+     */
+    default void transferCreated(Transfer transfer) {
+    }
+
+    /**
+     * Called after the final status of the transfer and the balances of its
+     * accounts are committed to the DB
+     * @param transfer processed transfer with the final status
+     */
+    default void transferProcessed(Transfer transfer) {
+    }
+
+    /**
+     * Called after the processing committed a change of the transfers other
+     * than their final status, e.g. a claim or a release of a lease
+     * @param ids ids of the changed transfers, null if any of them may be
+     */
+    default void transfersChanged(Collection<Integer> ids) {
+    }
+
+    /**
+     * Called after the processing committed a change of the accounts other
+     * than a processed transfer, e.g. a compaction of the journal
+     * @param ids ids of the changed accounts, null if any of them may be
+     */
+    default void accountsChanged(Collection<Integer> ids) {
+    }
+}
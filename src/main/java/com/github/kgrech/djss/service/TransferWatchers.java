@@ -0,0 +1,163 @@
+package com.github.kgrech.djss.service;
+
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer;
+import com.github.kgrech.djss.metrics.Counter;
+import com.github.kgrech.djss.metrics.MetricsRegistry;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Delivers the processed transfers to the watchers of the transfers or of
+ * their accounts. The watchers are indexed by the watched ids, so an event
+ * costs a lookup and not a pass over all the watchers. Every watcher has a
+ * bounded buffer, a watcher which doesn't drain it fast enough is evicted
+ * instead of holding the events or slowing down the processing
+ */
+public class TransferWatchers implements TransferListener {
+
+    private static final Counter EVICTED = MetricsRegistry.DEFAULT.counter(
+            "djss_watchers_evicted_total",
+            "Transfer watchers evicted because their buffers were full", "");
+
+    private final int bufferSize;
+    private final Map<Integer, Set<Watcher>> byTransfer = new ConcurrentHashMap<>();
+    private final Map<Integer, Set<Watcher>> byAccount = new ConcurrentHashMap<>();
+    private final Set<Watcher> watchers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates new instance
+     * @param bufferSize max number of undelivered transfers of a watcher
+     */
+    public TransferWatchers(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Starts watching the transfers and the transfers of the accounts
+     * @param signal called when the watcher has new transfers to poll or
+     *               is evicted, must not block
+     */
+    public Watcher watch(Set<Integer> transfers, Set<Integer> accounts,
+                         Runnable signal) {
+        Watcher watcher = new Watcher(transfers, accounts, signal);
+        watchers.add(watcher);
+        transfers.forEach(id -> index(byTransfer, id, watcher));
+        accounts.forEach(id -> index(byAccount, id, watcher));
+        return watcher;
+    }
+
+    /**
+     * @return number of the active watchers
+     */
+    public int size() {
+        return watchers.size();
+    }
+
+    @Override
+    public void transferProcessed(Transfer transfer) {
+        Set<Watcher> transferWatchers = byTransfer.get(transfer.getId());
+        Set<Watcher> senderWatchers = byAccount.get(transfer.getSenderAccountId());
+        Set<Watcher> receiverWatchers = byAccount.get(transfer.getReceiverAccountId());
+        if (transferWatchers == null && senderWatchers == null
+                && receiverWatchers == null) {
+            return;
+        }
+        //A watcher of both the transfer and its accounts gets it once
+        Set<Watcher> matched = new LinkedHashSet<>();
+        addAll(matched, transferWatchers);
+        addAll(matched, senderWatchers);
+        addAll(matched, receiverWatchers);
+        matched.forEach(watcher -> watcher.offer(transfer));
+    }
+
+    private static void addAll(Set<Watcher> matched, Set<Watcher> watchers) {
+        if (watchers != null) {
+            matched.addAll(watchers);
+        }
+    }
+
+    private static void index(Map<Integer, Set<Watcher>> index, int id,
+                              Watcher watcher) {
+        //Added and removed under the lock of the key, so a watcher is
+        //never added to a set which is being dropped from the index
+        index.compute(id, (key, value) -> {
+            Set<Watcher> watchers = value != null
+                    ? value : ConcurrentHashMap.newKeySet();
+            watchers.add(watcher);
+            return watchers;
+        });
+    }
+
+    private static void unindex(Map<Integer, Set<Watcher>> index, int id,
+                                Watcher watcher) {
+        index.computeIfPresent(id, (key, value) -> {
+            value.remove(watcher);
+            return value.isEmpty() ? null : value;
+        });
+    }
+
+    public class Watcher implements AutoCloseable {
+
+        private final Set<Integer> transfers;
+        private final Set<Integer> accounts;
+        private final Runnable signal;
+        private final BlockingQueue<Transfer> buffer;
+        private final AtomicBoolean evicted = new AtomicBoolean();
+
+        private Watcher(Set<Integer> transfers, Set<Integer> accounts,
+                        Runnable signal) {
+            this.transfers = Collections.unmodifiableSet(transfers);
+            this.accounts = Collections.unmodifiableSet(accounts);
+            this.signal = signal;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        }
+
+        /**
+         * Adds the transfer to the buffer, evicts the watcher if it is full
+         */
+        public void offer(Transfer transfer) {
+            if (evicted.get()) {
+                return;
+            }
+            if (!buffer.offer(transfer)) {
+                if (!evicted.compareAndSet(false, true)) {
+                    return;
+                }
+                EVICTED.inc();
+                close();
+            }
+            signal.run();
+        }
+
+        /**
+         * @return next undelivered transfer, null if there is none
+         */
+        public Transfer poll() {
+            return buffer.poll();
+        }
+
+        /**
+         * @return true if the watcher was closed because its buffer was full
+         */
+        public boolean isEvicted() {
+            return evicted.get();
+        }
+
+        /**
+         * Stops watching
+         */
+        @Override
+        public void close() {
+            if (watchers.remove(this)) {
+                transfers.forEach(id -> unindex(byTransfer, id, this));
+                accounts.forEach(id -> unindex(byAccount, id, this));
+            }
+        }
+    }
+}
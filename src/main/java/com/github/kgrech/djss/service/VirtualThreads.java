@@ -0,0 +1,70 @@
+package com.github.kgrech.djss.service;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Creates executors starting a new virtual thread for every task.
+ * The application is built for java 8, so virtual threads are looked up
+ * by reflection. When the runtime does not have them, the executor starts
+ * platform threads instead, the callers bound the concurrency anyway.
+ */
+@Slf4j
+public final class VirtualThreads {
+
+    private static final Method OF_VIRTUAL = method(Thread.class, "ofVirtual");
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return whether the runtime supports virtual threads
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Creates new executor
+     * @param prefix prefix of the thread names
+     */
+    public static ExecutorService newExecutor(String prefix) {
+        if (isSupported()) {
+            try {
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                Object builder = OF_VIRTUAL.invoke(null);
+                builder = builderClass.getMethod("name", String.class, long.class)
+                        .invoke(builder, prefix, 0L);
+                ThreadFactory factory = (ThreadFactory) builderClass
+                        .getMethod("factory").invoke(builder);
+                return (ExecutorService) Executors.class
+                        .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                        .invoke(null, factory);
+            } catch (ReflectiveOperationException e) {
+                log.warn("Can't create virtual threads executor", e);
+            }
+        } else {
+            log.warn("Virtual threads are not supported by java {}, " +
+                    "using platform threads", System.getProperty("java.version"));
+        }
+        AtomicLong counter = new AtomicLong();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable,
+                    prefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static Method method(Class<?> clazz, String name) {
+        try {
+            return clazz.getMethod(name);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package com.github.kgrech.djss.service.intake;
+
+import com.github.kgrech.djss.jooq.MinorUnits;
+import com.github.kgrech.djss.jooq.TransferStatus;
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer;
+import com.github.kgrech.djss.service.MinorUnitsTransfer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Write-ahead journal of the accepted transfers. The transfers are appended
+ * to memory mapped segment files of fixed size, every record has a checksum,
+ * so a torn record at the end of a segment is detected on replay.
+ *
+ * One syncer thread forces the written records to the disk: all the records
+ * appended while the previous force was running are forced together,
+ * so the writers share the cost of the fsync (group commit).
+ *
+ * A segment is deleted once all its records are written to the DB,
+ * the segments left after a crash are replayed on start. A transfer deleted
+ * from the DB gets a tombstone record, so it is not replayed.
+ */
+@Slf4j
+public class IntakeJournal implements AutoCloseable {
+
+    /**
+     * crc, id, sender id, receiver id, amount in minor units
+     */
+    static final int RECORD_SIZE = 4 + 4 + 4 + 4 + 8;
+    /**
+     * Sender id of a tombstone record
+     */
+    private static final int TOMBSTONE = -1;
+    private static final String PREFIX = "intake-";
+    private static final String SUFFIX = ".log";
+
+    private final Path dir;
+    private final int recordsPerSegment;
+    private final List<Path> replay = new ArrayList<>();
+
+    private final Lock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final Condition forced = lock.newCondition();
+
+    //Guarded by lock
+    private final Deque<Segment> rotated = new ArrayDeque<>();
+    private Segment current;
+    private long nextSegment;
+    private long written;
+    private long durable;
+    private boolean closing;
+    private IOException failure;
+
+    private final Thread syncer;
+
+    /**
+     * Opens the journal, the segments found in the directory are kept
+     * for {@link #replay()}
+     * @param dir directory of the segment files
+     * @param segmentSize size of one segment file in bytes
+     */
+    public IntakeJournal(Path dir, int segmentSize) throws IOException {
+        this.dir = dir;
+        this.recordsPerSegment = Math.max(1, segmentSize / RECORD_SIZE);
+        Files.createDirectories(dir);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir,
+                PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                replay.add(file);
+                nextSegment = Math.max(nextSegment, segmentNumber(file) + 1);
+            }
+        }
+        replay.sort(null);
+        this.current = openSegment();
+        this.syncer = new Thread(this::sync, "intake-syncer");
+        this.syncer.setDaemon(true);
+        this.syncer.start();
+    }
+
+    /**
+     * Appends the transfer to the journal, it is durable once
+     * {@link #awaitDurable(long)} returns
+     * @return sequence number of the record
+     */
+    public long append(MinorUnitsTransfer transfer) throws IOException {
+        return append(transfer.getId(), transfer.getSenderAccountId(),
+                transfer.getReceiverAccountId(), transfer.getAmount());
+    }
+
+    /**
+     * Appends the tombstone of the deleted transfer, so it is skipped on
+     * replay. It is durable once {@link #awaitDurable(long)} returns
+     * @return sequence number of the record
+     */
+    public long appendTombstone(int id) throws IOException {
+        return append(id, TOMBSTONE, TOMBSTONE, 0);
+    }
+
+    private long append(int id, int senderId, int receiverId, long amount)
+            throws IOException {
+        lock.lock();
+        try {
+            if (closing) {
+                throw new IllegalStateException("Intake journal is closed");
+            }
+            if (current.size == recordsPerSegment) {
+                //The full segment is forced by the syncer
+                rotated.add(current);
+                current = openSegment();
+            }
+            current.write(id, senderId, receiverId, amount);
+            written++;
+            current.lastSequence = written;
+            appended.signal();
+            return written;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the record is forced to the disk
+     * @throws IOException if the journal can't be forced
+     */
+    public void awaitDurable(long sequence)
+            throws IOException, InterruptedException {
+        lock.lock();
+        try {
+            while (durable < sequence) {
+                if (failure != null) {
+                    throw failure;
+                }
+                forced.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return sequence number of the last record forced to the disk
+     */
+    public long durable() {
+        lock.lock();
+        try {
+            return durable;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the segments with all the records written to the DB
+     * @param sequence sequence number of the last record written to the DB
+     */
+    public void flushed(long sequence) {
+        List<Segment> done = new ArrayList<>();
+        lock.lock();
+        try {
+            while (!rotated.isEmpty() && rotated.peek().lastSequence <= sequence
+                    && rotated.peek().lastSequence <= durable) {
+                done.add(rotated.poll());
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (Segment segment : done) {
+            segment.delete();
+        }
+    }
+
+    /**
+     * Reads the transfers of the segments left by the previous run, except
+     * the ones with a tombstone following them. The records after the first
+     * corrupted one in a segment are ignored.
+     */
+    public List<MinorUnitsTransfer> replay() throws IOException {
+        Map<Integer, MinorUnitsTransfer> transfers = new LinkedHashMap<>();
+        for (Path file : replay) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            int count = 0;
+            while (buffer.remaining() >= RECORD_SIZE) {
+                MinorUnitsTransfer transfer = read(buffer);
+                if (transfer == null) {
+                    break;
+                }
+                if (transfer.getSenderAccountId() == TOMBSTONE) {
+                    //Drops the record read before it. A tombstone written
+                    //before the record is ignored
+                    transfers.remove(transfer.getId());
+                } else {
+                    transfers.put(transfer.getId(), transfer);
+                    count++;
+                }
+            }
+            log.info("{} transfers are replayed from {}", count, file);
+        }
+        return new ArrayList<>(transfers.values());
+    }
+
+    /**
+     * Deletes the segments of the previous run, called once their
+     * transfers are written to the DB
+     */
+    public void replayed() throws IOException {
+        for (Path file : replay) {
+            Files.deleteIfExists(file);
+        }
+        replay.clear();
+    }
+
+    /**
+     * Stops accepting transfers and forces the appended ones
+     */
+    @Override
+    public void close() throws InterruptedException {
+        lock.lock();
+        try {
+            closing = true;
+            appended.signal();
+        } finally {
+            lock.unlock();
+        }
+        syncer.join();
+    }
+
+    /**
+     * Deletes all the segments, called once all the records are
+     * written to the DB
+     */
+    public void delete() {
+        lock.lock();
+        try {
+            flushed(written);
+            current.delete();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void sync() {
+        while (true) {
+            long target;
+            List<Segment> segments = new ArrayList<>();
+            lock.lock();
+            try {
+                while (durable == written && !closing) {
+                    appended.await();
+                }
+                if (durable == written) {
+                    return;
+                }
+                target = written;
+                for (Segment segment : rotated) {
+                    if (segment.lastSequence > durable) {
+                        segments.add(segment);
+                    }
+                }
+                segments.add(current);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                for (Segment segment : segments) {
+                    segment.force();
+                }
+            } catch (RuntimeException e) {
+                log.error("Can't force the intake journal", e);
+                lock.lock();
+                try {
+                    failure = new IOException("Can't force the intake journal", e);
+                    forced.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+            lock.lock();
+            try {
+                durable = target;
+                forced.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private Segment openSegment() throws IOException {
+        Path file = dir.resolve(String.format("%s%016d%s", PREFIX,
+                nextSegment++, SUFFIX));
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return new Segment(file, channel.map(FileChannel.MapMode.READ_WRITE,
+                    0, (long) recordsPerSegment * RECORD_SIZE));
+        }
+    }
+
+    private static long segmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(),
+                name.length() - SUFFIX.length()));
+    }
+
+    private static MinorUnitsTransfer read(ByteBuffer buffer) {
+        int crc = buffer.getInt();
+        int start = buffer.position();
+        int id = buffer.getInt();
+        int senderId = buffer.getInt();
+        int receiverId = buffer.getInt();
+        long amount = buffer.getLong();
+        if (crc != checksum(buffer, start)) {
+            return null;
+        }
+        return new MinorUnitsTransfer(new Transfer()
+                .setId(id)
+                .setSenderAccountId(senderId)
+                .setReceiverAccountId(receiverId)
+                .setAmount(MinorUnits.toAmount(amount))
+                .setStatus(TransferStatus.PENDING)
+                .setVersion(0L), amount);
+    }
+
+    private static int checksum(ByteBuffer buffer, int start) {
+        CRC32 crc = new CRC32();
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(start).limit(start + RECORD_SIZE - 4);
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static class Segment {
+
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        private int size;
+        private long lastSequence;
+
+        Segment(Path file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        void write(int id, int senderId, int receiverId, long amount) {
+            int start = size * RECORD_SIZE;
+            buffer.putInt(start + 4, id);
+            buffer.putInt(start + 8, senderId);
+            buffer.putInt(start + 12, receiverId);
+            buffer.putLong(start + 16, amount);
+            buffer.putInt(start, checksum(buffer, start + 4));
+            size++;
+        }
+
+        void force() {
+            buffer.force();
+        }
+
+        void delete() {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Can't delete intake segment {}", file, e);
+            }
+        }
+    }
+}
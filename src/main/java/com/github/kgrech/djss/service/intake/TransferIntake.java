@@ -0,0 +1,339 @@
+package com.github.kgrech.djss.service.intake;
+
+import static com.github.kgrech.djss.jooq.MinorUnits.TRANSFER_AMOUNT;
+import static com.github.kgrech.djss.jooq.tables.Account.ACCOUNT;
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER;
+
+import com.github.kgrech.djss.jooq.MinorUnits;
+import com.github.kgrech.djss.jooq.TransferStatus;
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer;
+import com.github.kgrech.djss.jooq.tables.records.TransferRecord;
+import com.github.kgrech.djss.service.IdentityAllocator;
+import com.github.kgrech.djss.service.MinorUnitsTransfer;
+import com.github.kgrech.djss.service.RowCounter;
+import com.github.kgrech.djss.service.TransferListener;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.jooq.InsertValuesStep5;
+import org.jooq.exception.DataAccessException;
+
+/**
+ * Accepts new transfers into the {@link IntakeJournal} instead of inserting
+ * them one by one. A transfer gets its id from a block allocated ahead,
+ * is acknowledged once the journal is forced to the disk and is inserted
+ * into the DB by the flusher with the other transfers accepted meanwhile.
+ * The accepted transfers are visible by id before they are inserted.
+ */
+@Slf4j
+public class TransferIntake implements AutoCloseable {
+
+    private final DSLContext ctx;
+    private final TransferListener listener;
+    private final RowCounter transferCounter;
+    private final IdentityAllocator ids;
+    private final IntakeJournal journal;
+    private final int flushBatch;
+    private final ScheduledExecutorService flusher;
+
+    private final Object appendLock = new Object();
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final Map<Integer, Transfer> pending = new ConcurrentHashMap<>();
+    private final Deque<Integer> freeIds = new ArrayDeque<>();
+
+    //Entries of the current flush, kept until they are written successfully
+    private final List<Entry> batch = new ArrayList<>();
+
+    /**
+     * Creates new instance, the transfers left in the journal by the
+     * previous run are inserted first
+     * @param ctx jooq context
+     * @param listener listener of the transfers inserted into the DB
+     * @param transferCounter counter of the transfers
+     * @param journal intake journal
+     * @param flushBatch max number of transfers inserted by one statement
+     * @param flushInterval delay between flushes in milliseconds
+     */
+    public TransferIntake(DSLContext ctx, TransferListener listener,
+                          RowCounter transferCounter, IntakeJournal journal,
+                          int flushBatch, long flushInterval) throws IOException {
+        this.ctx = ctx;
+        this.listener = listener;
+        this.transferCounter = transferCounter;
+        this.ids = new IdentityAllocator(ctx, TRANSFER, TRANSFER.ID);
+        this.journal = journal;
+        this.flushBatch = flushBatch;
+
+        replay();
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor();
+        this.flusher.scheduleWithFixedDelay(this::flushAll, flushInterval,
+                flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Appends the transfer to the journal
+     * @return the accepted transfer
+     */
+    public Transfer submit(Transfer newInstance) {
+        validate(newInstance);
+        long amount = MinorUnits.of(newInstance.getAmount());
+        Transfer transfer = new Transfer(newInstance)
+                .setId(nextId())
+                .setAmount(MinorUnits.toAmount(amount))
+                .setStatus(TransferStatus.PENDING)
+                .setVersion(0L)
+                .setProcessingId(null)
+                .setProcessingStart(null)
+                .setProcessingEnd(null);
+        long sequence;
+        try {
+            //The flusher relies on the queue being in journal order
+            synchronized (appendLock) {
+                MinorUnitsTransfer accepted = new MinorUnitsTransfer(transfer, amount);
+                sequence = journal.append(accepted);
+                pending.put(transfer.getId(), transfer);
+                queue.add(new Entry(sequence, accepted));
+            }
+            journal.awaitDurable(sequence);
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't write transfer to the intake journal", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the intake journal", e);
+        }
+        return transfer;
+    }
+
+    /**
+     * @return the accepted transfer not inserted into the DB yet
+     *         or null if there is no such transfer
+     */
+    public Transfer find(int id) {
+        return pending.get(id);
+    }
+
+    /**
+     * Inserts up to flushBatch durable transfers into the DB
+     * @return number of transfers inserted
+     */
+    public synchronized int flush() {
+        long durable = journal.durable();
+        while (batch.size() < flushBatch) {
+            Entry entry = queue.peek();
+            if (entry == null || entry.sequence > durable) {
+                break;
+            }
+            batch.add(queue.poll());
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        long lastSequence = batch.get(batch.size() - 1).sequence;
+        List<MinorUnitsTransfer> transfers = batch.stream()
+                .map(e -> e.transfer)
+                .collect(Collectors.toList());
+        try {
+            insert(transfers);
+            created(transfers);
+        } catch (DataAccessException e) {
+            //An account might be deleted after the transfer is accepted
+            log.warn("Can't insert {} transfers, inserting one by one",
+                    transfers.size(), e);
+            transfers = insertOneByOne(transfers);
+        }
+        batch.clear();
+        journal.flushed(lastSequence);
+        return transfers.size();
+    }
+
+    /**
+     * Inserts the accepted transfer ahead of the flusher, so it can be
+     * updated or deleted
+     */
+    public void flush(int id) {
+        while (pending.containsKey(id) && flush() > 0) {
+            //The transfer is in one of the next batches
+        }
+    }
+
+    /**
+     * Journals the tombstone of the transfer, so the transfer is not replayed
+     * after a crash. Must be called in the transaction deleting the transfer
+     * from the DB, once the transfer is checked to exist
+     */
+    public void tombstone(int id) {
+        try {
+            journal.awaitDurable(journal.appendTombstone(id));
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't write tombstone to the intake journal", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the intake journal", e);
+        }
+    }
+
+    /**
+     * Stops accepting the transfers and inserts the accepted ones
+     */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            journal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        flushAll();
+        if (queue.isEmpty() && batch.isEmpty()) {
+            journal.delete();
+        }
+    }
+
+    private void flushAll() {
+        try {
+            while (flush() > 0) {
+                //Keep flushing while there is a backlog
+            }
+        } catch (RuntimeException e) {
+            log.error("Error inserting accepted transfers, will retry", e);
+        }
+    }
+
+    private void replay() throws IOException {
+        List<MinorUnitsTransfer> transfers = journal.replay();
+        for (int from = 0; from < transfers.size(); from += flushBatch) {
+            List<MinorUnitsTransfer> chunk = transfers.subList(from,
+                    Math.min(transfers.size(), from + flushBatch));
+            //Transfers inserted before the crash are in the journal too
+            Set<Integer> existing = new HashSet<>(ctx.select(TRANSFER.ID)
+                    .from(TRANSFER)
+                    .where(TRANSFER.ID.in(chunk.stream()
+                            .map(MinorUnitsTransfer::getId)
+                            .collect(Collectors.toList())))
+                    .fetch(TRANSFER.ID));
+            List<MinorUnitsTransfer> missing = chunk.stream()
+                    .filter(t -> !existing.contains(t.getId()))
+                    .collect(Collectors.toList());
+            if (!missing.isEmpty()) {
+                insertOneByOne(missing);
+            }
+        }
+        journal.replayed();
+    }
+
+    /**
+     * Inserts the transfers one by one, the transfers of the deleted
+     * accounts are dropped
+     * @return the transfers inserted
+     * @throws DataAccessException if a transfer can't be inserted for another
+     *                             reason, the rest of transfers are kept
+     */
+    private List<MinorUnitsTransfer> insertOneByOne(List<MinorUnitsTransfer> transfers) {
+        List<MinorUnitsTransfer> inserted = new ArrayList<>(transfers.size());
+        for (MinorUnitsTransfer transfer : transfers) {
+            try {
+                insert(Collections.singletonList(transfer));
+            } catch (DataAccessException e) {
+                if (accountsExist(transfer.getTransfer())) {
+                    throw e;
+                }
+                log.error("Transfer {} is dropped, its account is deleted",
+                        transfer.getId(), e);
+                pending.remove(transfer.getId());
+                batch.removeIf(entry -> entry.transfer == transfer);
+                continue;
+            }
+            created(Collections.singletonList(transfer));
+            batch.removeIf(entry -> entry.transfer == transfer);
+            inserted.add(transfer);
+        }
+        return inserted;
+    }
+
+    private void insert(List<MinorUnitsTransfer> transfers) {
+        InsertValuesStep5<TransferRecord, Integer, Integer, Integer, TransferStatus, Long> insert =
+                ctx.insertInto(TRANSFER,
+                        TRANSFER.ID,
+                        TRANSFER.SENDER_ACCOUNT_ID,
+                        TRANSFER.RECEIVER_ACCOUNT_ID,
+                        TRANSFER.STATUS,
+                        TRANSFER_AMOUNT);
+        for (MinorUnitsTransfer transfer : transfers) {
+            insert = insert.values(transfer.getId(),
+                    transfer.getSenderAccountId(),
+                    transfer.getReceiverAccountId(),
+                    transfer.getTransfer().getStatus(),
+                    transfer.getAmount());
+        }
+        insert.execute();
+    }
+
+    private void created(List<MinorUnitsTransfer> transfers) {
+        transferCounter.add(transfers.size());
+        for (MinorUnitsTransfer transfer : transfers) {
+            pending.remove(transfer.getId());
+            listener.transferCreated(transfer.getTransfer());
+        }
+    }
+
+    private void validate(Transfer transfer) {
+        if (transfer.getSenderAccountId() == null) {
+            throw new IllegalArgumentException("Missing sender account");
+        }
+        if (transfer.getReceiverAccountId() == null) {
+            throw new IllegalArgumentException("Missing receiver account");
+        }
+        if (transfer.getAmount() == null) {
+            throw new IllegalArgumentException("Missing amount");
+        }
+        if (!accountsExist(transfer)) {
+            //Same response as the failed insert
+            throw new DataAccessException("Account of transfer is not found");
+        }
+    }
+
+    private boolean accountsExist(Transfer transfer) {
+        Set<Integer> accounts = new HashSet<>();
+        accounts.add(transfer.getSenderAccountId());
+        accounts.add(transfer.getReceiverAccountId());
+        return ctx.fetchCount(ACCOUNT, ACCOUNT.ID.in(accounts)) == accounts.size();
+    }
+
+    private int nextId() {
+        synchronized (freeIds) {
+            if (freeIds.isEmpty()) {
+                freeIds.addAll(ids.allocate(flushBatch));
+            }
+            return freeIds.poll();
+        }
+    }
+
+    private static class Entry {
+
+        private final long sequence;
+        private final MinorUnitsTransfer transfer;
+
+        Entry(long sequence, MinorUnitsTransfer transfer) {
+            this.sequence = sequence;
+            this.transfer = transfer;
+        }
+    }
+}
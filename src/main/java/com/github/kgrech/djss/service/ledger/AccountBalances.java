@@ -0,0 +1,139 @@
+package com.github.kgrech.djss.service.ledger;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map of account id to balance in minor units. Keeps keys and values
+ * in primitive arrays, so no boxing happens on the hot path.
+ * Not thread safe, every instance is owned by a single thread.
+ */
+public class AccountBalances {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] keys;
+    private long[] values;
+    private boolean[] used;
+    private int size;
+
+    public AccountBalances() {
+        this(MIN_CAPACITY);
+    }
+
+    public AccountBalances(int expectedSize) {
+        allocate(tableSize(expectedSize));
+    }
+
+    public boolean contains(int accountId) {
+        return used[indexOf(accountId)];
+    }
+
+    /**
+     * Returns the balance of the account or 0 if account is unknown
+     */
+    public long get(int accountId) {
+        int index = indexOf(accountId);
+        return used[index] ? values[index] : 0;
+    }
+
+    public void put(int accountId, long amount) {
+        int index = indexOf(accountId);
+        if (!used[index]) {
+            insert(index, accountId, amount);
+        } else {
+            values[index] = amount;
+        }
+    }
+
+    public void add(int accountId, long amount) {
+        int index = indexOf(accountId);
+        if (!used[index]) {
+            insert(index, accountId, amount);
+        } else {
+            values[index] += amount;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Calls the consumer for every account and removes all the accounts
+     */
+    public void drain(Consumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+        clear();
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private void insert(int index, int accountId, long amount) {
+        keys[index] = accountId;
+        values[index] = amount;
+        used[index] = true;
+        if (++size * 2 > keys.length) {
+            rehash();
+        }
+    }
+
+    private int indexOf(int accountId) {
+        int mask = keys.length - 1;
+        int index = mix(accountId) & mask;
+        while (used[index] && keys[index] != accountId) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int index = indexOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+                used[index] = true;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new long[capacity];
+        used = new boolean[capacity];
+    }
+
+    private static int tableSize(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @FunctionalInterface
+    public interface Consumer {
+
+        void accept(int accountId, long amount);
+    }
+}
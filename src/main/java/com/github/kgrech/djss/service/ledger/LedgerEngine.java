@@ -0,0 +1,192 @@
+package com.github.kgrech.djss.service.ledger;
+
+import static com.github.kgrech.djss.jooq.MinorUnits.ACCOUNT_AMOUNT;
+import static com.github.kgrech.djss.jooq.Tables.ACCOUNT;
+
+import com.github.kgrech.djss.jooq.MinorUnits;
+import com.github.kgrech.djss.jooq.TransferStatus;
+import com.github.kgrech.djss.service.MinorUnitsTransfer;
+import com.github.kgrech.djss.service.TransferListener;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.Cursor;
+import org.jooq.DSLContext;
+import org.jooq.Record2;
+
+/**
+ * In-memory ledger. Account balances are split between shards by account id,
+ * every shard has a single writer thread. A transfer is debited by the shard
+ * of the sender and then credited by the shard of the receiver. Outcomes of
+ * the transfers are written to the DB asynchronously by the write-behind
+ * flusher.
+ *
+ * While the engine is running it assumes to be the only writer of the
+ * account balances.
+ */
+@Slf4j
+public class LedgerEngine implements AutoCloseable {
+
+    private final DSLContext ctx;
+    private final LedgerShard[] shards;
+    private final LedgerWriteBehind writeBehind;
+    private final ScheduledExecutorService flusher;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * Creates new instance
+     * @param ctx jooq context
+     * @param numShards number of shards
+     * @param flushInterval delay between write-behind flushes in milliseconds
+     * @param flushBatch max number of transfers written by one flush
+     * @param listener listener notified when transfers are written
+     */
+    public LedgerEngine(DSLContext ctx, int numShards,
+                        long flushInterval, int flushBatch,
+                        TransferListener listener) {
+        this.ctx = ctx;
+        this.shards = new LedgerShard[numShards];
+        for (int i = 0; i < numShards; i++) {
+            shards[i] = new LedgerShard(ctx);
+        }
+        this.writeBehind = new LedgerWriteBehind(ctx, flushBatch, listener);
+        this.flusher = Executors.newSingleThreadScheduledExecutor();
+        this.flusher.scheduleWithFixedDelay(this::flushAll,
+                flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Loads balances of all the accounts from the DB.
+     * Must be called before any transfer is submitted.
+     */
+    public void rebuild() {
+        int count = 0;
+        try (Cursor<Record2<Integer, Long>> cursor = ctx
+                .select(ACCOUNT.ID, ACCOUNT_AMOUNT)
+                .from(ACCOUNT)
+                .fetchLazy()) {
+            for (Record2<Integer, Long> account : cursor) {
+                if (account.value2() != null) {
+                    shardOf(account.value1()).put(account.value1(), account.value2());
+                    count++;
+                }
+            }
+        }
+        log.info("Ledger is rebuilt with {} accounts", count);
+    }
+
+    /**
+     * Applies the transfer asynchronously
+     */
+    public void submit(MinorUnitsTransfer transfer) {
+        inFlight.incrementAndGet();
+        shardOf(transfer.getSenderAccountId()).execute(() -> debit(transfer));
+    }
+
+    /**
+     * Writes all the applied transfers to the DB
+     */
+    public void flush() {
+        while (!writeBehind.isEmpty()) {
+            writeBehind.flush();
+        }
+    }
+
+    private void debit(MinorUnitsTransfer transfer) {
+        int senderId = transfer.getSenderAccountId();
+        LedgerShard sender = shardOf(senderId);
+        try {
+            if (!sender.load(senderId)) {
+                log.error("Can't perform transfer {}. Account {} is not found!",
+                        transfer.getId(), senderId);
+                complete(transfer, TransferStatus.ERROR);
+                return;
+            }
+            if (!transfer.hasAmount()) {
+                log.error("Can't perform transfer {}. It has no amount!",
+                        transfer.getId());
+                complete(transfer, TransferStatus.ERROR);
+                return;
+            }
+            long amount = transfer.getAmount();
+            long senderAmount = sender.balance(senderId);
+            if (senderAmount < amount) {
+                log.info("Can't perform transfer {}. Can't transfer {}$ " +
+                                "from account {} to account {}! " +
+                                "Reason: account balance is too low: {}$",
+                        transfer.getId(), MinorUnits.toAmount(amount), senderId,
+                        transfer.getReceiverAccountId(),
+                        MinorUnits.toAmount(senderAmount));
+                complete(transfer, TransferStatus.REJECTED);
+                return;
+            }
+            sender.add(senderId, -amount);
+        } catch (RuntimeException e) {
+            log.error("Error appears during processing transfer {}", transfer.getId(), e);
+            complete(transfer, TransferStatus.ERROR);
+            return;
+        }
+        shardOf(transfer.getReceiverAccountId()).execute(() -> credit(transfer));
+    }
+
+    private void credit(MinorUnitsTransfer transfer) {
+        int receiverId = transfer.getReceiverAccountId();
+        LedgerShard receiver = shardOf(receiverId);
+        boolean loaded;
+        try {
+            loaded = receiver.load(receiverId);
+        } catch (RuntimeException e) {
+            log.error("Error appears during processing transfer {}", transfer.getId(), e);
+            loaded = false;
+        }
+        if (!loaded) {
+            //Return the money back to the sender
+            int senderId = transfer.getSenderAccountId();
+            shardOf(senderId).execute(() -> {
+                shardOf(senderId).add(senderId, transfer.getAmount());
+                complete(transfer, TransferStatus.ERROR);
+            });
+            return;
+        }
+        receiver.add(receiverId, transfer.getAmount());
+        log.info("Transfer {} complete!", transfer.getId());
+        complete(transfer, TransferStatus.COMPLETED);
+    }
+
+    private void complete(MinorUnitsTransfer transfer, TransferStatus status) {
+        writeBehind.add(transfer, status);
+        inFlight.decrementAndGet();
+    }
+
+    private void flushAll() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Error writing ledger to the DB", e);
+        }
+    }
+
+    private LedgerShard shardOf(int accountId) {
+        return shards[Math.floorMod(accountId, shards.length)];
+    }
+
+    @Override
+    public void close() {
+        try {
+            //Transfer debited by one shard is credited by another one,
+            //so shards can be stopped only when all the transfers are applied
+            while (inFlight.get() > 0) {
+                Thread.sleep(10);
+            }
+            for (LedgerShard shard : shards) {
+                shard.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flusher.shutdown();
+        flushAll();
+    }
+}
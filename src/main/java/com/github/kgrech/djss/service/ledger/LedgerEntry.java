@@ -0,0 +1,16 @@
+package com.github.kgrech.djss.service.ledger;
+
+import com.github.kgrech.djss.jooq.TransferStatus;
+import com.github.kgrech.djss.service.MinorUnitsTransfer;
+import lombok.Value;
+
+/**
+ * The outcome of a transfer applied by the ledger engine which is not yet
+ * written to the DB
+ */
+@Value
+class LedgerEntry {
+
+    private final MinorUnitsTransfer transfer;
+    private final TransferStatus status;
+}
@@ -0,0 +1,72 @@
+package com.github.kgrech.djss.service.ledger;
+
+import static com.github.kgrech.djss.jooq.MinorUnits.ACCOUNT_AMOUNT;
+import static com.github.kgrech.djss.jooq.Tables.ACCOUNT;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.jooq.DSLContext;
+import org.jooq.Record1;
+
+/**
+ * Owns balances of a subset of accounts. All the reads and writes of the
+ * balances are done by the single shard thread, so no locking is needed.
+ */
+class LedgerShard implements AutoCloseable {
+
+    private final DSLContext ctx;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final AccountBalances balances = new AccountBalances();
+
+    LedgerShard(DSLContext ctx) {
+        this.ctx = ctx;
+    }
+
+    void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Makes sure the balance of account is in memory, fetches it from the DB
+     * if needed. Must be called from the shard thread.
+     * @return false if the account does not exist or has no balance
+     */
+    boolean load(int accountId) {
+        if (balances.contains(accountId)) {
+            return true;
+        }
+        Record1<Long> value = ctx
+                .select(ACCOUNT_AMOUNT)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(accountId))
+                .fetchOne();
+        if (value == null || value.value1() == null) {
+            return false;
+        }
+        balances.put(accountId, value.value1());
+        return true;
+    }
+
+    long balance(int accountId) {
+        return balances.get(accountId);
+    }
+
+    void add(int accountId, long amount) {
+        balances.add(accountId, amount);
+    }
+
+    /**
+     * Sets the balance of the account. Must be called either from the shard
+     * thread or before any task is submitted to the shard.
+     */
+    void put(int accountId, long amount) {
+        balances.put(accountId, amount);
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,112 @@
+package com.github.kgrech.djss.service.ledger;
+
+import static com.github.kgrech.djss.jooq.MinorUnits.ACCOUNT_AMOUNT;
+import static com.github.kgrech.djss.jooq.Tables.ACCOUNT;
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER;
+import static org.jooq.impl.DSL.castNull;
+
+import com.github.kgrech.djss.jooq.RowVersion;
+import com.github.kgrech.djss.jooq.TransferStatus;
+import com.github.kgrech.djss.service.MinorUnitsTransfer;
+import com.github.kgrech.djss.service.TransferListener;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.jooq.BatchBindStep;
+import org.jooq.DSLContext;
+
+/**
+ * Collects outcomes of the transfers applied in memory and writes them to
+ * the DB in batches. Balance changes of one flush are aggregated to a single
+ * delta per account, which is written in the same transaction as the
+ * statuses of the transfers, so the DB never contains a half applied transfer.
+ */
+class LedgerWriteBehind {
+
+    private final DSLContext ctx;
+    private final int flushBatch;
+    private final TransferListener listener;
+    private final Queue<LedgerEntry> queue = new ConcurrentLinkedQueue<>();
+
+    //Entries of the current flush, kept until they are written successfully
+    private final List<LedgerEntry> pending = new ArrayList<>();
+    private final AccountBalances deltas = new AccountBalances();
+
+    LedgerWriteBehind(DSLContext ctx, int flushBatch,
+                      TransferListener listener) {
+        this.ctx = ctx;
+        this.flushBatch = flushBatch;
+        this.listener = listener;
+    }
+
+    void add(MinorUnitsTransfer transfer, TransferStatus status) {
+        queue.add(new LedgerEntry(transfer, status));
+    }
+
+    boolean isEmpty() {
+        return queue.isEmpty() && pending.isEmpty();
+    }
+
+    /**
+     * Writes up to flushBatch entries to the DB
+     * @return number of transfers written
+     */
+    synchronized int flush() {
+        while (pending.size() < flushBatch) {
+            LedgerEntry entry = queue.poll();
+            if (entry == null) {
+                break;
+            }
+            pending.add(entry);
+        }
+        if (pending.isEmpty()) {
+            return 0;
+        }
+
+        Timestamp now = new Timestamp(new java.util.Date().getTime());
+        BatchBindStep statuses = ctx.batch(ctx.update(TRANSFER)
+                .set(TRANSFER.STATUS, (TransferStatus) null)
+                .set(TRANSFER.PROCESSING_END, (Timestamp) null)
+                .set(TRANSFER.LEASE_EXPIRY, castNull(TRANSFER.LEASE_EXPIRY))
+                .set(TRANSFER.VERSION, RowVersion.NEXT_TRANSFER)
+                .where(TRANSFER.ID.eq((Integer) null)));
+        for (LedgerEntry entry : pending) {
+            MinorUnitsTransfer transfer = entry.getTransfer();
+            if (entry.getStatus() == TransferStatus.COMPLETED) {
+                long amount = transfer.getAmount();
+                deltas.add(transfer.getSenderAccountId(), -amount);
+                deltas.add(transfer.getReceiverAccountId(), amount);
+            }
+            statuses.bind(entry.getStatus(), now, transfer.getId());
+        }
+
+        BatchBindStep amounts = ctx.batch(ctx.update(ACCOUNT)
+                .set(ACCOUNT_AMOUNT, ACCOUNT_AMOUNT.add((Long) null))
+                .set(ACCOUNT.VERSION, RowVersion.NEXT_ACCOUNT)
+                .where(ACCOUNT.ID.eq((Integer) null)));
+        int[] numAmounts = new int[1];
+        deltas.drain((accountId, delta) -> {
+            if (delta != 0) {
+                amounts.bind(delta, accountId);
+                numAmounts[0]++;
+            }
+        });
+
+        ctx.transaction(() -> {
+            if (numAmounts[0] > 0) {
+                amounts.execute();
+            }
+            statuses.execute();
+        });
+
+        for (LedgerEntry entry : pending) {
+            listener.transferProcessed(entry.getTransfer().getTransfer()
+                    .setStatus(entry.getStatus()));
+        }
+        int flushed = pending.size();
+        pending.clear();
+        return flushed;
+    }
+}
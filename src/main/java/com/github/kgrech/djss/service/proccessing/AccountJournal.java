@@ -0,0 +1,180 @@
+package com.github.kgrech.djss.service.proccessing;
+
+import static com.github.kgrech.djss.jooq.MinorUnits.ACCOUNT_AMOUNT;
+import static com.github.kgrech.djss.jooq.tables.Account.ACCOUNT;
+import static com.github.kgrech.djss.jooq.tables.LedgerEntry.LEDGER_ENTRY;
+import static org.jooq.impl.DSL.coalesce;
+import static org.jooq.impl.DSL.field;
+import static org.jooq.impl.DSL.inline;
+import static org.jooq.impl.DSL.select;
+import static org.jooq.impl.DSL.sum;
+
+import com.github.kgrech.djss.jooq.RowVersion;
+import com.github.kgrech.djss.service.TransferListener;
+import com.github.kgrech.djss.service.ledger.AccountBalances;
+import java.util.ArrayList;
+import java.util.List;
+import org.jooq.BatchBindStep;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record3;
+import org.jooq.Result;
+import org.jooq.impl.SQLDataType;
+
+/**
+ * Append-only journal of the balance changes. A completed transfer inserts
+ * a debit and a credit entry instead of updating both accounts in place,
+ * so the transfers to a popular account don't wait for each other.
+ * The balance of the account is its snapshot kept in ACCOUNT.AMOUNT and
+ * the slots of a striped account plus the entries not compacted yet,
+ * the compaction adds the entries to the snapshots and deletes them.
+ */
+public class AccountJournal {
+
+    public static final int DEFAULT_COMPACT_BATCH = 1000;
+
+    /**
+     * Current balance of the account in major units, named as ACCOUNT.AMOUNT
+     * so it can replace the column in the selects
+     */
+    public static final Field<Double> BALANCE = balance(ACCOUNT.ID)
+            .coerce(ACCOUNT.AMOUNT.getDataType())
+            .as(ACCOUNT.AMOUNT.getName());
+
+    private final int compactBatch;
+    private final TransferListener listener;
+
+    public AccountJournal() {
+        this(DEFAULT_COMPACT_BATCH);
+    }
+
+    public AccountJournal(int compactBatch) {
+        this(compactBatch, TransferListener.NONE);
+    }
+
+    /**
+     * Creates new instance
+     * @param compactBatch max number of entries compacted by one transaction
+     * @param listener listener notified about the accounts whose snapshots
+     *                 are compacted
+     */
+    public AccountJournal(int compactBatch, TransferListener listener) {
+        this.compactBatch = compactBatch;
+        this.listener = listener;
+    }
+
+    /**
+     * @return current balance of the account in minor units
+     */
+    public static Field<Long> balance(Field<Integer> accountId) {
+        Field<Long> pending = field(select(sum(LEDGER_ENTRY.AMOUNT))
+                .from(LEDGER_ENTRY)
+                .where(LEDGER_ENTRY.ACCOUNT_ID.eq(accountId)))
+                .coerce(SQLDataType.BIGINT);
+        return ACCOUNT_AMOUNT.add(AccountStripes.slots(accountId))
+                .add(coalesce(pending, inline(0L)));
+    }
+
+    /**
+     * Fetches and locks the current balance of the account, so the balance
+     * can't be spent twice by concurrent transfers
+     * @return balance in minor units
+     */
+    public long lockBalance(DSLContext ctx, int accountId) {
+        return ctx.select(balance(ACCOUNT.ID))
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(accountId))
+                .forUpdate()
+                .fetchOne()
+                .value1();
+    }
+
+    /**
+     * Records the transfer of the amount in minor units from the sender
+     * to the receiver
+     */
+    public void append(DSLContext ctx, long amount, int senderId, int receiverId) {
+        ctx.insertInto(LEDGER_ENTRY,
+                        LEDGER_ENTRY.ACCOUNT_ID,
+                        LEDGER_ENTRY.AMOUNT)
+                .values(senderId, -amount)
+                .values(receiverId, amount)
+                .execute();
+    }
+
+    /**
+     * Adds the oldest entries to the snapshots of their accounts and
+     * deletes them in one transaction
+     * @return number of entries compacted
+     */
+    public int compact(DSLContext ctx) {
+        List<Integer> accountIds = new ArrayList<>();
+        int compacted = ctx.transactionResult(() -> {
+            //Only the entries read here are deleted, the ones committed
+            //concurrently are left for the next compaction
+            Result<Record3<Long, Integer, Long>> entries = ctx
+                    .select(LEDGER_ENTRY.ID, LEDGER_ENTRY.ACCOUNT_ID, LEDGER_ENTRY.AMOUNT)
+                    .from(LEDGER_ENTRY)
+                    .orderBy(LEDGER_ENTRY.ID)
+                    .limit(compactBatch)
+                    .fetch();
+            if (entries.isEmpty()) {
+                return 0;
+            }
+            AccountBalances deltas = new AccountBalances(entries.size());
+            List<Long> ids = new ArrayList<>(entries.size());
+            for (Record3<Long, Integer, Long> entry : entries) {
+                ids.add(entry.value1());
+                deltas.add(entry.value2(), entry.value3());
+            }
+
+            BatchBindStep snapshots = ctx.batch(ctx.update(ACCOUNT)
+                    .set(ACCOUNT_AMOUNT, ACCOUNT_AMOUNT.add((Long) null))
+                    .set(ACCOUNT.VERSION, RowVersion.NEXT_ACCOUNT)
+                    .where(ACCOUNT.ID.eq((Integer) null)));
+            int[] numSnapshots = new int[1];
+            deltas.drain((accountId, delta) -> {
+                if (delta != 0) {
+                    snapshots.bind(delta, accountId);
+                    accountIds.add(accountId);
+                    numSnapshots[0]++;
+                }
+            });
+            if (numSnapshots[0] > 0) {
+                snapshots.execute();
+            }
+            ctx.deleteFrom(LEDGER_ENTRY)
+                    .where(LEDGER_ENTRY.ID.in(ids))
+                    .execute();
+            return entries.size();
+        });
+        //The balances are the same, the versions are not
+        if (!accountIds.isEmpty()) {
+            listener.accountsChanged(accountIds);
+        }
+        return compacted;
+    }
+
+    /**
+     * Compacts all the entries
+     * @return number of entries compacted
+     */
+    public int compactAll(DSLContext ctx) {
+        int total = 0;
+        int compacted;
+        do {
+            compacted = compact(ctx);
+            total += compacted;
+        } while (compacted == compactBatch);
+        return total;
+    }
+
+    /**
+     * Deletes the entries of the account, so its snapshot becomes its balance
+     */
+    public static void reset(DSLContext ctx, int accountId) {
+        ctx.deleteFrom(LEDGER_ENTRY)
+                .where(LEDGER_ENTRY.ACCOUNT_ID.eq(accountId))
+                .execute();
+    }
+}
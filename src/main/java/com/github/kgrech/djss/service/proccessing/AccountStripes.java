@@ -0,0 +1,211 @@
+package com.github.kgrech.djss.service.proccessing;
+
+import static com.github.kgrech.djss.jooq.MinorUnits.ACCOUNT_AMOUNT;
+import static com.github.kgrech.djss.jooq.tables.Account.ACCOUNT;
+import static com.github.kgrech.djss.jooq.tables.AccountSlot.ACCOUNT_SLOT;
+import static org.jooq.impl.DSL.coalesce;
+import static org.jooq.impl.DSL.field;
+import static org.jooq.impl.DSL.inline;
+import static org.jooq.impl.DSL.min;
+import static org.jooq.impl.DSL.select;
+import static org.jooq.impl.DSL.sum;
+
+import com.github.kgrech.djss.jooq.RowVersion;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.InsertValuesStep3;
+import org.jooq.impl.SQLDataType;
+
+/**
+ * Spreads the balance of the popular accounts over several slot rows,
+ * so the transfers to such an account update different rows and don't
+ * wait for each other. A credit goes to a random slot, a debit is taken
+ * from a slot with sufficient funds or, if no slot has enough, from all
+ * the slots merged into the first one. The balance of the account is
+ * ACCOUNT.AMOUNT plus all its slots.
+ */
+public class AccountStripes {
+
+    public static final AccountStripes NONE =
+            new AccountStripes(Collections.emptySet(), 1);
+
+    private final Set<Integer> accounts;
+    private final int stripes;
+
+    /**
+     * Creates new instance
+     * @param accounts ids of the striped accounts
+     * @param stripes number of slots of every striped account
+     */
+    public AccountStripes(Set<Integer> accounts, int stripes) {
+        this.accounts = new HashSet<>(accounts);
+        this.stripes = stripes;
+    }
+
+    public boolean isStriped(int accountId) {
+        return accounts.contains(accountId);
+    }
+
+    /**
+     * @return sum of the slots of the account in minor units
+     */
+    public static Field<Long> slots(Field<Integer> accountId) {
+        Field<Long> slots = field(select(sum(ACCOUNT_SLOT.AMOUNT))
+                .from(ACCOUNT_SLOT)
+                .where(ACCOUNT_SLOT.ACCOUNT_ID.eq(accountId)))
+                .coerce(SQLDataType.BIGINT);
+        return coalesce(slots, inline(0L));
+    }
+
+    /**
+     * @return balance of the account in minor units
+     */
+    public long balance(DSLContext ctx, int accountId) {
+        return ctx.select(ACCOUNT_AMOUNT.add(slots(ACCOUNT.ID)))
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(accountId))
+                .fetchOne()
+                .value1();
+    }
+
+    /**
+     * Adds the amount in minor units to a random slot of the account
+     */
+    public void credit(DSLContext ctx, int accountId, long amount) {
+        int slot = ThreadLocalRandom.current().nextInt(stripes);
+        if (addToSlot(ctx, accountId, slot, amount) == 0) {
+            stripe(ctx, accountId);
+            addToSlot(ctx, accountId, slot, amount);
+        }
+    }
+
+    /**
+     * Takes the amount in minor units from the slots of the account
+     * @return false if the balance is too low, nothing is taken then
+     */
+    public boolean debit(DSLContext ctx, int accountId, long amount) {
+        //The check and the update are one statement, so concurrent debits
+        //can't take the same funds
+        int debited = ctx.update(ACCOUNT_SLOT)
+                .set(ACCOUNT_SLOT.AMOUNT, ACCOUNT_SLOT.AMOUNT.minus(amount))
+                .where(ACCOUNT_SLOT.ACCOUNT_ID.eq(accountId))
+                .and(ACCOUNT_SLOT.AMOUNT.ge(amount))
+                .and(ACCOUNT_SLOT.SLOT.eq(select(min(ACCOUNT_SLOT.SLOT))
+                        .from(ACCOUNT_SLOT)
+                        .where(ACCOUNT_SLOT.ACCOUNT_ID.eq(accountId))
+                        .and(ACCOUNT_SLOT.AMOUNT.ge(amount))))
+                .execute();
+        if (debited > 0) {
+            return true;
+        }
+        //Concurrent debits may drain the slots after the balance is checked
+        if (merge(ctx, accountId) < amount) {
+            return false;
+        }
+        addToSlot(ctx, accountId, 0, -amount);
+        return true;
+    }
+
+    /**
+     * Moves the balance of the account to its first slot
+     * @return balance of the account in minor units
+     */
+    private long merge(DSLContext ctx, int accountId) {
+        stripe(ctx, accountId);
+        long total = ctx.select(ACCOUNT_AMOUNT)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(accountId))
+                .fetchOne()
+                .value1();
+        for (Long slot : ctx.select(ACCOUNT_SLOT.AMOUNT)
+                .from(ACCOUNT_SLOT)
+                .where(ACCOUNT_SLOT.ACCOUNT_ID.eq(accountId))
+                .orderBy(ACCOUNT_SLOT.SLOT)
+                .forUpdate()
+                .fetch(ACCOUNT_SLOT.AMOUNT)) {
+            total += slot;
+        }
+        ctx.update(ACCOUNT)
+                .set(ACCOUNT_AMOUNT, 0L)
+                .set(ACCOUNT.VERSION, RowVersion.NEXT_ACCOUNT)
+                .where(ACCOUNT.ID.eq(accountId))
+                .execute();
+        ctx.update(ACCOUNT_SLOT)
+                .set(ACCOUNT_SLOT.AMOUNT, 0L)
+                .where(ACCOUNT_SLOT.ACCOUNT_ID.eq(accountId))
+                .execute();
+        addToSlot(ctx, accountId, 0, total);
+        return total;
+    }
+
+    private int addToSlot(DSLContext ctx, int accountId, int slot, long amount) {
+        return ctx.update(ACCOUNT_SLOT)
+                .set(ACCOUNT_SLOT.AMOUNT, ACCOUNT_SLOT.AMOUNT.add(amount))
+                .where(ACCOUNT_SLOT.ACCOUNT_ID.eq(accountId))
+                .and(ACCOUNT_SLOT.SLOT.eq(slot))
+                .execute();
+    }
+
+    /**
+     * Creates the missing slots of the account. The account row is locked,
+     * so the slots are created once
+     */
+    private void stripe(DSLContext ctx, int accountId) {
+        ctx.transaction(() -> {
+            ctx.select(ACCOUNT.ID)
+                    .from(ACCOUNT)
+                    .where(ACCOUNT.ID.eq(accountId))
+                    .forUpdate()
+                    .fetch();
+            int existing = ctx.fetchCount(ACCOUNT_SLOT,
+                    ACCOUNT_SLOT.ACCOUNT_ID.eq(accountId));
+            if (existing >= stripes) {
+                return;
+            }
+            InsertValuesStep3<?, Integer, Integer, Long> insert = ctx
+                    .insertInto(ACCOUNT_SLOT,
+                            ACCOUNT_SLOT.ACCOUNT_ID,
+                            ACCOUNT_SLOT.SLOT,
+                            ACCOUNT_SLOT.AMOUNT);
+            for (int slot = existing; slot < stripes; slot++) {
+                insert = insert.values(accountId, slot, 0L);
+            }
+            insert.execute();
+        });
+    }
+
+    /**
+     * Moves the slots of the accounts which are not striped any more back to
+     * the accounts
+     * @return number of accounts unstriped
+     */
+    public int unstripeOthers(DSLContext ctx) {
+        return ctx.transactionResult(() -> {
+            int unstriped = ctx.update(ACCOUNT)
+                    .set(ACCOUNT_AMOUNT, ACCOUNT_AMOUNT.add(slots(ACCOUNT.ID)))
+                    .set(ACCOUNT.VERSION, RowVersion.NEXT_ACCOUNT)
+                    .where(ACCOUNT.ID.in(select(ACCOUNT_SLOT.ACCOUNT_ID)
+                            .from(ACCOUNT_SLOT)))
+                    .and(ACCOUNT.ID.notIn(accounts))
+                    .execute();
+            ctx.deleteFrom(ACCOUNT_SLOT)
+                    .where(ACCOUNT_SLOT.ACCOUNT_ID.notIn(accounts))
+                    .execute();
+            return unstriped;
+        });
+    }
+
+    /**
+     * Empties the slots of the account, so ACCOUNT.AMOUNT becomes its balance
+     */
+    public static void reset(DSLContext ctx, int accountId) {
+        ctx.update(ACCOUNT_SLOT)
+                .set(ACCOUNT_SLOT.AMOUNT, 0L)
+                .where(ACCOUNT_SLOT.ACCOUNT_ID.eq(accountId))
+                .execute();
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.kgrech.djss.service.proccessing;
+
+import com.github.kgrech.djss.jooq.TransferStatus;
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer;
+import com.github.kgrech.djss.service.TransferListener;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Number of transfers claimed by one dispensing, adjusted AIMD-style:
+ * it grows by one after every batch processed faster than the target
+ * latency and halves when a batch is slower, when the processing queue
+ * is full or when too many transfers fail. The size stays within
+ * [min, max] bounds.
+ * The batches dispensed before a decrease report the old latency, so
+ * the size is decreased at most once per target latency interval.
+ */
+@Slf4j
+public class AdaptiveBatchSize implements TransferListener {
+
+    /**
+     * Share of failed transfers considered as a congestion
+     */
+    static final double MAX_ERROR_RATE = 0.05;
+
+    private final int min;
+    private final int max;
+    private final long targetLatency;
+
+    private volatile int size;
+    private long lastDecrease;
+    private int processed;
+    private int failed;
+
+    /**
+     * Creates new instance
+     * @param initial initial size
+     * @param min min size
+     * @param max max size
+     * @param targetLatency target processing time of one batch in milliseconds
+     */
+    public AdaptiveBatchSize(int initial, int min, int max, long targetLatency) {
+        if (min < 1 || min > max) {
+            throw new IllegalArgumentException("Invalid batch size bounds ["
+                    + min + ", " + max + "]");
+        }
+        this.min = min;
+        this.max = max;
+        this.targetLatency = TimeUnit.MILLISECONDS.toNanos(targetLatency);
+        this.size = Math.max(min, Math.min(max, initial));
+        this.lastDecrease = System.nanoTime() - this.targetLatency;
+    }
+
+    /**
+     * Creates the size which never changes
+     */
+    public static AdaptiveBatchSize fixed(int size) {
+        return new AdaptiveBatchSize(size, size, size, 0);
+    }
+
+    public int get() {
+        return size;
+    }
+
+    public boolean isAdaptive() {
+        return min < max;
+    }
+
+    /**
+     * Adjusts the size after the batch is processed
+     * @param latency processing time of the batch in nanoseconds
+     */
+    public synchronized void batchProcessed(long latency) {
+        boolean failing = processed > 0
+                && (double) failed / processed > MAX_ERROR_RATE;
+        processed = 0;
+        failed = 0;
+        if (failing || latency > targetLatency) {
+            decrease(failing ? "failures" : "latency");
+        } else if (size < max) {
+            size++;
+        }
+    }
+
+    /**
+     * Decreases the size when the dispensing is skipped because
+     * the processing queue is full
+     */
+    public synchronized void queueFull() {
+        decrease("queue");
+    }
+
+    @Override
+    public synchronized void transferProcessed(Transfer transfer) {
+        processed++;
+        if (transfer.getStatus() == TransferStatus.ERROR) {
+            failed++;
+        }
+    }
+
+    private void decrease(String reason) {
+        long now = System.nanoTime();
+        if (now - lastDecrease < targetLatency || size == min) {
+            return;
+        }
+        lastDecrease = now;
+        size = Math.max(min, size / 2);
+        log.debug("Batch size is decreased to {} due to {}", size, reason);
+    }
+}
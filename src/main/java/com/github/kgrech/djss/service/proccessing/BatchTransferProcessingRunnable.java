@@ -0,0 +1,188 @@
+package com.github.kgrech.djss.service.proccessing;
+
+import static com.github.kgrech.djss.jooq.MinorUnits.ACCOUNT_AMOUNT;
+import static com.github.kgrech.djss.jooq.Tables.ACCOUNT;
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER;
+import static org.jooq.impl.DSL.castNull;
+
+import com.github.kgrech.djss.exception.LeaseExpiredException;
+import com.github.kgrech.djss.jooq.MinorUnits;
+import com.github.kgrech.djss.jooq.RowVersion;
+import com.github.kgrech.djss.jooq.TransferStatus;
+import com.github.kgrech.djss.service.MinorUnitsTransfer;
+import com.github.kgrech.djss.service.TransferListener;
+import com.github.kgrech.djss.service.ledger.AccountBalances;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.BatchBindStep;
+import org.jooq.DSLContext;
+import org.jooq.Record2;
+
+/**
+ * Processes all the transfers of the processing in one transaction: balances
+ * of all the accounts are fetched by one query, the transfers are applied
+ * in memory in id order and then the net balance change of every account and
+ * all the statuses are written by two batch statements.
+ *
+ * A transfer which can't be applied gets ERROR or REJECTED status without
+ * affecting other transfers of the batch. If the batch can't be written,
+ * the transfers are processed one by one as {@link TransferProcessingRunnable} does.
+ */
+@Slf4j
+public class BatchTransferProcessingRunnable extends TransferProcessingRunnable {
+
+    public BatchTransferProcessingRunnable(DSLContext ctx, String processingId) {
+        super(ctx, processingId);
+    }
+
+    public BatchTransferProcessingRunnable(DSLContext ctx, String processingId,
+                                           TransferListener listener) {
+        super(ctx, processingId, listener);
+    }
+
+    public BatchTransferProcessingRunnable(DSLContext ctx, String processingId,
+                                           TransferListener listener,
+                                           Lease lease) {
+        super(ctx, processingId, listener, lease);
+    }
+
+    @Override
+    public void run() {
+        List<MinorUnitsTransfer> transfers;
+        try {
+            log.debug("Staring processing {}", processingId);
+            transfers = fetchTransfers();
+            log.debug("Processing {} includes {} transfers", processingId, transfers.size());
+        } catch (RuntimeException e) {
+            log.error("Error processing transfer {}",
+                    processingId, e);
+            return;
+        }
+        if (transfers.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            processBatch(transfers);
+            ProcessingMetrics.BATCH_DURATION.recordSince(start);
+        } catch (RuntimeException e) {
+            log.warn("Can't process {} as a batch, processing transfers one by one",
+                    processingId, e);
+            super.run();
+            return;
+        }
+        transfers.forEach(t -> listener.transferProcessed(t.getTransfer()));
+    }
+
+    /**
+     * Processes the transfers in one transaction and sets their final statuses
+     * @throws LeaseExpiredException if any of the transfers is reclaimed,
+     *                               nothing is changed then
+     */
+    public void processBatch(List<MinorUnitsTransfer> transfers) {
+        lease.renew();
+        ctx.transaction(() -> {
+            Set<Integer> accountIds = new TreeSet<>();
+            for (MinorUnitsTransfer transfer : transfers) {
+                accountIds.add(transfer.getSenderAccountId());
+                accountIds.add(transfer.getReceiverAccountId());
+            }
+            AccountBalances balances = fetchAmounts(accountIds);
+            AccountBalances deltas = new AccountBalances(accountIds.size());
+
+            Timestamp now = new Timestamp(new java.util.Date().getTime());
+            BatchBindStep statuses = ctx.batch(ctx.update(TRANSFER)
+                    .set(TRANSFER.STATUS, (TransferStatus) null)
+                    .set(TRANSFER.PROCESSING_END, (Timestamp) null)
+                    .set(TRANSFER.LEASE_EXPIRY, castNull(TRANSFER.LEASE_EXPIRY))
+                    .set(TRANSFER.VERSION, RowVersion.NEXT_TRANSFER)
+                    .where(TRANSFER.ID.eq((Integer) null))
+                    .and(TRANSFER.PROCESSING_ID.eq((String) null)));
+            for (MinorUnitsTransfer transfer : transfers) {
+                TransferStatus status = applyTransfer(transfer, balances, deltas);
+                transfer.getTransfer().setStatus(status);
+                statuses.bind(status, now, transfer.getId(), processingId);
+            }
+
+            BatchBindStep amounts = ctx.batch(ctx.update(ACCOUNT)
+                    .set(ACCOUNT_AMOUNT, ACCOUNT_AMOUNT.add((Long) null))
+                    .set(ACCOUNT.VERSION, RowVersion.NEXT_ACCOUNT)
+                    .where(ACCOUNT.ID.eq((Integer) null)));
+            int[] numAmounts = new int[1];
+            deltas.drain((accountId, delta) -> {
+                if (delta != 0) {
+                    amounts.bind(delta, accountId);
+                    numAmounts[0]++;
+                }
+            });
+            if (numAmounts[0] > 0) {
+                amounts.execute();
+            }
+            for (int updated : statuses.execute()) {
+                if (updated == 0) {
+                    throw new LeaseExpiredException("Transfers of " + processingId
+                            + " are reclaimed");
+                }
+            }
+        });
+    }
+
+    /**
+     * Fetches and locks the balances of the accounts in minor units
+     */
+    public AccountBalances fetchAmounts(Collection<Integer> accountIds) {
+        AccountBalances balances = new AccountBalances(accountIds.size());
+        for (Record2<Integer, Long> account : ctx
+                .select(ACCOUNT.ID, ACCOUNT_AMOUNT)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.in(accountIds))
+                .orderBy(ACCOUNT.ID)
+                .forUpdate()
+                .fetch()) {
+            if (account.value2() != null) {
+                balances.put(account.value1(), account.value2());
+            }
+        }
+        return balances;
+    }
+
+    private TransferStatus applyTransfer(MinorUnitsTransfer transfer,
+                                         AccountBalances balances,
+                                         AccountBalances deltas) {
+        int senderId = transfer.getSenderAccountId();
+        int receiverId = transfer.getReceiverAccountId();
+        long amount = transfer.getAmount();
+        if (!transfer.hasAmount()
+                || !balances.contains(senderId)
+                || !balances.contains(receiverId)) {
+            log.error("Error appears during processing transfer {}. " +
+                            "Can't transfer {}$ from account {} " +
+                            "to account {}!",
+                    transfer.getId(), MinorUnits.toAmount(amount),
+                    senderId, receiverId);
+            return TransferStatus.ERROR;
+        }
+
+        long senderAmount = balances.get(senderId);
+        if (senderAmount >= amount) {
+            balances.add(senderId, -amount);
+            balances.add(receiverId, amount);
+            deltas.add(senderId, -amount);
+            deltas.add(receiverId, amount);
+            log.info("Transfer {} complete!", transfer.getId());
+            return TransferStatus.COMPLETED;
+        }
+
+        log.info("Can't perform transfer {}. Can't transfer {}$ " +
+                        "from account {} to account {}! " +
+                        "Reason: account balance is too low: {}$",
+                transfer.getId(), MinorUnits.toAmount(amount), senderId,
+                receiverId, MinorUnits.toAmount(senderAmount));
+        return TransferStatus.REJECTED;
+    }
+}
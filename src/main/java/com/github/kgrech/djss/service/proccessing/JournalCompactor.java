@@ -0,0 +1,33 @@
+package com.github.kgrech.djss.service.proccessing;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+
+/**
+ * Rolls the journal entries into the balance snapshots,
+ * so the balance queries sum only the recent entries
+ */
+@Slf4j
+public class JournalCompactor implements Runnable {
+
+    private final DSLContext ctx;
+    private final AccountJournal journal;
+
+    public JournalCompactor(DSLContext ctx, AccountJournal journal) {
+        this.ctx = ctx;
+        this.journal = journal;
+    }
+
+    @Override
+    public void run() {
+        try {
+            int compacted = journal.compactAll(ctx);
+            if (compacted > 0) {
+                ProcessingMetrics.JOURNAL_COMPACTED.inc(compacted);
+                log.debug("{} journal entries are compacted", compacted);
+            }
+        } catch (RuntimeException e) {
+            log.error("Error compacting the journal", e);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.github.kgrech.djss.service.proccessing;
+
+import com.github.kgrech.djss.service.MinorUnitsTransfer;
+import com.github.kgrech.djss.service.TransferListener;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+
+/**
+ * Routes the transfers of the processing to the lanes of their accounts,
+ * every transfer is then processed in its own transaction as
+ * {@link TransferProcessingRunnable} does
+ */
+@Slf4j
+public class LaneTransferProcessingRunnable extends TransferProcessingRunnable {
+
+    private final ProcessingLanes lanes;
+    private LongConsumer batchProcessed = latency -> { };
+
+    public LaneTransferProcessingRunnable(DSLContext ctx, String processingId,
+                                          ProcessingLanes lanes,
+                                          TransferListener listener) {
+        this(ctx, processingId, lanes, listener, Lease.NONE);
+    }
+
+    public LaneTransferProcessingRunnable(DSLContext ctx, String processingId,
+                                          ProcessingLanes lanes,
+                                          TransferListener listener,
+                                          Lease lease) {
+        this(ctx, processingId, lanes, listener, lease, null,
+                AccountStripes.NONE);
+    }
+
+    public LaneTransferProcessingRunnable(DSLContext ctx, String processingId,
+                                          ProcessingLanes lanes,
+                                          TransferListener listener,
+                                          Lease lease,
+                                          AccountJournal journal,
+                                          AccountStripes stripes) {
+        super(ctx, processingId, listener, lease, journal, stripes);
+        this.lanes = lanes;
+    }
+
+    /**
+     * Sets the listener of the processing time of the batch in nanoseconds.
+     * {@link #run()} only hands the transfers over to the lanes, so the time
+     * is reported once the lanes process the last transfer of the batch
+     */
+    public LaneTransferProcessingRunnable onBatchProcessed(LongConsumer listener) {
+        this.batchProcessed = listener;
+        return this;
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        try {
+            List<MinorUnitsTransfer> transfers = fetchTransfers();
+            log.debug("Processing {} includes {} transfers", processingId, transfers.size());
+            if (transfers.isEmpty()) {
+                batchProcessed.accept(System.nanoTime() - start);
+                return;
+            }
+            AtomicInteger remaining = new AtomicInteger(transfers.size());
+            for (MinorUnitsTransfer transfer : transfers) {
+                lanes.submit(transfer.getTransfer(), t -> {
+                    try {
+                        process(transfer);
+                    } finally {
+                        if (remaining.decrementAndGet() == 0) {
+                            batchProcessed.accept(System.nanoTime() - start);
+                        }
+                    }
+                });
+            }
+        } catch (RuntimeException e) {
+            log.error("Error processing transfer {}",
+                    processingId, e);
+        }
+    }
+}
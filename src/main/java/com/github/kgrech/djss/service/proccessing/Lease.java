@@ -0,0 +1,65 @@
+package com.github.kgrech.djss.service.proccessing;
+
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER;
+
+import com.github.kgrech.djss.jooq.TransferStatus;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.jooq.Query;
+
+/**
+ * Lease of the transfers claimed by one processing run
+ */
+@Slf4j
+public class Lease {
+
+    /**
+     * Lease which is never renewed
+     */
+    public static final Lease NONE = new Lease(null, null, null);
+
+    private final DSLContext ctx;
+    private final ProcessingNode node;
+    private final String processingId;
+    private final long renewInterval;
+    private volatile long renewed = System.nanoTime();
+
+    Lease(DSLContext ctx, ProcessingNode node, String processingId) {
+        this.ctx = ctx;
+        this.node = node;
+        this.processingId = processingId;
+        //Renew well before the expiry
+        this.renewInterval = node != null
+                ? TimeUnit.SECONDS.toNanos(node.getLeaseTime()) / 3
+                : 0;
+    }
+
+    /**
+     * Extends the lease of the transfers still in processing, if a third
+     * of the lease time has passed since the last renewal
+     */
+    public void renew() {
+        long now = System.nanoTime();
+        if (node == null || now - renewed < renewInterval) {
+            return;
+        }
+        renewed = now;
+        int renewedCount = renewQuery().execute();
+        log.debug("Lease of {} transfers of {} is renewed", renewedCount,
+                processingId);
+    }
+
+    /**
+     * The lease is not a part of the representation of the transfers,
+     * so the renewal keeps their versions
+     * @return query extending the lease
+     */
+    public Query renewQuery() {
+        return ctx.update(TRANSFER)
+                .set(TRANSFER.LEASE_EXPIRY, node.leaseExpiry())
+                .where(TRANSFER.PROCESSING_ID.eq(processingId))
+                .and(TRANSFER.STATUS.eq(TransferStatus.PROCESSING))
+                .and(TRANSFER.PROCESSING_NODE.eq(node.getId()));
+    }
+}
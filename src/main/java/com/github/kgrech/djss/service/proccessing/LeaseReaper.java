@@ -0,0 +1,44 @@
+package com.github.kgrech.djss.service.proccessing;
+
+import com.github.kgrech.djss.service.TransferListener;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+
+/**
+ * Moves the transfers with expired leases back to pending,
+ * so the transfers of the failed nodes are processed by the others
+ */
+@Slf4j
+public class LeaseReaper implements Runnable {
+
+    private final DSLContext ctx;
+    private final ProcessingNode node;
+    private final TransferListener listener;
+
+    /**
+     * Creates new instance
+     * @param listener listener notified about the reclaimed transfers
+     */
+    public LeaseReaper(DSLContext ctx, ProcessingNode node,
+                       TransferListener listener) {
+        this.ctx = ctx;
+        this.node = node;
+        this.listener = listener;
+    }
+
+    @Override
+    public void run() {
+        try {
+            int reclaimed = node.reclaimExpired(ctx);
+            if (reclaimed > 0) {
+                //The ids of the reclaimed transfers are not known
+                listener.transfersChanged(null);
+                ProcessingMetrics.LEASES_RECLAIMED.inc(reclaimed);
+                log.warn("{} transfers with expired leases are reclaimed",
+                        reclaimed);
+            }
+        } catch (RuntimeException e) {
+            log.error("Error reclaiming expired leases", e);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.github.kgrech.djss.service.proccessing;
+
+import com.github.kgrech.djss.service.MinorUnitsTransfer;
+import com.github.kgrech.djss.service.ledger.LedgerEngine;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+
+/**
+ * Hands the transfers of the processing over to the in-memory ledger
+ */
+@Slf4j
+public class LedgerProcessingRunnable extends TransferProcessingRunnable {
+
+    private final LedgerEngine engine;
+
+    public LedgerProcessingRunnable(DSLContext ctx, String processingId,
+                                    LedgerEngine engine) {
+        super(ctx, processingId);
+        this.engine = engine;
+    }
+
+    @Override
+    public void run() {
+        try {
+            List<MinorUnitsTransfer> transfers = fetchTransfers();
+            log.debug("Processing {} includes {} transfers", processingId, transfers.size());
+            transfers.forEach(engine::submit);
+        } catch (RuntimeException e) {
+            log.error("Error processing transfer {}",
+                    processingId, e);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.kgrech.djss.service.proccessing;
+
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Processes transfers in lanes keyed by account. Every lane has a single
+ * thread, a transfer is executed by the lane of its sender while holding
+ * the locks of both the sender and the receiver lanes. The locks are always
+ * taken in the order of lane index, so two transfers touching the same
+ * account never run concurrently and lanes can't deadlock.
+ */
+@Slf4j
+public class ProcessingLanes implements AutoCloseable {
+
+    private final ThreadPoolExecutor[] executors;
+    private final ReentrantLock[] locks;
+
+    public ProcessingLanes(int numLanes) {
+        this.executors = new ThreadPoolExecutor[numLanes];
+        this.locks = new ReentrantLock[numLanes];
+        for (int i = 0; i < numLanes; i++) {
+            executors[i] = new ThreadPoolExecutor(1, 1,
+                    0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>());
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Schedules the transfer to the lane of its sender
+     */
+    public void submit(Transfer transfer, Consumer<Transfer> processor) {
+        int senderLane = laneOf(transfer.getSenderAccountId());
+        int receiverLane = laneOf(transfer.getReceiverAccountId());
+        executors[senderLane].execute(() -> {
+            ReentrantLock first = locks[Math.min(senderLane, receiverLane)];
+            ReentrantLock second = locks[Math.max(senderLane, receiverLane)];
+            first.lock();
+            second.lock();
+            try {
+                processor.accept(transfer);
+            } catch (RuntimeException e) {
+                log.error("Error processing transfer {}", transfer.getId(), e);
+            } finally {
+                second.unlock();
+                first.unlock();
+            }
+        });
+    }
+
+    /**
+     * Returns total number of transfers waiting in the lanes
+     */
+    public int queueSize() {
+        int size = 0;
+        for (ThreadPoolExecutor executor : executors) {
+            size += executor.getQueue().size();
+        }
+        return size;
+    }
+
+    public int laneOf(int accountId) {
+        int h = accountId * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), executors.length);
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ThreadPoolExecutor executor : executors) {
+            long left = deadline - System.nanoTime();
+            if (!executor.awaitTermination(left, TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        for (ThreadPoolExecutor executor : executors) {
+            executor.shutdown();
+        }
+    }
+}
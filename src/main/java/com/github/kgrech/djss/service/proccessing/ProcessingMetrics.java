@@ -0,0 +1,70 @@
+package com.github.kgrech.djss.service.proccessing;
+
+import com.github.kgrech.djss.jooq.TransferStatus;
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer;
+import com.github.kgrech.djss.metrics.Counter;
+import com.github.kgrech.djss.metrics.Histogram;
+import com.github.kgrech.djss.metrics.MetricsRegistry;
+import com.github.kgrech.djss.service.TransferListener;
+
+/**
+ * Metrics of the dispensing and processing of the transfers
+ */
+public final class ProcessingMetrics {
+
+    private static final MetricsRegistry REGISTRY = MetricsRegistry.DEFAULT;
+
+    private static final double[] BATCH_BUCKETS = {1, 2, 5, 10, 20, 50, 100,
+            200, 500, 1000};
+
+    static final Histogram DISPENSE_DURATION = REGISTRY.latency(
+            "djss_dispense_duration_seconds",
+            "Duration of the dispensing cycles", "");
+    static final Histogram DISPENSE_SIZE = REGISTRY.histogram(
+            "djss_dispense_batch_size",
+            "Number of transfers claimed by the dispensing cycles", "",
+            BATCH_BUCKETS);
+    static final Counter DISPENSE_SKIPPED = REGISTRY.counter(
+            "djss_dispense_skipped_total",
+            "Dispensing cycles skipped because the processing queue is full",
+            "");
+    static final Counter LEASES_RECLAIMED = REGISTRY.counter(
+            "djss_leases_reclaimed_total",
+            "Transfers moved back to pending because their leases expired",
+            "");
+    static final Counter JOURNAL_COMPACTED = REGISTRY.counter(
+            "djss_journal_compacted_total",
+            "Journal entries rolled into the balance snapshots",
+            "");
+    static final Histogram TRANSFER_DURATION = REGISTRY.latency(
+            "djss_transfer_processing_duration_seconds",
+            "Processing time of a transfer in its own transaction", "");
+    static final Histogram BATCH_DURATION = REGISTRY.latency(
+            "djss_batch_processing_duration_seconds",
+            "Processing time of a batch of transfers in one transaction", "");
+
+    private static final Counter[] OUTCOMES =
+            new Counter[TransferStatus.values().length];
+
+    static {
+        for (TransferStatus status : TransferStatus.values()) {
+            OUTCOMES[status.ordinal()] = REGISTRY.counter(
+                    "djss_transfers_processed_total",
+                    "Processed transfers by the final status",
+                    MetricsRegistry.label("status", status.name()));
+        }
+    }
+
+    /**
+     * Counts the processed transfers by status in every processing mode
+     */
+    public static final TransferListener OUTCOME_LISTENER = new TransferListener() {
+        @Override
+        public void transferProcessed(Transfer transfer) {
+            OUTCOMES[transfer.getStatus().ordinal()].inc();
+        }
+    };
+
+    private ProcessingMetrics() {
+    }
+}
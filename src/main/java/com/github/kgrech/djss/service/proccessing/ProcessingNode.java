@@ -0,0 +1,123 @@
+package com.github.kgrech.djss.service.proccessing;
+
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER;
+import static org.jooq.impl.DSL.currentTimestamp;
+import static org.jooq.impl.DSL.inline;
+import static org.jooq.impl.DSL.timestampAdd;
+
+import com.github.kgrech.djss.jooq.RowVersion;
+import com.github.kgrech.djss.jooq.TransferStatus;
+import java.sql.Timestamp;
+import java.util.UUID;
+import lombok.Getter;
+import org.jooq.Condition;
+import org.jooq.DSLContext;
+import org.jooq.DatePart;
+import org.jooq.Field;
+import org.jooq.Query;
+
+/**
+ * Instance of the service processing the transfers. Several instances may
+ * share one database: the dispensing claims the transfers for the node
+ * with a lease, the node renews the lease while processing them and
+ * the expired leases of the failed nodes are reclaimed by the others.
+ * The leases expire by the database clock, so the clocks of the nodes
+ * don't have to be in sync.
+ */
+@Getter
+public class ProcessingNode {
+
+    public static final int DEFAULT_LEASE_TIME = 30;
+
+    private final String id;
+
+    /**
+     * Lease time in seconds
+     */
+    private final int leaseTime;
+
+    public ProcessingNode(String id, int leaseTime) {
+        this.id = id;
+        this.leaseTime = leaseTime;
+    }
+
+    /**
+     * Creates the node with a random id
+     */
+    public static ProcessingNode random() {
+        return new ProcessingNode(UUID.randomUUID().toString(),
+                DEFAULT_LEASE_TIME);
+    }
+
+    /**
+     * @return expiry of the lease taken now
+     */
+    public Field<Timestamp> leaseExpiry() {
+        return timestampAdd(currentTimestamp(), inline(leaseTime),
+                DatePart.SECOND);
+    }
+
+    /**
+     * @return lease of the transfers of the processing
+     */
+    public Lease lease(DSLContext ctx, String processingId) {
+        return new Lease(ctx, this, processingId);
+    }
+
+    /**
+     * Moves the transfers with expired leases back to pending
+     * @return number of reclaimed transfers
+     */
+    public int reclaimExpired(DSLContext ctx) {
+        return reclaimExpiredQuery(ctx).execute();
+    }
+
+    /**
+     * Only the transfers in processing hold a lease: the claim sets it and
+     * the final status or the release clears it. So the query ranges over
+     * the lease expiry only and uses its index
+     * @return query moving the transfers with expired leases back to pending
+     */
+    public Query reclaimExpiredQuery(DSLContext ctx) {
+        return releaseQuery(ctx, TRANSFER.LEASE_EXPIRY.lt(currentTimestamp()));
+    }
+
+    /**
+     * Moves the transfers claimed by this node back to pending. The previous
+     * run of the node never finishes them, so they are not waiting for
+     * the leases to expire
+     * @return number of released transfers
+     */
+    public int releaseOwn(DSLContext ctx) {
+        return releaseOwnQuery(ctx).execute();
+    }
+
+    /**
+     * @return query moving the transfers claimed by this node back to pending
+     */
+    public Query releaseOwnQuery(DSLContext ctx) {
+        return releaseQuery(ctx, TRANSFER.STATUS.eq(TransferStatus.PROCESSING)
+                .and(TRANSFER.PROCESSING_NODE.eq(id)));
+    }
+
+    /**
+     * Moves all the transfers in processing back to pending,
+     * used when the node is the only one
+     * @return number of released transfers
+     */
+    public int releaseAll(DSLContext ctx) {
+        return releaseQuery(ctx, TRANSFER.STATUS.eq(TransferStatus.PROCESSING))
+                .execute();
+    }
+
+    private Query releaseQuery(DSLContext ctx, Condition condition) {
+        return ctx.update(TRANSFER)
+                .set(TRANSFER.STATUS, TransferStatus.PENDING)
+                .set(TRANSFER.PROCESSING_ID, (String) null)
+                .set(TRANSFER.PROCESSING_NODE, (String) null)
+                .set(TRANSFER.PROCESSING_START, (Timestamp) null)
+                .set(TRANSFER.LEASE_EXPIRY, (Timestamp) null)
+                .set(TRANSFER.VERSION, RowVersion.NEXT_TRANSFER)
+                .where(condition);
+    }
+}
@@ -3,60 +3,156 @@ package com.github.kgrech.djss.service.proccessing;
 import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER;
 import static org.jooq.impl.DSL.select;
 
+import com.github.kgrech.djss.jooq.RowVersion;
 import com.github.kgrech.djss.jooq.TransferStatus;
+import com.github.kgrech.djss.service.TransferListener;
 import com.github.kgrech.djss.service.TransferProcessingScheduler;
 import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 import lombok.extern.slf4j.Slf4j;
 import org.jooq.DSLContext;
+import org.jooq.Query;
 
 @Slf4j
 public class TransferDispensingRunnable implements Runnable {
 
     private final DSLContext ctx;
     private final TransferProcessingScheduler scheduler;
-    private final int batchSize;
+    private final AdaptiveBatchSize batchSize;
     private final int maxQueueSize;
-
+    private final ProcessingNode node;
+    private final TransferListener listener;
 
     public TransferDispensingRunnable(DSLContext ctx,
                                       int batchSize,
                                       int maxQueueSize,
                                       TransferProcessingScheduler scheduler) {
+        this(ctx, AdaptiveBatchSize.fixed(batchSize), maxQueueSize, scheduler);
+    }
+
+    public TransferDispensingRunnable(DSLContext ctx,
+                                      AdaptiveBatchSize batchSize,
+                                      int maxQueueSize,
+                                      TransferProcessingScheduler scheduler) {
+        this(ctx, batchSize, maxQueueSize, scheduler, ProcessingNode.random());
+    }
+
+    public TransferDispensingRunnable(DSLContext ctx,
+                                      AdaptiveBatchSize batchSize,
+                                      int maxQueueSize,
+                                      TransferProcessingScheduler scheduler,
+                                      ProcessingNode node) {
+        this(ctx, batchSize, maxQueueSize, scheduler, node, TransferListener.NONE);
+    }
+
+    /**
+     * Creates new instance
+     * @param ctx jooq context
+     * @param batchSize number of transfers claimed by one dispensing
+     * @param maxQueueSize max number of batches waiting for processing
+     * @param scheduler scheduler of the claimed batches
+     * @param node node the transfers are claimed for
+     * @param listener listener notified about the claimed transfers
+     */
+    public TransferDispensingRunnable(DSLContext ctx,
+                                      AdaptiveBatchSize batchSize,
+                                      int maxQueueSize,
+                                      TransferProcessingScheduler scheduler,
+                                      ProcessingNode node,
+                                      TransferListener listener) {
+        this.node = node;
+        this.listener = listener;
         this.ctx = ctx;
         this.batchSize = batchSize;
         this.maxQueueSize = maxQueueSize;
         this.scheduler = scheduler;
     }
 
+    /**
+     * Dispenses one batch. With the adaptive batch size the dispensing
+     * continues while the batches are full and the queue has room,
+     * so the dispensing rate follows the backlog
+     */
     @Override
     public void run() {
+        if (!batchSize.isAdaptive()) {
+            dispense();
+            return;
+        }
+        int limit;
+        do {
+            limit = batchSize.get();
+        } while (dispense(limit) == limit
+                && !Thread.currentThread().isInterrupted());
+    }
+
+    /**
+     * Moves the next batch of pending transfers to processing and leases
+     * them to the node
+     * @return number of transfers dispensed
+     */
+    public int dispense() {
+        return dispense(batchSize.get());
+    }
+
+    private int dispense(int limit) {
         if (scheduler.queueSize() > maxQueueSize) {
+            ProcessingMetrics.DISPENSE_SKIPPED.inc();
+            batchSize.queueFull();
             log.debug("Number of pending jobs ({}) exceeds {}.",
-                    scheduler.queueSize(), batchSize);
-            return;
+                    scheduler.queueSize(), maxQueueSize);
+            return 0;
         }
         final String uuid = UUID.randomUUID().toString();
         final long now = new java.util.Date().getTime();
+        final long start = System.nanoTime();
         try {
-            //jooq does tot support update ... limit
-            ctx.transaction(() -> {
-                ctx.update(TRANSFER)
-                        .set(TRANSFER.PROCESSING_ID, uuid)
-                        .set(TRANSFER.PROCESSING_START, new Timestamp(now))
-                        .set(TRANSFER.STATUS, TransferStatus.PROCESSING)
-                        .where(TRANSFER.ID.in(
-                                select(TRANSFER.ID)
-                                        .from(TRANSFER)
-                                        .where(TRANSFER.STATUS.eq(TransferStatus.PENDING))
-                                        .orderBy(TRANSFER.ID)
-                                        .limit(batchSize)
-                                ))
-                        .execute();
+            List<Integer> claimed = ctx.transactionResult(() -> {
+                if (claimQuery(uuid, new Timestamp(now), limit).execute() == 0) {
+                    return Collections.<Integer>emptyList();
+                }
+                return ctx.select(TRANSFER.ID)
+                        .from(TRANSFER)
+                        .where(TRANSFER.PROCESSING_ID.eq(uuid))
+                        .fetch(TRANSFER.ID);
             });
-            scheduler.scheduleProcessing(uuid);
+            int dispensed = claimed.size();
+            ProcessingMetrics.DISPENSE_DURATION.recordSince(start);
+            ProcessingMetrics.DISPENSE_SIZE.record(dispensed);
+            if (dispensed > 0) {
+                //The claim changes the versions of the cached transfers
+                listener.transfersChanged(claimed);
+                scheduler.scheduleProcessing(uuid);
+            }
+            return dispensed;
         } catch (RuntimeException e) {
             log.error("Error scheduling new set of processing", e);
+            return 0;
         }
     }
+
+    /**
+     * @return query moving the next limit pending transfers to processing
+     */
+    public Query claimQuery(String processingId, Timestamp start, int limit) {
+        //jooq does tot support update ... limit
+        return ctx.update(TRANSFER)
+                .set(TRANSFER.PROCESSING_ID, processingId)
+                .set(TRANSFER.PROCESSING_START, start)
+                .set(TRANSFER.STATUS, TransferStatus.PROCESSING)
+                .set(TRANSFER.PROCESSING_NODE, node.getId())
+                .set(TRANSFER.LEASE_EXPIRY, node.leaseExpiry())
+                //Another node may claim the same transfers concurrently
+                .set(TRANSFER.VERSION, RowVersion.NEXT_TRANSFER)
+                .where(TRANSFER.STATUS.eq(TransferStatus.PENDING))
+                .and(TRANSFER.ID.in(
+                        select(TRANSFER.ID)
+                                .from(TRANSFER)
+                                .where(TRANSFER.STATUS.eq(TransferStatus.PENDING))
+                                .orderBy(TRANSFER.ID)
+                                .limit(limit)
+                ));
+    }
 }
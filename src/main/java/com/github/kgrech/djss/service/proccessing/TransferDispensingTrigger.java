@@ -0,0 +1,76 @@
+package com.github.kgrech.djss.service.proccessing;
+
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer;
+import com.github.kgrech.djss.service.TransferListener;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs dispensing as soon as a full batch of new transfers is created or
+ * when the linger time since the first not dispensed transfer expires.
+ * Dispensing is executed by the dispensing scheduler, so it never runs
+ * concurrently with the periodic dispensing.
+ */
+@Slf4j
+public class TransferDispensingTrigger implements TransferListener {
+
+    private final TransferDispensingRunnable dispensingRunnable;
+    private final ScheduledExecutorService scheduler;
+    private final IntSupplier batchSize;
+    private final long linger;
+
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicBoolean lingering = new AtomicBoolean();
+
+    /**
+     * Creates new instance
+     * @param dispensingRunnable runnable to trigger
+     * @param scheduler dispensing scheduler
+     * @param batchSize the size of one batch of transactions to process
+     * @param linger max delay of the dispensing in milliseconds
+     */
+    public TransferDispensingTrigger(TransferDispensingRunnable dispensingRunnable,
+                                     ScheduledExecutorService scheduler,
+                                     int batchSize, long linger) {
+        this(dispensingRunnable, scheduler, () -> batchSize, linger);
+    }
+
+    /**
+     * Creates new instance
+     * @param dispensingRunnable runnable to trigger
+     * @param scheduler dispensing scheduler
+     * @param batchSize the current size of one batch, it may change
+     * @param linger max delay of the dispensing in milliseconds
+     */
+    public TransferDispensingTrigger(TransferDispensingRunnable dispensingRunnable,
+                                     ScheduledExecutorService scheduler,
+                                     IntSupplier batchSize, long linger) {
+        this.dispensingRunnable = dispensingRunnable;
+        this.scheduler = scheduler;
+        this.batchSize = batchSize;
+        this.linger = linger;
+    }
+
+    @Override
+    public void transferCreated(Transfer transfer) {
+        if (created.incrementAndGet() >= batchSize.getAsInt()) {
+            created.set(0);
+            scheduler.execute(this::dispense);
+        } else if (lingering.compareAndSet(false, true)) {
+            scheduler.schedule(this::dispense, linger, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void dispense() {
+        lingering.set(false);
+        created.set(0);
+        //Keep going while there are full batches to dispense
+        while (dispensingRunnable.dispense() == batchSize.getAsInt()) {
+            log.debug("Full batch is dispensed, dispensing the next one");
+        }
+    }
+}
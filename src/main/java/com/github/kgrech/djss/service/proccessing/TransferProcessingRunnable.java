@@ -1,51 +1,94 @@
 package com.github.kgrech.djss.service.proccessing;
 
+import static com.github.kgrech.djss.jooq.MinorUnits.ACCOUNT_AMOUNT;
 import static com.github.kgrech.djss.jooq.Tables.ACCOUNT;
 import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER;
+import static org.jooq.impl.DSL.castNull;
 
+import com.github.kgrech.djss.exception.LeaseExpiredException;
+import com.github.kgrech.djss.jooq.MinorUnits;
+import com.github.kgrech.djss.jooq.RowVersion;
 import com.github.kgrech.djss.jooq.TransferStatus;
-import com.github.kgrech.djss.jooq.tables.pojos.Transfer;
+import com.github.kgrech.djss.service.MinorUnitsTransfer;
+import com.github.kgrech.djss.service.TransferListener;
 import java.sql.Timestamp;
 import java.util.List;
 import lombok.extern.slf4j.Slf4j;
 import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.ResultQuery;
 
 @Slf4j
 public class TransferProcessingRunnable implements Runnable {
 
-    private final DSLContext ctx;
-    private final String processingId;
+    protected final DSLContext ctx;
+    protected final String processingId;
+    protected final TransferListener listener;
+    protected final Lease lease;
+    protected final AccountJournal journal;
+    protected final AccountStripes stripes;
 
     public TransferProcessingRunnable(DSLContext ctx, String processingId) {
+        this(ctx, processingId, TransferListener.NONE);
+    }
+
+    public TransferProcessingRunnable(DSLContext ctx, String processingId,
+                                      TransferListener listener) {
+        this(ctx, processingId, listener, Lease.NONE);
+    }
+
+    public TransferProcessingRunnable(DSLContext ctx, String processingId,
+                                      TransferListener listener, Lease lease) {
+        this(ctx, processingId, listener, lease, null);
+    }
+
+    /**
+     * Creates new instance
+     * @param ctx jooq context
+     * @param processingId id of the processing
+     * @param listener listener of the processed transfers
+     * @param lease lease of the transfers
+     * @param journal journal the balance changes are appended to,
+     *                null to update the balances in place
+     */
+    public TransferProcessingRunnable(DSLContext ctx, String processingId,
+                                      TransferListener listener, Lease lease,
+                                      AccountJournal journal) {
+        this(ctx, processingId, listener, lease, journal, AccountStripes.NONE);
+    }
+
+    /**
+     * Creates new instance
+     * @param ctx jooq context
+     * @param processingId id of the processing
+     * @param listener listener of the processed transfers
+     * @param lease lease of the transfers
+     * @param journal journal the balance changes are appended to,
+     *                null to update the balances in place
+     * @param stripes accounts with the balance spread over several rows,
+     *                used when the balances are updated in place
+     */
+    public TransferProcessingRunnable(DSLContext ctx, String processingId,
+                                      TransferListener listener, Lease lease,
+                                      AccountJournal journal,
+                                      AccountStripes stripes) {
         this.ctx = ctx;
         this.processingId = processingId;
+        this.listener = listener;
+        this.lease = lease;
+        this.journal = journal;
+        this.stripes = stripes;
     }
 
     @Override
     public void run() {
         try {
             log.debug("Staring processing {}", processingId);
-            List<Transfer> transfers = fetchTransfers();
+            List<MinorUnitsTransfer> transfers = fetchTransfers();
             log.debug("Processing {} includes {} transfers", processingId, transfers.size());
 
-            for (Transfer transfer : transfers) {
-                ctx.transaction(() -> {
-                    TransferStatus status;
-
-                    try {
-                        status = processTransfer(transfer);
-                    } catch (RuntimeException e) {
-                        status = TransferStatus.ERROR;
-                        log.error("Error appears during processing transfer {}. " +
-                                        "Can't transfer {}$ from account {} " +
-                                        "to account {}!",
-                                transfer.getId(), transfer.getAmount(),
-                                transfer.getSenderAccountId(),
-                                transfer.getSenderAccountId(), e);
-                    }
-
-                    updateStatus(transfer.getId(), status);
-                });
+            for (MinorUnitsTransfer transfer : transfers) {
+                process(transfer);
             }
         } catch (RuntimeException e) {
             log.error("Error processing transfer {}",
@@ -53,28 +96,75 @@ public class TransferProcessingRunnable implements Runnable {
         }
     }
 
-    public List<Transfer> fetchTransfers() {
+    /**
+     * Processes the transfer and updates its status in one transaction.
+     * Nothing is changed if the transfer is reclaimed by another processing
+     * @throws LeaseExpiredException if the transfer is reclaimed
+     */
+    public void process(MinorUnitsTransfer transfer) {
+        lease.renew();
+        long start = System.nanoTime();
+        TransferStatus result = ctx.transactionResult(() -> {
+            TransferStatus status;
+
+            try {
+                status = processTransfer(transfer);
+            } catch (RuntimeException e) {
+                status = TransferStatus.ERROR;
+                log.error("Error appears during processing transfer {}. " +
+                                "Can't transfer {}$ from account {} " +
+                                "to account {}!",
+                        transfer.getId(), MinorUnits.toAmount(transfer.getAmount()),
+                        transfer.getSenderAccountId(),
+                        transfer.getSenderAccountId(), e);
+            }
+
+            if (updateStatus(transfer.getId(), status) == 0) {
+                throw new LeaseExpiredException("Transfer " + transfer.getId()
+                        + " is no longer claimed by " + processingId);
+            }
+            return status;
+        });
+        ProcessingMetrics.TRANSFER_DURATION.recordSince(start);
+        listener.transferProcessed(transfer.getTransfer().setStatus(result));
+    }
+
+    public List<MinorUnitsTransfer> fetchTransfers() {
+        return fetchTransfersQuery()
+                .fetch(MinorUnitsTransfer::of);
+    }
+
+    /**
+     * @return query selecting the transfers of the processing with their
+     *         amounts in minor units
+     */
+    public ResultQuery<Record> fetchTransfersQuery() {
         return ctx
-                .selectFrom(TRANSFER)
+                .select(TRANSFER.fields())
+                .select(MinorUnitsTransfer.AMOUNT)
+                .from(TRANSFER)
                 .where(
                         TRANSFER.PROCESSING_ID.eq(processingId)
                                 .and(TRANSFER.STATUS.eq(TransferStatus.PROCESSING))
                 )
-                .fetch()
-                .into(Transfer.class);
+                .orderBy(TRANSFER.ID);
     }
 
-    public TransferStatus processTransfer(Transfer transfer) {
+    public TransferStatus processTransfer(MinorUnitsTransfer transfer) {
         return ctx.transactionResult(() -> {
             log.debug("Processing transfer {}", transfer.getId());
+            if (!transfer.hasAmount()) {
+                throw new IllegalArgumentException("Transfer "
+                        + transfer.getId() + " has no amount");
+            }
 
-            Double senderAmount =
+            long amount = transfer.getAmount();
+            long senderAmount =
                     fetchAmount(transfer.getSenderAccountId());
 
-            if (senderAmount >= transfer.getAmount()) {
-                updateAmount(transfer.getAmount(),
-                        transfer.getSenderAccountId(),
-                        transfer.getReceiverAccountId());
+            if (senderAmount >= amount && updateAmount(amount,
+                    transfer.getSenderAccountId(),
+                    transfer.getReceiverAccountId())) {
                 log.info("Transfer {} complete!", transfer.getId());
                 return TransferStatus.COMPLETED;
             }
@@ -82,42 +172,81 @@ public class TransferProcessingRunnable implements Runnable {
             log.info("Can't perform transfer {}. Can't transfer {}$ " +
                             "from account {} to account {}! " +
                             "Reason: account balance is too low: {}$",
-                    transfer.getId(), transfer.getAmount(),
+                    transfer.getId(), MinorUnits.toAmount(amount),
                     transfer.getSenderAccountId(),
                     transfer.getSenderAccountId(),
-                    senderAmount);
+                    MinorUnits.toAmount(senderAmount));
             return TransferStatus.REJECTED;
         });
     }
 
-    public Double fetchAmount(int accountId) {
+    /**
+     * @return balance of the account in minor units
+     */
+    public long fetchAmount(int accountId) {
+        if (journal != null) {
+            return journal.lockBalance(ctx, accountId);
+        }
+        if (stripes.isStriped(accountId)) {
+            return stripes.balance(ctx, accountId);
+        }
         return ctx
-                .select(ACCOUNT.AMOUNT)
+                .select(ACCOUNT_AMOUNT)
                 .from(ACCOUNT)
                 .where(ACCOUNT.ID.eq(accountId))
                 .fetchOne()
                 .value1();
     }
 
-    public void updateAmount(double amount, int senderId, int receiverId) {
-        ctx.update(ACCOUNT)
-                .set(ACCOUNT.AMOUNT, ACCOUNT.AMOUNT.minus(amount))
-                .where(ACCOUNT.ID.eq(senderId))
-                .execute();
+    /**
+     * Moves the amount in minor units from the sender to the receiver
+     * @return false if the striped sender doesn't have the funds any more,
+     *         nothing is moved then
+     */
+    public boolean updateAmount(long amount, int senderId, int receiverId) {
+        if (journal != null) {
+            journal.append(ctx, amount, senderId, receiverId);
+            return true;
+        }
+        if (stripes.isStriped(senderId)) {
+            if (!stripes.debit(ctx, senderId, amount)) {
+                return false;
+            }
+        } else {
+            ctx.update(ACCOUNT)
+                    .set(ACCOUNT_AMOUNT, ACCOUNT_AMOUNT.minus(amount))
+                    .set(ACCOUNT.VERSION, RowVersion.NEXT_ACCOUNT)
+                    .where(ACCOUNT.ID.eq(senderId))
+                    .execute();
+        }
 
-        ctx.update(ACCOUNT)
-                .set(ACCOUNT.AMOUNT, ACCOUNT.AMOUNT.add(amount))
-                .where(ACCOUNT.ID.eq(receiverId))
-                .execute();
+        if (stripes.isStriped(receiverId)) {
+            stripes.credit(ctx, receiverId, amount);
+        } else {
+            ctx.update(ACCOUNT)
+                    .set(ACCOUNT_AMOUNT, ACCOUNT_AMOUNT.add(amount))
+                    .set(ACCOUNT.VERSION, RowVersion.NEXT_ACCOUNT)
+                    .where(ACCOUNT.ID.eq(receiverId))
+                    .execute();
+        }
+        return true;
     }
 
-    public void updateStatus(int id, TransferStatus status) {
+    /**
+     * Sets the final status of the transfer if it is still claimed by
+     * the processing
+     * @return number of updated transfers
+     */
+    public int updateStatus(int id, TransferStatus status) {
         long now = new java.util.Date().getTime();
 
-        ctx.update(TRANSFER)
+        return ctx.update(TRANSFER)
                 .set(TRANSFER.STATUS, status)
                 .set(TRANSFER.PROCESSING_END, new Timestamp(now))
+                .set(TRANSFER.LEASE_EXPIRY, castNull(TRANSFER.LEASE_EXPIRY))
+                .set(TRANSFER.VERSION, RowVersion.NEXT_TRANSFER)
                 .where(TRANSFER.ID.eq(id))
+                .and(TRANSFER.PROCESSING_ID.eq(processingId))
                 .execute();
     }
 }
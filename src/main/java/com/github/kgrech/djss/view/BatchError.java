@@ -0,0 +1,17 @@
+package com.github.kgrech.djss.view;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchError {
+
+    /**
+     * Zero based position of the item in the request
+     */
+    private long index;
+    private String message;
+}
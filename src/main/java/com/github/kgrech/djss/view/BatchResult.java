@@ -0,0 +1,37 @@
+package com.github.kgrech.djss.view;
+
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Data;
+
+@Data
+public class BatchResult {
+
+    private long created;
+    private long failed;
+
+    /**
+     * Ids of the created entities in the order of the request. The ids are
+     * allocated in blocks, so the consecutive ones are merged into ranges
+     */
+    private List<IdRange> ids = new ArrayList<>();
+
+    /**
+     * Errors of the failed items, limited to the first ones
+     */
+    private List<BatchError> errors = new ArrayList<>();
+
+    /**
+     * Adds the id of a created entity, extending the last range if it is
+     * the next one
+     */
+    public void addId(int id) {
+        IdRange last = ids.isEmpty() ? null : ids.get(ids.size() - 1);
+        if (last != null && last.getTo() != Integer.MAX_VALUE
+                && last.getTo() + 1 == id) {
+            last.setTo(id);
+        } else {
+            ids.add(new IdRange(id, id));
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.github.kgrech.djss.view;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CacheStatistics {
+
+    private String name;
+    private long size;
+    private long hits;
+    private long misses;
+    private long evictions;
+}
@@ -0,0 +1,17 @@
+package com.github.kgrech.djss.view;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Consecutive ids, both bounds are inclusive
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class IdRange {
+
+    private int from;
+    private int to;
+}
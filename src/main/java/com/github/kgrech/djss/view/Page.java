@@ -12,4 +12,15 @@ public class Page<T> {
 
     private List<T> content;
     private long total;
+
+    /**
+     * Id to pass as "after" param to get the next page,
+     * null if there is no next page
+     */
+    private Integer next;
+
+    public Page(List<T> content, long total) {
+        this.content = content;
+        this.total = total;
+    }
 }
@@ -0,0 +1,24 @@
+package com.github.kgrech.djss.view;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PoolStatistics {
+
+    private String name;
+    private int active;
+    private int idle;
+    private int maxActive;
+    private long acquired;
+    private long errors;
+
+    /**
+     * Total time spent waiting for connections in milliseconds
+     */
+    private long waitTime;
+    private long maxWaitTime;
+}
@@ -6,7 +6,6 @@ import spock.lang.Specification
 
 import static com.github.kgrech.djss.jooq.tables.Account.ACCOUNT
 import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER
-import static org.jooq.impl.DSL.defaultValue
 
 abstract class DBTest extends Specification {
 
@@ -16,12 +15,16 @@ abstract class DBTest extends Specification {
         DBTest.@app = app
     }
 
+    static App getApp() {
+        return app
+    }
+
     static DSLContext getCtx() {
         return app.getCtx()
     }
 
     def insertAccount(long id, String name, double amount) {
-        getCtx().insertInto(ACCOUNT)
+        getCtx().insertInto(ACCOUNT, ACCOUNT.ID, ACCOUNT.NAME, ACCOUNT.AMOUNT)
             .values(
                 id,
                 name,
@@ -35,16 +38,18 @@ abstract class DBTest extends Specification {
                        double to,
                        TransferStatus status = TransferStatus.PENDING,
                        String runId = null) {
-        getCtx().insertInto(TRANSFER)
+        getCtx().insertInto(TRANSFER,
+                    TRANSFER.SENDER_ACCOUNT_ID,
+                    TRANSFER.RECEIVER_ACCOUNT_ID,
+                    TRANSFER.STATUS,
+                    TRANSFER.AMOUNT,
+                    TRANSFER.PROCESSING_ID)
                 .values(
-                    defaultValue(TRANSFER.ID),
-                    from,
-                    to,
+                    from as Integer,
+                    to as Integer,
                     status,
                     amount,
-                    runId,
-                    null,
-                    null
+                    runId
                 )
                 .execute()
     }
@@ -2,4 +2,11 @@ package com.github.kgrech.djss
 
 abstract class RestAPITest extends DBTest {
 
+    def cleanup() {
+        //Rows are deleted bypassing the API, so cached totals and entities must be dropped
+        getApp().getAccountCounter().invalidate()
+        getApp().getTransferCounter().invalidate()
+        getApp().getAccountCache().invalidateAll()
+        getApp().getTransferCache().invalidateAll()
+    }
 }
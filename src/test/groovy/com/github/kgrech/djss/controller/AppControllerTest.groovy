@@ -1,14 +1,21 @@
 package com.github.kgrech.djss.controller
 
 import com.fasterxml.jackson.core.type.TypeReference
+import com.github.kgrech.djss.view.CacheStatistics
 import com.github.kgrech.djss.view.Page
+import com.github.kgrech.djss.view.PoolStatistics
 
+import static com.github.kgrech.djss.controller.CRUDController.AFTER
 import static com.github.kgrech.djss.controller.CRUDController.PAGE
 import static com.github.kgrech.djss.controller.CRUDController.PAGE_SZE
+import static com.github.kgrech.djss.jooq.tables.Account.ACCOUNT
+import static com.github.kgrech.djss.jooq.tables.AccountSlot.ACCOUNT_SLOT
+import static com.github.kgrech.djss.jooq.tables.LedgerEntry.LEDGER_ENTRY
 
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.github.kgrech.djss.RestAPITest
 import com.github.kgrech.djss.jooq.tables.pojos.Account
+import com.github.kgrech.djss.service.proccessing.AccountJournal
 import io.restassured.RestAssured
 
 class AppControllerTest extends RestAPITest   {
@@ -111,6 +118,46 @@ class AppControllerTest extends RestAPITest   {
         }
     }
 
+    def "Account keyset pagination should work"() {
+        setup:
+        int pageSize = 20
+        int total = 2 * pageSize + pageSize.intdiv(2)
+        for (i in 1..total) {
+            Account account = new Account()
+            account.setName("Test account $i")
+            account.setAmount(10000 + i)
+            RestAssured.given()
+                    .body(mapper.writeValueAsString(account))
+                    .post("/")
+        }
+
+        when:
+        List<Page<Account>> pages = []
+        Integer after = 0
+        while (after != null) {
+            def response = RestAssured.given()
+                    .param(AFTER, after)
+                    .param(PAGE_SZE, pageSize)
+                    .get("/")
+            Page<Account> page = mapper.readValue(
+                    response.body.asString(),
+                    new TypeReference<Page<Account>>() {}
+            )
+            pages << page
+            after = page.getNext()
+        }
+        def items = pages.collectMany { it.getContent() }
+
+        then:
+        pages.size() == 3
+        pages.every { it.getTotal() == total }
+        pages[-1].getContent().size() == pageSize.intdiv(2)
+        items.size() == total
+        for (int i in 1..total) {
+            items[i-1].getName() == "Test account $i"
+        }
+    }
+
     def 'Update account API should work'() {
         String name = 'Test account'
         double amount = 1000
@@ -144,6 +191,239 @@ class AppControllerTest extends RestAPITest   {
         respBody.getName() == newName
     }
 
+    def 'Updated account should not be served from the cache'() {
+        Account account = new Account()
+        account.setName('Test account')
+        account.setAmount(1000)
+        def response = RestAssured.given()
+                .body(mapper.writeValueAsString(account))
+                .post('/')
+        int id = mapper.readValue(response.body.asString(), Account.class).getId()
+        def cache = getApp().getAccountCache()
+
+        when:
+        RestAssured.given().get("/$id")
+        def hits = cache.stats().hitCount()
+        def cached = mapper.readValue(RestAssured.given().get("/$id").body.asString(),
+                Account.class)
+        account.setAmount(2000)
+        RestAssured.given()
+                .body(mapper.writeValueAsString(account))
+                .put("/$id")
+        def updated = mapper.readValue(RestAssured.given().get("/$id").body.asString(),
+                Account.class)
+
+        then:
+        cache.stats().hitCount() == hits + 1
+        cached.getAmount() == 1000
+        updated.getAmount() == 2000
+    }
+
+    def 'Unchanged account should be answered with 304'() {
+        Account account = new Account()
+        account.setName('Test account')
+        account.setAmount(1000)
+        def response = RestAssured.given()
+                .body(mapper.writeValueAsString(account))
+                .post('/')
+        int id = mapper.readValue(response.body.asString(), Account.class).getId()
+
+        when:
+        def first = RestAssured.given().get("/$id")
+        def etag = first.getHeader("ETag")
+        def notModified = RestAssured.given().header("If-None-Match", etag).get("/$id")
+        def pageTag = RestAssured.given().get("/").getHeader("ETag")
+        def pageNotModified = RestAssured.given().header("If-None-Match", pageTag).get("/")
+        account.setAmount(2000)
+        RestAssured.given()
+                .body(mapper.writeValueAsString(account))
+                .put("/$id")
+        def modified = RestAssured.given().header("If-None-Match", etag).get("/$id")
+        def pageModified = RestAssured.given().header("If-None-Match", pageTag).get("/")
+
+        then:
+        etag != null
+        notModified.getStatusCode() == 304
+        notModified.body.asByteArray().length == 0
+        pageNotModified.getStatusCode() == 304
+        modified.getStatusCode() == 200
+        modified.getHeader("ETag") != etag
+        mapper.readValue(modified.body.asString(), Account.class).getVersion() == 1
+        pageModified.getStatusCode() == 200
+        pageModified.getHeader("ETag") != pageTag
+    }
+
+    def 'Account ETag should follow the journal compaction'() {
+        Account account = new Account()
+        account.setName('Test account')
+        account.setAmount(1000)
+        def response = RestAssured.given()
+                .body(mapper.writeValueAsString(account))
+                .post('/')
+        int id = mapper.readValue(response.body.asString(), Account.class).getId()
+
+        getCtx().insertInto(LEDGER_ENTRY, LEDGER_ENTRY.ACCOUNT_ID, LEDGER_ENTRY.AMOUNT)
+                .values(id, 100L)
+                .execute()
+
+        when:
+        def etag = RestAssured.given().get("/$id").getHeader("ETag")
+        new AccountJournal(10, getApp().getEvents()).compact(getCtx())
+        def modified = RestAssured.given().header("If-None-Match", etag).get("/$id")
+
+        then:
+        modified.getStatusCode() == 200
+        modified.getHeader("ETag") != etag
+        def body = mapper.readValue(modified.body.asString(), Account.class)
+        body.getVersion() == 1
+        body.getAmount() == 1001
+    }
+
+    def 'Account page ETag should follow the journal and the slots'() {
+        insertAccount(1, 'Account 1', 1000)
+        insertAccount(2, 'Account 2', 1000)
+
+        when:
+        def etag = RestAssured.given().get('/').getHeader("ETag")
+        getCtx().insertInto(LEDGER_ENTRY, LEDGER_ENTRY.ACCOUNT_ID, LEDGER_ENTRY.AMOUNT)
+                .values(1, -100L)
+                .values(2, 100L)
+                .execute()
+        def journaled = RestAssured.given().header("If-None-Match", etag).get('/')
+        def journaledTag = journaled.getHeader("ETag")
+        getCtx().insertInto(ACCOUNT_SLOT, ACCOUNT_SLOT.ACCOUNT_ID, ACCOUNT_SLOT.SLOT,
+                ACCOUNT_SLOT.AMOUNT)
+                .values(2, 0, 100L)
+                .execute()
+        def striped = RestAssured.given().header("If-None-Match", journaledTag).get('/')
+
+        then:
+        journaled.getStatusCode() == 200
+        striped.getStatusCode() == 200
+        striped.getHeader("ETag") != journaledTag
+    }
+
+    def 'Account update with a stale ETag should be rejected with 409'() {
+        Account account = new Account()
+        account.setName('Test account')
+        account.setAmount(1000)
+        def response = RestAssured.given()
+                .body(mapper.writeValueAsString(account))
+                .post('/')
+        int id = mapper.readValue(response.body.asString(), Account.class).getId()
+
+        when:
+        def etag = RestAssured.given().get("/$id").getHeader("ETag")
+        account.setAmount(2000)
+        def first = RestAssured.given()
+                .header("If-Match", etag)
+                .body(mapper.writeValueAsString(account))
+                .put("/$id")
+        account.setAmount(3000)
+        def stale = RestAssured.given()
+                .header("If-Match", etag)
+                .body(mapper.writeValueAsString(account))
+                .put("/$id")
+        def malformed = RestAssured.given()
+                .header("If-Match", "1")
+                .body(mapper.writeValueAsString(account))
+                .put("/$id")
+        def current = RestAssured.given().get("/$id")
+
+        then:
+        first.getStatusCode() == 200
+        stale.getStatusCode() == 409
+        malformed.getStatusCode() == 400
+        mapper.readValue(current.body.asString(), Account.class).getAmount() == 2000
+    }
+
+    def 'Account amount should not be updated in ledger mode'() {
+        setup:
+        insertAccount(1, 'Test account', 1000)
+        def controller = new AccountController(getCtx(), getApp().getAccountCounter(),
+                getApp().getTransferCounter(), getApp().getAccountCache(),
+                getApp().getTransferCache(), true)
+        def amountUpdate = new Account()
+        amountUpdate.setName('Updated')
+        amountUpdate.setAmount(5000)
+        def nameUpdate = new Account()
+        nameUpdate.setName('Renamed')
+
+        when:
+        controller.update(1, amountUpdate, null)
+
+        then:
+        thrown(UnsupportedOperationException)
+
+        when:
+        def renamed = controller.update(1, nameUpdate, null)
+
+        then:
+        renamed.getName() == 'Renamed'
+        renamed.getAmount() == 1000
+        renamed.getVersion() == 1
+    }
+
+    def 'Connection pool statistics should be exposed'() {
+        when:
+        def response = RestAssured.given()
+                .get("http://localhost:8080$StatsController.BASE_URL/pools")
+
+        then:
+        response.getStatusCode() == 200
+        def stats = mapper.readValue(response.body.asString(),
+                new TypeReference<List<PoolStatistics>>() {})
+        stats*.name == ['default']
+        stats[0].getAcquired() > 0
+        stats[0].getMaxActive() == 30
+    }
+
+    def 'Route latency should be exposed as metrics'() {
+        setup:
+        RestAssured.given().get('/')
+
+        when:
+        def response = RestAssured.given()
+                .get("http://localhost:8080$MetricsController.BASE_URL")
+        def lines = response.body.asString().readLines()
+
+        then:
+        response.getStatusCode() == 200
+        response.getContentType().startsWith('text/plain')
+        lines.contains("# TYPE $JsonController.HTTP_LATENCY histogram".toString())
+        lines.any { it.startsWith(JsonController.HTTP_LATENCY +
+                '_count{route="GET /accounts/"}') && !it.endsWith(' 0') }
+    }
+
+    def 'Cache statistics should be exposed'() {
+        when:
+        def response = RestAssured.given()
+                .get("http://localhost:8080$StatsController.BASE_URL/caches")
+
+        then:
+        response.getStatusCode() == 200
+        def stats = mapper.readValue(response.body.asString(),
+                new TypeReference<List<CacheStatistics>>() {})
+        stats*.name == ['accounts', 'transfers']
+    }
+
+    def 'Accounts export should stream accounts in the id range'() {
+        setup:
+        (1..10).each { insertAccount(it, "Account $it", it * 100) }
+
+        when:
+        def response = RestAssured.given()
+                .param(ExportFilter.FROM_ID, 3)
+                .param(ExportFilter.TO_ID, 7)
+                .get('/export')
+        def accounts = response.body.asString().readLines()
+                .collect { mapper.readValue(it, Account.class) }
+
+        then:
+        response.getStatusCode() == 200
+        accounts*.getId() == (3..7).toList()
+    }
+
     def 'Update the not existing account should return 404'() {
         String name = 'Test account'
         double amount = 1000
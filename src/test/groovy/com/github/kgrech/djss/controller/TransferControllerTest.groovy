@@ -2,18 +2,27 @@ package com.github.kgrech.djss.controller
 
 import com.fasterxml.jackson.core.type.TypeReference
 import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory
 import com.github.kgrech.djss.RestAPITest
+import com.github.kgrech.djss.jooq.TransferStatus
 import com.github.kgrech.djss.jooq.tables.pojos.Transfer
-import com.github.kgrech.djss.jooq.tables.pojos.Transfer
+import com.github.kgrech.djss.service.TransferProcessingScheduler
+import com.github.kgrech.djss.service.proccessing.AdaptiveBatchSize
+import com.github.kgrech.djss.service.proccessing.ProcessingNode
+import com.github.kgrech.djss.service.proccessing.TransferDispensingRunnable
+import com.github.kgrech.djss.view.BatchResult
 import com.github.kgrech.djss.view.Page
 import io.restassured.RestAssured
 
+import static com.github.kgrech.djss.controller.CRUDController.AFTER
 import static com.github.kgrech.djss.controller.CRUDController.PAGE
 import static com.github.kgrech.djss.controller.CRUDController.PAGE_SZE
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER
 
 class TransferControllerTest extends RestAPITest   {
 
     final ObjectMapper mapper = new ObjectMapper()
+    final ObjectMapper cborMapper = new ObjectMapper(new CBORFactory())
 
     final int rId = 1
     final int sId = 2
@@ -103,6 +112,123 @@ class TransferControllerTest extends RestAPITest   {
         body.getReceiverAccountId() == rId
     }
 
+    def 'Unchanged transfer should be answered with 304'() {
+        def response = RestAssured.given()
+                .body(mapper.writeValueAsString(newTransfer()))
+                .post('/')
+        int id = mapper.readValue(response.body.asString(), Transfer.class).getId()
+
+        when:
+        def etag = RestAssured.given().get("/$id").getHeader("ETag")
+        def notModified = RestAssured.given()
+                .header("If-None-Match", "W/\"other\", " + etag)
+                .get("/$id")
+        RestAssured.given()
+                .body(mapper.writeValueAsString(newTransfer(sId, rId, 500)))
+                .put("/$id")
+        def modified = RestAssured.given().header("If-None-Match", etag).get("/$id")
+
+        then:
+        notModified.getStatusCode() == 304
+        modified.getStatusCode() == 200
+        modified.getHeader("ETag") != etag
+        mapper.readValue(modified.body.asString(), Transfer.class).getAmount() == 500
+    }
+
+    def 'Transfer ETag should follow the claims of the processing'() {
+        def response = RestAssured.given()
+                .body(mapper.writeValueAsString(newTransfer()))
+                .post('/')
+        int id = mapper.readValue(response.body.asString(), Transfer.class).getId()
+
+        when:
+        def etag = RestAssured.given().get("/$id").getHeader("ETag")
+        new TransferDispensingRunnable(getCtx(), AdaptiveBatchSize.fixed(10),
+                Integer.MAX_VALUE, Mock(TransferProcessingScheduler),
+                ProcessingNode.random(), getApp().getEvents()).dispense()
+        def modified = RestAssured.given().header("If-None-Match", etag).get("/$id")
+
+        then:
+        modified.getStatusCode() == 200
+        modified.getHeader("ETag") == 'W/"1"'
+        mapper.readValue(modified.body.asString(), Transfer.class).getStatus() ==
+                TransferStatus.PROCESSING
+    }
+
+    def 'Transfer update with a stale ETag should be rejected with 409'() {
+        def response = RestAssured.given()
+                .body(mapper.writeValueAsString(newTransfer()))
+                .post('/')
+        int id = mapper.readValue(response.body.asString(), Transfer.class).getId()
+
+        when:
+        def etag = RestAssured.given().get("/$id").getHeader("ETag")
+        def first = RestAssured.given()
+                .header("If-Match", etag)
+                .body(mapper.writeValueAsString(newTransfer(sId, rId, 500)))
+                .put("/$id")
+        def stale = RestAssured.given()
+                .header("If-Match", etag)
+                .body(mapper.writeValueAsString(newTransfer(sId, rId, 700)))
+                .put("/$id")
+        def any = RestAssured.given()
+                .header("If-Match", "*")
+                .body(mapper.writeValueAsString(newTransfer(sId, rId, 900)))
+                .put("/$id")
+
+        then:
+        first.getStatusCode() == 200
+        mapper.readValue(first.body.asString(), Transfer.class).getVersion() == 1
+        stale.getStatusCode() == 409
+        any.getStatusCode() == 200
+        mapper.readValue(any.body.asString(), Transfer.class).getAmount() == 900
+    }
+
+    def 'Processed transfers should be pushed to the events stream'() {
+        def response = RestAssured.given()
+                .body(mapper.writeValueAsString(newTransfer()))
+                .post('/')
+        def done = mapper.readValue(response.body.asString(), Transfer.class)
+        response = RestAssured.given()
+                .body(mapper.writeValueAsString(newTransfer()))
+                .post('/')
+        def pending = mapper.readValue(response.body.asString(), Transfer.class)
+        getCtx().update(TRANSFER)
+                .set(TRANSFER.STATUS, TransferStatus.COMPLETED)
+                .where(TRANSFER.ID.eq(done.getId()))
+                .execute()
+
+        when:
+        def connection = new URL("$RestAssured.baseURI/events?ids=${done.getId()},${pending.getId()}")
+                .openConnection() as HttpURLConnection
+        connection.setReadTimeout(5000)
+        def reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))
+        def first = nextEvent(reader)
+        getApp().getEvents().transferProcessed(pending.setStatus(TransferStatus.REJECTED))
+        def second = nextEvent(reader)
+        connection.disconnect()
+        def missing = RestAssured.given().get('/events')
+
+        then:
+        connection.getResponseCode() == 200
+        connection.getContentType() == TransferEventsController.TEXT_EVENT_STREAM
+        first.getId() == done.getId()
+        first.getStatus() == TransferStatus.COMPLETED
+        second.getId() == pending.getId()
+        second.getStatus() == TransferStatus.REJECTED
+        missing.getStatusCode() == 400
+    }
+
+    private Transfer nextEvent(BufferedReader reader) {
+        String line
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith('data: ')) {
+                return mapper.readValue(line.substring('data: '.length()), Transfer.class)
+            }
+        }
+        return null
+    }
+
     def "Transfer pagination should work"() {
         setup:
         int numPages = 10
@@ -148,6 +274,132 @@ class TransferControllerTest extends RestAPITest   {
         }
     }
 
+    def "Transfer keyset pagination should work"() {
+        setup:
+        int pageSize = 20
+        int total = 2 * pageSize + pageSize.intdiv(2)
+        for (i in 1..total) {
+            Transfer transfer = newTransfer(sId, rId, i)
+            RestAssured.given()
+                    .body(mapper.writeValueAsString(transfer))
+                    .post("/")
+        }
+
+        when:
+        List<Page<Transfer>> pages = []
+        Integer after = 0
+        while (after != null) {
+            def response = RestAssured.given()
+                    .param(AFTER, after)
+                    .param(PAGE_SZE, pageSize)
+                    .get("/")
+            Page<Transfer> page = mapper.readValue(
+                    response.body.asString(),
+                    new TypeReference<Page<Transfer>>() {}
+            )
+            pages << page
+            after = page.getNext()
+        }
+        def items = pages.collectMany { it.getContent() }
+
+        then:
+        pages.size() == 3
+        pages.every { it.getTotal() == total }
+        pages[-1].getContent().size() == pageSize.intdiv(2)
+        items.size() == total
+        for (int i in 1..total) {
+            (int) items[i-1].getAmount() == i
+        }
+    }
+
+    def 'Transfers batch API should create transfers from JSON array'() {
+        setup:
+        int total = 12
+        def transfers = (1..total).collect { newTransfer(sId, rId, it) }
+
+        when:
+        def response = RestAssured.given()
+                .body(mapper.writeValueAsString(transfers))
+                .post('/batch')
+        def result = mapper.readValue(response.body.asString(), BatchResult.class)
+        def ids = result.getIds().collectMany { (it.getFrom()..it.getTo()).toList() }
+        def created = ids.collect {
+            mapper.readValue(RestAssured.given().get("/$it").body.asString(),
+                    Transfer.class)
+        }
+
+        then:
+        response.getStatusCode() == 200
+        result.getCreated() == total
+        result.getFailed() == 0
+        ids.toSet().size() == total
+        result.getIds().size() < total
+        created*.getAmount() == (1..total).collect { (double) it }
+        created.every { it.getStatus() != null }
+    }
+
+    def 'Transfers batch API should report invalid items of NDJSON body'() {
+        setup:
+        def body = [
+                mapper.writeValueAsString(newTransfer()),
+                '{"senderAccountId": 2, "receiverAccountId": 1}',
+                '{"senderAccountId": 2, "receiverAccountId": 100, "amount": 5}',
+                '{"senderAccountId": 2, "receiverAccountId": 1, "amount": "abc"}',
+                mapper.writeValueAsString(newTransfer(rId, sId, 20))
+        ].join('\n')
+
+        when:
+        def response = RestAssured.given()
+                .body(body)
+                .post('/batch')
+        def result = mapper.readValue(response.body.asString(), BatchResult.class)
+
+        then:
+        response.getStatusCode() == 200
+        result.getCreated() == 2
+        result.getIds().sum { it.getTo() - it.getFrom() + 1 } == 2
+        result.getFailed() == 3
+        result.getErrors()*.getIndex().toSet() == [1L, 2L, 3L].toSet()
+    }
+
+    def 'Transfers export should stream filtered transfers as NDJSON'() {
+        setup:
+        (1..5).each { insertTransfer(it, sId, rId, TransferStatus.COMPLETED) }
+        (6..8).each { insertTransfer(it, sId, rId, TransferStatus.PENDING) }
+
+        when:
+        def all = RestAssured.given().get('/export')
+        def completed = RestAssured.given()
+                .param(ExportFilter.STATUS, 'completed')
+                .get('/export')
+        def allLines = all.body.asString().readLines()
+                .collect { mapper.readValue(it, Transfer.class) }
+        def completedLines = completed.body.asString().readLines()
+                .collect { mapper.readValue(it, Transfer.class) }
+        def range = RestAssured.given()
+                .param(ExportFilter.FROM_ID, allLines[1].getId())
+                .param(ExportFilter.TO_ID, allLines[3].getId())
+                .get('/export')
+                .body.asString().readLines()
+
+        then:
+        all.getStatusCode() == 200
+        all.getContentType() == JsonController.APPLICATION_NDJSON
+        allLines*.getAmount() == (1..8).collect { (double) it }
+        completedLines*.getAmount() == (1..5).collect { (double) it }
+        range.size() == 3
+    }
+
+    def 'Transfers export should reject unknown status'() {
+        when:
+        def response = RestAssured.given()
+                .param(ExportFilter.STATUS, 'unknown')
+                .get('/export')
+
+        then:
+        response.getStatusCode() == 400
+    }
+
     def 'Update transfer API should work'() {
         def transfer = newTransfer()
 
@@ -212,4 +464,40 @@ class TransferControllerTest extends RestAPITest   {
 
 
 
+
+    def 'Transfer API should negotiate CBOR'() {
+        setup:
+        def transfer = newTransfer()
+
+        when:
+        def response = RestAssured.given()
+                .contentType(WireFormat.CBOR.getMediaType())
+                .accept(WireFormat.CBOR.getMediaType())
+                .body(cborMapper.writeValueAsBytes(transfer))
+                .post("/")
+
+        then:
+        response.getStatusCode() == 201
+        response.getContentType() == WireFormat.CBOR.getMediaType()
+        def body = cborMapper.readValue(response.body.asByteArray(), Transfer.class)
+        body.getAmount() == amount
+        body.getSenderAccountId() == sId
+
+        when:
+        def page = RestAssured.given()
+                .accept("application/cbor;q=1, application/json;q=0.5")
+                .get("/")
+        def json = RestAssured.given().get("/")
+        def preferred = RestAssured.given()
+                .accept("application/json;q=0.1, application/cbor")
+                .get("/")
+
+        then:
+        page.getContentType() == WireFormat.CBOR.getMediaType()
+        preferred.getContentType() == WireFormat.CBOR.getMediaType()
+        cborMapper.readValue(page.body.asByteArray(),
+                new TypeReference<Page<Transfer>>() {}).getContent()*.getId() == [body.getId()]
+        json.getContentType() == WireFormat.JSON.getMediaType()
+        page.body.asByteArray().length < json.body.asByteArray().length
+    }
 }
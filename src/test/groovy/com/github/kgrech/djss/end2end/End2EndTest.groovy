@@ -3,6 +3,7 @@ package com.github.kgrech.djss.end2end
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.github.kgrech.djss.DBTest
 import com.github.kgrech.djss.controller.AccountController
+import com.github.kgrech.djss.controller.MetricsController
 import com.github.kgrech.djss.controller.TransferController
 import com.github.kgrech.djss.jooq.TransferStatus
 import com.github.kgrech.djss.jooq.tables.pojos.Account
@@ -21,6 +22,9 @@ class End2EndTest extends DBTest {
         setup:
         def createdAcc1 = createAccount("Account 1", 1000)
         def createdAcc2 = createAccount("Account 2", 1000)
+        //Balances are cached before the transfer and must be refreshed after it
+        getAccount(createdAcc1.getId())
+        getAccount(createdAcc2.getId())
 
         when:
         Transfer transfer = createTransfer(createdAcc1.getId(), createdAcc2.getId(),
@@ -34,9 +38,14 @@ class End2EndTest extends DBTest {
         def updateAcc1 = getAccount(createdAcc1.getId())
         def updateAcc2 = getAccount(createdAcc2.getId())
 
+        def metrics = RestAssured.given().get(MetricsController.BASE_URL)
+                .body.asString().readLines()
+
         then:
             updateAcc1.getAmount() == 900
             updateAcc2.getAmount() == 1100
+            metrics.any { it.startsWith('djss_transfers_processed_total{status="COMPLETED"}') }
+            metrics.any { it.startsWith('djss_processing_queue_depth ') }
 
     }
 
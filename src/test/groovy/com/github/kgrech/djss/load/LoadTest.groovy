@@ -0,0 +1,218 @@
+package com.github.kgrech.djss.load
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.github.kgrech.djss.DBTest
+import com.github.kgrech.djss.controller.AccountController
+import com.github.kgrech.djss.controller.TransferController
+import com.github.kgrech.djss.jooq.TransferStatus
+import com.github.kgrech.djss.jooq.tables.pojos.Account
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer
+import com.github.kgrech.djss.service.ProcessingSettings
+import com.github.kgrech.djss.service.TransferListener
+import com.google.common.util.concurrent.RateLimiter
+import groovy.json.JsonOutput
+import spock.lang.Shared
+import spock.lang.Unroll
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Fires transfers over the rest API at the target rate and measures
+ * the throughput and the latency from the creation request to the
+ * processing for each combination of the processing settings.
+ * Configured by load.* system properties, the report is written to
+ * load.report file.
+ */
+class LoadTest extends DBTest {
+
+    static final String BASE_URL = "http://localhost:8080"
+
+    @Shared
+    ObjectMapper mapper = new ObjectMapper()
+
+    @Shared
+    int accounts = Integer.getInteger('load.accounts', 50)
+
+    @Shared
+    int transfers = Integer.getInteger('load.transfers', 1000)
+
+    @Shared
+    int rate = Integer.getInteger('load.rate', 500)
+
+    @Shared
+    int clients = Integer.getInteger('load.clients', 8)
+
+    @Shared
+    int timeout = Integer.getInteger('load.timeout', 120)
+
+    @Shared
+    List<Map> runs = []
+
+    def cleanupSpec() {
+        def report = new File(System.getProperty('load.report',
+                'build/reports/load/report.json'))
+        report.parentFile.mkdirs()
+        report.text = JsonOutput.prettyPrint(JsonOutput.toJson([
+                accounts : accounts,
+                transfers: transfers,
+                rate     : rate,
+                clients  : clients,
+                runs     : runs
+        ]))
+    }
+
+    @Unroll
+    def "Load with #threads threads, batch of #batch and #delay s delay"() {
+        setup:
+        ProcessingSettings settings = getApp().processingSettings().toBuilder()
+                .maxThreads(threads)
+                .batchSize(batch)
+                .delay(delay)
+                .build()
+        getApp().initProcessingService(settings)
+        List<Integer> ids = (1..accounts).collect { createAccount(it) }
+
+        when:
+        def run = load(ids)
+        run.threads = threads
+        run.batch = batch
+        run.delay = delay
+        runs << run
+
+        then:
+        run.errors == 0
+        run.completed + run.rejected == transfers
+
+        where:
+        [threads, batch, delay] << [
+                ints('load.threads', '2,8'),
+                ints('load.batch', '10,50'),
+                ints('load.delay', '1')
+        ].combinations()
+    }
+
+    private Map load(List<Integer> accountIds) {
+        ConcurrentMap<Integer, Long> sent = new ConcurrentHashMap<>()
+        ConcurrentMap<Integer, Long> processed = new ConcurrentHashMap<>()
+        AtomicInteger completed = new AtomicInteger()
+        AtomicInteger rejected = new AtomicInteger()
+        TransferListener listener = new TransferListener() {
+            @Override
+            void transferProcessed(Transfer transfer) {
+                processed.put(transfer.getId(), System.nanoTime())
+                if (transfer.getStatus() == TransferStatus.COMPLETED) {
+                    completed.incrementAndGet()
+                } else {
+                    rejected.incrementAndGet()
+                }
+            }
+        }
+        getApp().getEvents().addListener(listener)
+
+        RateLimiter limiter = RateLimiter.create(rate)
+        AtomicInteger next = new AtomicInteger()
+        AtomicInteger errors = new AtomicInteger()
+        ExecutorService executor = Executors.newFixedThreadPool(clients)
+        long start = System.nanoTime()
+        clients.times {
+            executor.submit {
+                while (next.getAndIncrement() < transfers) {
+                    limiter.acquire()
+                    long time = System.nanoTime()
+                    Integer id = createTransfer(accountIds)
+                    if (id != null) {
+                        sent.put(id, time)
+                    } else {
+                        errors.incrementAndGet()
+                    }
+                }
+            }
+        }
+        executor.shutdown()
+        executor.awaitTermination(timeout, TimeUnit.SECONDS)
+        long submitted = System.nanoTime()
+
+        long deadline = submitted + TimeUnit.SECONDS.toNanos(timeout)
+        while (!processed.keySet().containsAll(sent.keySet())
+                && System.nanoTime() < deadline) {
+            Thread.sleep(10)
+        }
+        getApp().getEvents().removeListener(listener)
+
+        long end = processed.values().max() ?: submitted
+        List<Double> latencies = sent.findResults { id, time ->
+            Long done = processed.get(id)
+            done != null ? (done - time) / 1_000_000d : null
+        }.sort()
+
+        return [
+                created         : sent.size(),
+                completed       : completed.get(),
+                rejected        : rejected.get(),
+                errors          : errors.get(),
+                submitSeconds   : (submitted - start) / 1e9d,
+                totalSeconds    : (end - start) / 1e9d,
+                submitRate      : sent.size() * 1e9d / (submitted - start),
+                throughput      : (completed.get() + rejected.get()) * 1e9d / (end - start),
+                latencyMillis   : [
+                        p50: percentile(latencies, 0.5),
+                        p90: percentile(latencies, 0.9),
+                        p99: percentile(latencies, 0.99),
+                        max: latencies ? latencies.last() : null
+                ]
+        ]
+    }
+
+    private static Double percentile(List<Double> sorted, double p) {
+        if (sorted.isEmpty()) {
+            return null
+        }
+        return sorted[Math.max(0, (int) Math.ceil(p * sorted.size()) - 1)]
+    }
+
+    private static List<Integer> ints(String property, String defaultValue) {
+        return System.getProperty(property, defaultValue).tokenize(',')
+                .collect { it.trim() as int }
+    }
+
+    private int createAccount(int i) {
+        def account = new Account()
+                .setName("Account $i".toString())
+                .setAmount(1_000_000_000d)
+        return mapper.readValue(post(AccountController.BASE_URL + '/',
+                mapper.writeValueAsString(account)), Account).getId()
+    }
+
+    private Integer createTransfer(List<Integer> accountIds) {
+        def random = ThreadLocalRandom.current()
+        int sender = random.nextInt(accountIds.size())
+        int receiver = (sender + 1 + random.nextInt(accountIds.size() - 1)) %
+                accountIds.size()
+        def transfer = new Transfer()
+                .setSenderAccountId(accountIds[sender])
+                .setReceiverAccountId(accountIds[receiver])
+                .setAmount(1 + random.nextInt(100) as double)
+        try {
+            def body = post(TransferController.BASE_URL + '/',
+                    mapper.writeValueAsString(transfer))
+            return mapper.readValue(body, Transfer).getId()
+        } catch (IOException ignored) {
+            return null
+        }
+    }
+
+    private static String post(String path, String body) {
+        def connection = (HttpURLConnection) new URL(BASE_URL + path)
+                .openConnection()
+        connection.requestMethod = 'POST'
+        connection.doOutput = true
+        connection.outputStream.withCloseable { it.write(body.getBytes('UTF-8')) }
+        return connection.inputStream.withCloseable { it.getText('UTF-8') }
+    }
+}
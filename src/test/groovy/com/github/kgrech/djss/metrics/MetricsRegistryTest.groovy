@@ -0,0 +1,69 @@
+package com.github.kgrech.djss.metrics
+
+import spock.lang.Specification
+
+class MetricsRegistryTest extends Specification {
+
+    def registry = new MetricsRegistry()
+
+    def "Histogram should be rendered with cumulative buckets"() {
+        setup:
+        def histogram = registry.histogram('test_size', 'Test sizes', '',
+                [1, 10, 100] as double[])
+
+        when:
+        [0, 1, 5, 10, 50, 1000].each { histogram.record(it) }
+        def lines = registry.render().readLines()
+
+        then:
+        lines.contains('# TYPE test_size histogram')
+        lines.contains('test_size_bucket{le="1"} 2')
+        lines.contains('test_size_bucket{le="10"} 4')
+        lines.contains('test_size_bucket{le="100"} 5')
+        lines.contains('test_size_bucket{le="+Inf"} 6')
+        lines.contains('test_size_sum 1066')
+        lines.contains('test_size_count 6')
+    }
+
+    def "Latency histogram should report seconds"() {
+        setup:
+        def latency = registry.latency('test_latency_seconds', 'Test latency',
+                MetricsRegistry.label('route', 'GET /'))
+
+        when:
+        latency.record(2_000_000)
+        def lines = registry.render().readLines()
+
+        then:
+        lines.contains('test_latency_seconds_bucket{route="GET /",le="0.001"} 0')
+        lines.contains('test_latency_seconds_bucket{route="GET /",le="0.0025"} 1')
+        lines.contains('test_latency_seconds_sum{route="GET /"} 0.002')
+    }
+
+    def "Registering the same metric should return the existing one"() {
+        setup:
+        def label = MetricsRegistry.label('status', 'OK')
+        registry.counter('test_total', 'Test counter', label).inc()
+
+        when:
+        registry.counter('test_total', 'Test counter', label).inc(2)
+
+        then:
+        registry.render().readLines().contains('test_total{status="OK"} 3')
+    }
+
+    def "Removed gauge should not be rendered"() {
+        setup:
+        def gauge = { 5d } as java.util.function.DoubleSupplier
+        registry.gauge('test_gauge', 'Test gauge', '', gauge)
+
+        when:
+        def before = registry.render().readLines()
+        registry.removeGauge('test_gauge', '', gauge)
+        def after = registry.render().readLines()
+
+        then:
+        before.contains('test_gauge 5')
+        !after.contains('test_gauge 5')
+    }
+}
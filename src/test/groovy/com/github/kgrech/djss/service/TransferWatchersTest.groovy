@@ -0,0 +1,70 @@
+package com.github.kgrech.djss.service
+
+import com.github.kgrech.djss.jooq.TransferStatus
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer
+import spock.lang.Specification
+
+class TransferWatchersTest extends Specification {
+
+    def watchers = new TransferWatchers(2)
+
+    private static Transfer processed(int id, int sender, int receiver) {
+        new Transfer()
+                .setId(id)
+                .setSenderAccountId(sender)
+                .setReceiverAccountId(receiver)
+                .setStatus(TransferStatus.COMPLETED)
+    }
+
+    def "Transfer should be delivered once to the watchers of it and its accounts"() {
+        setup:
+        int signals = 0
+        def byTransfer = watchers.watch([1] as Set, [] as Set, { signals++ })
+        def byAccount = watchers.watch([] as Set, [20] as Set, {})
+        def both = watchers.watch([1] as Set, [10, 20] as Set, {})
+        def other = watchers.watch([2] as Set, [30] as Set, {})
+
+        when:
+        watchers.transferProcessed(processed(1, 10, 20))
+
+        then:
+        signals == 1
+        byTransfer.poll().getId() == 1
+        byAccount.poll().getId() == 1
+        both.poll().getId() == 1
+        both.poll() == null
+        other.poll() == null
+    }
+
+    def "Watcher with the full buffer should be evicted"() {
+        setup:
+        def slow = watchers.watch([] as Set, [10] as Set, {})
+        def fast = watchers.watch([] as Set, [10] as Set, {})
+
+        when:
+        watchers.transferProcessed(processed(1, 10, 20))
+        watchers.transferProcessed(processed(2, 10, 20))
+        fast.poll()
+        fast.poll()
+        watchers.transferProcessed(processed(3, 10, 20))
+
+        then:
+        slow.isEvicted()
+        !fast.isEvicted()
+        fast.poll().getId() == 3
+        watchers.size() == 1
+    }
+
+    def "Closed watcher should get no transfers"() {
+        setup:
+        def watcher = watchers.watch([1] as Set, [] as Set, {})
+
+        when:
+        watcher.close()
+        watchers.transferProcessed(processed(1, 10, 20))
+
+        then:
+        watcher.poll() == null
+        watchers.size() == 0
+    }
+}
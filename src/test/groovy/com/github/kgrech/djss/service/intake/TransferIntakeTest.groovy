@@ -0,0 +1,242 @@
+package com.github.kgrech.djss.service.intake
+
+import com.github.kgrech.djss.DBTest
+import com.github.kgrech.djss.controller.TransferController
+import com.github.kgrech.djss.exception.NotFoundException
+import com.github.kgrech.djss.jooq.TransferStatus
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer
+import com.github.kgrech.djss.service.EntityCache
+import com.github.kgrech.djss.service.MinorUnitsTransfer
+import com.github.kgrech.djss.service.RowCounter
+import com.github.kgrech.djss.service.TransferListener
+import org.jooq.exception.DataAccessException
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER
+
+class TransferIntakeTest extends DBTest {
+
+    private Path dir = Files.createTempDirectory("intake")
+    private TransferListener listener = Mock(TransferListener)
+    private RowCounter counter = Mock(RowCounter)
+
+    def setup() {
+        insertAccount(1, "Account 1", 1000)
+        insertAccount(2, "Account 2", 1000)
+    }
+
+    def cleanup() {
+        dir.toFile().deleteDir()
+    }
+
+    def "Accepted transfers are inserted by the flusher"() {
+        setup:
+        def intake = intake(new IntakeJournal(dir, 1024))
+
+        when:
+        def accepted = (1..3).collect { intake.submit(transfer(null, 10.5)) }
+
+        then:
+        accepted.every { it.id != null && it.status == TransferStatus.PENDING }
+        accepted.every { intake.find(it.id) == it }
+
+        when:
+        def flushed = intake.flush()
+
+        then:
+        flushed == 3
+        3 * listener.transferCreated(_)
+        1 * counter.add(3)
+        getCtx().fetch(TRANSFER).collect { it.id } as Set == accepted.collect { it.id } as Set
+        getCtx().fetch(TRANSFER).every { it.amount == 10.5d }
+        accepted.every { intake.find(it.id) == null }
+
+        cleanup:
+        intake.close()
+    }
+
+    def "Transfer of unknown account is rejected"() {
+        setup:
+        def intake = intake(new IntakeJournal(dir, 1024))
+
+        when:
+        intake.submit(new Transfer().setSenderAccountId(1)
+                .setReceiverAccountId(3).setAmount(10))
+
+        then:
+        thrown(DataAccessException)
+
+        cleanup:
+        intake.close()
+    }
+
+    def "Transfers not inserted before the crash are replayed"() {
+        setup:
+        def journal = new IntakeJournal(dir, 1024)
+        journal.awaitDurable(journal.append(record(1000001, 10)))
+        journal.awaitDurable(journal.append(record(1000002, 20)))
+        //The first one was flushed, but the segment was not deleted yet
+        getCtx().insertInto(TRANSFER, TRANSFER.ID, TRANSFER.SENDER_ACCOUNT_ID,
+                TRANSFER.RECEIVER_ACCOUNT_ID, TRANSFER.STATUS, TRANSFER.AMOUNT)
+                .values(1000001, 1, 2, TransferStatus.PENDING, 10d)
+                .execute()
+        journal.close()
+
+        when:
+        def intake = intake(new IntakeJournal(dir, 1024))
+
+        then:
+        1 * listener.transferCreated({ it.id == 1000002 })
+        getCtx().fetchCount(TRANSFER) == 2
+        getCtx().fetchOne(TRANSFER, TRANSFER.ID.eq(1000002)).amount == 20d
+        //Only the segment of the new run is left
+        dir.toFile().list().length == 1
+
+        cleanup:
+        intake.close()
+    }
+
+    def "Flushed transfer deleted before the crash is not replayed"() {
+        setup:
+        def crashing = intake(new IntakeJournal(dir, 1024))
+        def deleted = crashing.submit(transfer(null, 10))
+        def kept = crashing.submit(transfer(null, 20))
+        crashing.flush()
+        //As the transfer controller deletes it
+        crashing.tombstone(deleted.id)
+        getCtx().deleteFrom(TRANSFER).where(TRANSFER.ID.eq(deleted.id)).execute()
+        //The segment files as they are at the crash
+        def crashed = Files.createTempDirectory("intake")
+        dir.toFile().listFiles().each {
+            Files.copy(it.toPath(), crashed.resolve(it.name))
+        }
+        crashing.close()
+
+        when:
+        def restarted = intake(new IntakeJournal(crashed, 1024))
+
+        then:
+        0 * listener.transferCreated(_)
+        getCtx().fetch(TRANSFER).collect { it.id } == [kept.id]
+
+        cleanup:
+        restarted.close()
+        crashed.toFile().deleteDir()
+    }
+
+    def "Deleting a missing transfer doesn't drop the transfer given its id"() {
+        setup:
+        def crashing = intake(new IntakeJournal(dir, 1024))
+        def controller = new TransferController(getCtx(), listener, counter,
+                Mock(EntityCache), null, crashing)
+        def first = crashing.submit(transfer(null, 10))
+        crashing.flush()
+
+        when:
+        //The id the next transfer is given
+        controller.delete(first.id + 1)
+
+        then:
+        thrown(NotFoundException)
+
+        when:
+        def acknowledged = crashing.submit(transfer(null, 20))
+        //The segment files as they are at the crash
+        def crashed = Files.createTempDirectory("intake")
+        dir.toFile().listFiles().each {
+            Files.copy(it.toPath(), crashed.resolve(it.name))
+        }
+        crashing.close()
+        //The node crashed before the flush
+        getCtx().deleteFrom(TRANSFER).where(TRANSFER.ID.eq(acknowledged.id)).execute()
+        def restarted = intake(new IntakeJournal(crashed, 1024))
+
+        then:
+        acknowledged.id == first.id + 1
+        getCtx().fetch(TRANSFER).collect { it.id } == [first.id, acknowledged.id]
+
+        cleanup:
+        restarted?.close()
+        crashed?.toFile()?.deleteDir()
+    }
+
+    def "Tombstone written before the record is ignored on replay"() {
+        setup:
+        def journal = new IntakeJournal(dir, 1024)
+        journal.awaitDurable(journal.appendTombstone(1000001))
+        journal.awaitDurable(journal.append(record(1000001, 10)))
+        journal.awaitDurable(journal.append(record(1000002, 20)))
+        journal.awaitDurable(journal.appendTombstone(1000002))
+        journal.close()
+
+        when:
+        def replayed = new IntakeJournal(dir, 1024).replay()
+
+        then:
+        replayed*.id == [1000001]
+    }
+
+    def "Torn record is ignored on replay"() {
+        setup:
+        def journal = new IntakeJournal(dir, 1024)
+        journal.awaitDurable(journal.append(record(1000001, 10)))
+        journal.awaitDurable(journal.append(record(1000002, 20)))
+        journal.close()
+        def file = dir.toFile().listFiles()[0]
+        def bytes = file.bytes
+        bytes[IntakeJournal.RECORD_SIZE + 10] ^= 1
+        file.bytes = bytes
+
+        when:
+        def replayed = new IntakeJournal(dir, 1024).replay()
+
+        then:
+        replayed*.id == [1000001]
+        replayed[0].amount == 1000
+        replayed[0].transfer.amount == 10d
+    }
+
+    def "Rotated segments are deleted once flushed"() {
+        setup:
+        def journal = new IntakeJournal(dir, IntakeJournal.RECORD_SIZE * 2)
+
+        when:
+        def sequences = (1..5).collect { journal.append(record(it, 10)) }
+        journal.awaitDurable(sequences.last())
+
+        then:
+        dir.toFile().list().length == 3
+
+        when:
+        journal.flushed(3)
+
+        then:
+        dir.toFile().list().length == 2
+
+        when:
+        journal.close()
+        journal.delete()
+
+        then:
+        dir.toFile().list().length == 0
+    }
+
+    private TransferIntake intake(IntakeJournal journal) {
+        return new TransferIntake(getCtx(), listener, counter, journal, 100,
+                Long.MAX_VALUE)
+    }
+
+    private static MinorUnitsTransfer record(Integer id, double amount) {
+        return MinorUnitsTransfer.of(transfer(id, amount))
+    }
+
+    private static Transfer transfer(Integer id, double amount) {
+        return new Transfer()
+                .setId(id)
+                .setSenderAccountId(1)
+                .setReceiverAccountId(2)
+                .setAmount(amount)
+    }
+}
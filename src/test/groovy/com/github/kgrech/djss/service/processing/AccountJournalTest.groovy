@@ -0,0 +1,95 @@
+package com.github.kgrech.djss.service.processing
+
+import com.github.kgrech.djss.DBTest
+import com.github.kgrech.djss.jooq.TransferStatus
+import com.github.kgrech.djss.service.TransferListener
+import com.github.kgrech.djss.service.proccessing.AccountJournal
+import com.github.kgrech.djss.service.proccessing.Lease
+import com.github.kgrech.djss.service.proccessing.TransferProcessingRunnable
+
+import static com.github.kgrech.djss.jooq.tables.Account.ACCOUNT
+import static com.github.kgrech.djss.jooq.tables.LedgerEntry.LEDGER_ENTRY
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER
+
+class AccountJournalTest extends DBTest {
+
+    private final double BALANCE = 100
+
+    private AccountJournal journal = new AccountJournal(3)
+
+    def setup() {
+        insertAccount(1, "Account 1", BALANCE)
+        insertAccount(2, "Account 2", BALANCE)
+    }
+
+    def "Completed transfers are appended to the journal"() {
+        setup:
+        def id = UUID.randomUUID().toString()
+        insertTransfer(10, 1, 2, TransferStatus.PROCESSING, id)
+        insertTransfer(20, 2, 1, TransferStatus.PROCESSING, id)
+
+        when:
+        runnable(id).run()
+
+        then:
+        snapshot(1) == BALANCE
+        snapshot(2) == BALANCE
+        getCtx().fetchCount(LEDGER_ENTRY) == 4
+        balance(1) == BALANCE + 10
+        balance(2) == BALANCE - 10
+    }
+
+    def "Balance includes the entries not compacted yet"() {
+        setup:
+        def id = UUID.randomUUID().toString()
+        insertTransfer(60, 1, 2, TransferStatus.PROCESSING, id)
+        insertTransfer(60, 1, 2, TransferStatus.PROCESSING, id)
+
+        when:
+        runnable(id).run()
+
+        then:
+        getCtx().select(TRANSFER.STATUS)
+                .from(TRANSFER)
+                .orderBy(TRANSFER.ID)
+                .fetch(TRANSFER.STATUS) == [TransferStatus.COMPLETED, TransferStatus.REJECTED]
+        balance(1) == BALANCE - 60
+    }
+
+    def "Compaction rolls the entries into the snapshots"() {
+        setup:
+        def id = UUID.randomUUID().toString()
+        5.times { insertTransfer(10, 1, 2, TransferStatus.PROCESSING, id) }
+        runnable(id).run()
+
+        when:
+        def compacted = journal.compactAll(getCtx())
+
+        then:
+        compacted == 10
+        getCtx().fetchCount(LEDGER_ENTRY) == 0
+        snapshot(1) == BALANCE - 50
+        snapshot(2) == BALANCE + 50
+        balance(1) == BALANCE - 50
+        balance(2) == BALANCE + 50
+    }
+
+    private TransferProcessingRunnable runnable(String processingId) {
+        return new TransferProcessingRunnable(getCtx(), processingId,
+                TransferListener.NONE, Lease.NONE, journal)
+    }
+
+    private double snapshot(int accountId) {
+        return getCtx().select(ACCOUNT.AMOUNT)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(accountId))
+                .fetchOne().value1()
+    }
+
+    private double balance(int accountId) {
+        return getCtx().select(AccountJournal.BALANCE)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(accountId))
+                .fetchOne().value1()
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.kgrech.djss.service.processing
+
+import com.github.kgrech.djss.DBTest
+import com.github.kgrech.djss.jooq.MinorUnits
+import com.github.kgrech.djss.jooq.TransferStatus
+import com.github.kgrech.djss.service.TransferListener
+import com.github.kgrech.djss.service.proccessing.AccountJournal
+import com.github.kgrech.djss.service.proccessing.AccountStripes
+import com.github.kgrech.djss.service.proccessing.Lease
+import com.github.kgrech.djss.service.proccessing.TransferProcessingRunnable
+
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+import static com.github.kgrech.djss.jooq.tables.Account.ACCOUNT
+import static com.github.kgrech.djss.jooq.tables.AccountSlot.ACCOUNT_SLOT
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER
+
+class AccountStripesTest extends DBTest {
+
+    private final double BALANCE = 1000
+    private final int STRIPES = 4
+
+    private AccountStripes stripes = new AccountStripes([2] as Set, STRIPES)
+
+    def setup() {
+        insertAccount(1, "Account 1", BALANCE)
+        insertAccount(2, "Merchant", BALANCE)
+    }
+
+    def "Credits are spread over the slots"() {
+        setup:
+        def ids = (1..4).collect { UUID.randomUUID().toString() }
+        ids.each { id -> 10.times { insertTransfer(1, 1, 2, TransferStatus.PROCESSING, id) } }
+        def executor = Executors.newFixedThreadPool(ids.size())
+
+        when:
+        ids.each { executor.submit(runnable(it)) }
+        executor.shutdown()
+        executor.awaitTermination(30, TimeUnit.SECONDS)
+
+        then:
+        getCtx().fetchCount(TRANSFER, TRANSFER.STATUS.eq(TransferStatus.COMPLETED)) == 40
+        snapshot(2) == BALANCE
+        slots(2).size() == STRIPES
+        slots(2).count { it > 0 } > 1
+        balance(2) == BALANCE + 40
+        balance(1) == BALANCE - 40
+    }
+
+    def "Debit is taken from a slot with sufficient funds"() {
+        setup:
+        stripes = new AccountStripes([1] as Set, STRIPES)
+        def id = UUID.randomUUID().toString()
+        insertSlots(1, [100, 300, 300, 300])
+        setSnapshot(1, 0)
+        insertTransfer(250, 1, 2, TransferStatus.PROCESSING, id)
+
+        when:
+        runnable(id).run()
+
+        then:
+        slots(1) == [100, 50, 300, 300].collect { MinorUnits.of(it) }
+        balance(1) == 750
+    }
+
+    def "Slots are merged if none of them has sufficient funds"() {
+        setup:
+        stripes = new AccountStripes([1] as Set, STRIPES)
+        def id = UUID.randomUUID().toString()
+        insertSlots(1, [100, 100, 100, 100])
+        setSnapshot(1, 100)
+        insertTransfer(450, 1, 2, TransferStatus.PROCESSING, id)
+        insertTransfer(100, 1, 2, TransferStatus.PROCESSING, id)
+
+        when:
+        runnable(id).run()
+
+        then:
+        getCtx().select(TRANSFER.STATUS)
+                .from(TRANSFER)
+                .orderBy(TRANSFER.ID)
+                .fetch(TRANSFER.STATUS) == [TransferStatus.COMPLETED, TransferStatus.REJECTED]
+        snapshot(1) == 0
+        slots(1) == [50, 0, 0, 0].collect { MinorUnits.of(it) }
+        balance(1) == 50
+    }
+
+    def "Transfer is rejected if the slots are drained after the balance check"() {
+        setup:
+        stripes = new AccountStripes([1] as Set, STRIPES)
+        def id = UUID.randomUUID().toString()
+        insertSlots(1, [100, 100, 100, 100])
+        setSnapshot(1, 0)
+        insertTransfer(450, 1, 2, TransferStatus.PROCESSING, id)
+        def runnable = Spy(runnable(id))
+        //Balance read before concurrent debits drained the slots
+        runnable.fetchAmount(1) >> MinorUnits.of(1000)
+
+        when:
+        runnable.run()
+
+        then:
+        getCtx().fetchOne(TRANSFER).getStatus() == TransferStatus.REJECTED
+        balance(1) == 400
+        balance(2) == BALANCE
+    }
+
+    def "Slots of the accounts which are not striped any more are moved back"() {
+        setup:
+        insertSlots(1, [10, 20, 30, 40])
+        insertSlots(2, [10, 20, 30, 40])
+
+        when:
+        def unstriped = stripes.unstripeOthers(getCtx())
+
+        then:
+        unstriped == 1
+        slots(1) == []
+        snapshot(1) == BALANCE + 100
+        slots(2).size() == STRIPES
+        balance(2) == BALANCE + 100
+    }
+
+    private TransferProcessingRunnable runnable(String processingId) {
+        return new TransferProcessingRunnable(getCtx(), processingId,
+                TransferListener.NONE, Lease.NONE, null, stripes)
+    }
+
+    private void insertSlots(int accountId, List<Integer> amounts) {
+        amounts.eachWithIndex { amount, slot ->
+            getCtx().insertInto(ACCOUNT_SLOT)
+                    .values(accountId, slot, MinorUnits.of(amount))
+                    .execute()
+        }
+    }
+
+    private void setSnapshot(int accountId, double amount) {
+        getCtx().update(ACCOUNT)
+                .set(ACCOUNT.AMOUNT, amount)
+                .where(ACCOUNT.ID.eq(accountId))
+                .execute()
+    }
+
+    private List<Long> slots(int accountId) {
+        return getCtx().select(ACCOUNT_SLOT.AMOUNT)
+                .from(ACCOUNT_SLOT)
+                .where(ACCOUNT_SLOT.ACCOUNT_ID.eq(accountId))
+                .orderBy(ACCOUNT_SLOT.SLOT)
+                .fetch(ACCOUNT_SLOT.AMOUNT)
+    }
+
+    private double snapshot(int accountId) {
+        return getCtx().select(ACCOUNT.AMOUNT)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(accountId))
+                .fetchOne().value1()
+    }
+
+    private double balance(int accountId) {
+        return getCtx().select(AccountJournal.BALANCE)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(accountId))
+                .fetchOne().value1()
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.kgrech.djss.service.processing
+
+import com.github.kgrech.djss.jooq.TransferStatus
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer
+import com.github.kgrech.djss.service.proccessing.AdaptiveBatchSize
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class AdaptiveBatchSizeTest extends Specification {
+
+    private final long TARGET = 100
+    private final long FAST = TimeUnit.MILLISECONDS.toNanos(TARGET.intdiv(2))
+    private final long SLOW = TimeUnit.MILLISECONDS.toNanos(TARGET * 2)
+
+    def "Size grows by one while the batches are fast"() {
+        setup:
+        def batchSize = new AdaptiveBatchSize(10, 1, 12, TARGET)
+
+        when:
+        5.times { batchSize.batchProcessed(FAST) }
+
+        then:
+        batchSize.isAdaptive()
+        batchSize.get() == 12
+    }
+
+    def "Size halves once per target latency when the batches are slow"() {
+        setup:
+        def batchSize = new AdaptiveBatchSize(40, 8, 100, TARGET)
+
+        when:
+        3.times { batchSize.batchProcessed(SLOW) }
+
+        then:
+        batchSize.get() == 20
+
+        when:
+        Thread.sleep(TARGET * 2)
+        batchSize.batchProcessed(SLOW)
+        Thread.sleep(TARGET * 2)
+        batchSize.batchProcessed(SLOW)
+
+        then:
+        batchSize.get() == 8
+    }
+
+    def "Size halves when the transfers fail"() {
+        setup:
+        def batchSize = new AdaptiveBatchSize(40, 1, 100, TARGET)
+
+        when:
+        9.times {
+            batchSize.transferProcessed(new Transfer().setStatus(TransferStatus.COMPLETED))
+        }
+        batchSize.transferProcessed(new Transfer().setStatus(TransferStatus.ERROR))
+        batchSize.batchProcessed(FAST)
+
+        then:
+        batchSize.get() == 20
+    }
+
+    def "Size halves when the queue is full"() {
+        setup:
+        def batchSize = new AdaptiveBatchSize(40, 1, 100, TARGET)
+
+        when:
+        batchSize.queueFull()
+
+        then:
+        batchSize.get() == 20
+    }
+
+    def "Fixed size never changes"() {
+        setup:
+        def batchSize = AdaptiveBatchSize.fixed(10)
+
+        when:
+        batchSize.batchProcessed(SLOW)
+        batchSize.batchProcessed(FAST)
+        batchSize.queueFull()
+
+        then:
+        !batchSize.isAdaptive()
+        batchSize.get() == 10
+    }
+}
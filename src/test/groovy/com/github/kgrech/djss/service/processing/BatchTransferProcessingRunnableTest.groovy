@@ -0,0 +1,178 @@
+package com.github.kgrech.djss.service.processing
+
+import com.github.kgrech.djss.DBTest
+import com.github.kgrech.djss.jooq.TransferStatus
+import com.github.kgrech.djss.service.proccessing.BatchTransferProcessingRunnable
+
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+import static com.github.kgrech.djss.jooq.tables.Account.ACCOUNT
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER
+
+class BatchTransferProcessingRunnableTest extends DBTest {
+
+    private final double BALANCE = 1_000_000
+
+    def setup() {
+        insertAccount(1, "Account 1", BALANCE)
+        insertAccount(2, "Account 2", BALANCE)
+    }
+
+    def "Runnable counts balance"() {
+        setup:
+        def id = UUID.randomUUID().toString()
+        insertTransfer(100, 1, 2, TransferStatus.PROCESSING, id)
+        insertTransfer(30, 2, 1, TransferStatus.PROCESSING, id)
+        def runnable = new BatchTransferProcessingRunnable(ctx, id)
+
+        when:
+        runnable.run()
+
+        then:
+        ctx.select(ACCOUNT.AMOUNT)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(1))
+                .fetchOne().value1() == BALANCE - 70
+
+        ctx.select(ACCOUNT.AMOUNT)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(2))
+                .fetchOne().value1() == BALANCE + 70
+
+        ctx.selectCount()
+                .from(TRANSFER)
+                .where(TRANSFER.STATUS.eq(TransferStatus.COMPLETED)
+                        .and(TRANSFER.PROCESSING_END.isNotNull()))
+                .fetchOne(0, int.class) == 2
+    }
+
+    def "Runnable rejects transfers in id order"() {
+        setup:
+        def transferSize = 1000
+        def numRecords = (int) (BALANCE / transferSize)
+        def id = UUID.randomUUID().toString()
+        for (i in 1..2*numRecords) {
+            insertTransfer(transferSize, 1, 2, TransferStatus.PROCESSING, id)
+        }
+        def runnable = new BatchTransferProcessingRunnable(ctx, id)
+
+        when:
+        runnable.run()
+
+        def statuses = ctx.select(TRANSFER.STATUS)
+                .from(TRANSFER)
+                .orderBy(TRANSFER.ID)
+                .fetch()
+                .into(TransferStatus.class)
+
+        then:
+        statuses.subList(0, numRecords).every { it == TransferStatus.COMPLETED }
+        statuses.subList(numRecords, 2 * numRecords).every { it == TransferStatus.REJECTED }
+
+        ctx.select(ACCOUNT.AMOUNT)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(1))
+                .fetchOne().value1() == 0
+
+        ctx.select(ACCOUNT.AMOUNT)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(2))
+                .fetchOne().value1() == 2 * BALANCE
+    }
+
+    def "Failed transfer does not affect other transfers of the batch"() {
+        setup:
+        def id = UUID.randomUUID().toString()
+        insertAccount(3, "Account 3", BALANCE)
+        insertTransfer(100, 1, 2, TransferStatus.PROCESSING, id)
+        insertTransfer(100, 1, 3, TransferStatus.PROCESSING, id)
+        insertTransfer(100, 2, 1, TransferStatus.PROCESSING, id)
+        ctx.update(ACCOUNT)
+                .set(ACCOUNT.AMOUNT, (Double) null)
+                .where(ACCOUNT.ID.eq(3))
+                .execute()
+        def runnable = new BatchTransferProcessingRunnable(ctx, id)
+
+        when:
+        runnable.run()
+
+        then:
+        ctx.selectCount()
+                .from(TRANSFER)
+                .where(TRANSFER.STATUS.eq(TransferStatus.COMPLETED))
+                .fetchOne(0, int.class) == 2
+
+        ctx.selectCount()
+                .from(TRANSFER)
+                .where(TRANSFER.STATUS.eq(TransferStatus.ERROR))
+                .fetchOne(0, int.class) == 1
+
+        ctx.select(ACCOUNT.AMOUNT)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(1))
+                .fetchOne().value1() == BALANCE
+    }
+
+    def "Runnable processes transfers one by one if batch fails"() {
+        setup:
+        def id = UUID.randomUUID().toString()
+        insertTransfer(100, 1, 2, TransferStatus.PROCESSING, id)
+        def runnable = Spy(new BatchTransferProcessingRunnable(ctx, id))
+        runnable.processBatch(_) >> { throw new RuntimeException() }
+
+        when:
+        runnable.run()
+
+        then:
+        ctx.selectCount()
+                .from(TRANSFER)
+                .where(TRANSFER.STATUS.eq(TransferStatus.COMPLETED))
+                .fetchOne(0, int.class) == 1
+
+        ctx.select(ACCOUNT.AMOUNT)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(2))
+                .fetchOne().value1() == BALANCE + 100
+    }
+
+    def "Concurrent batch processing work well"() {
+        setup:
+        def transfersPerRun = 10
+        def numRuns = 50
+        List<Runnable> runs = []
+        for (i in 1..numRuns) {
+            def id = UUID.randomUUID().toString()
+            for (j in 1..transfersPerRun) {
+                insertTransfer(Math.random() * 10, 1, 2,
+                        TransferStatus.PROCESSING, id)
+                insertTransfer(Math.random() * 10, 2, 1,
+                        TransferStatus.PROCESSING, id)
+            }
+            runs << new BatchTransferProcessingRunnable(ctx, id)
+        }
+
+        when:
+        def executorService = Executors.newFixedThreadPool(10)
+        runs.each { executorService.submit(it) }
+        executorService.shutdown()
+        while (!executorService.awaitTermination(1, TimeUnit.SECONDS)) { }
+
+        double amount1 = ctx.select(ACCOUNT.AMOUNT)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(1))
+                .fetchOne().value1()
+
+        double amount2 = ctx.select(ACCOUNT.AMOUNT)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(2))
+                .fetchOne().value1()
+
+        then:
+        amount1 + amount2 == 2 * BALANCE
+        ctx.selectCount()
+                .from(TRANSFER)
+                .where(TRANSFER.STATUS.eq(TransferStatus.PROCESSING))
+                .fetchOne(0, int.class) == 0
+    }
+}
@@ -0,0 +1,140 @@
+package com.github.kgrech.djss.service.processing
+
+import com.github.kgrech.djss.DBTest
+import com.github.kgrech.djss.jooq.TransferStatus
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer
+import com.github.kgrech.djss.service.MinorUnitsTransfer
+import com.github.kgrech.djss.service.TransferListener
+import com.github.kgrech.djss.service.ledger.LedgerEngine
+import com.github.kgrech.djss.service.proccessing.LedgerProcessingRunnable
+
+import static com.github.kgrech.djss.jooq.tables.Account.ACCOUNT
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER
+
+class LedgerEngineTest extends DBTest {
+
+    private final double BALANCE = 1_000_000
+
+    private LedgerEngine engine
+
+    def setup() {
+        insertAccount(1, "Account 1", BALANCE)
+        insertAccount(2, "Account 2", BALANCE)
+        engine = new LedgerEngine(ctx, 4, 10, 100, TransferListener.NONE)
+        engine.rebuild()
+    }
+
+    def "Engine counts balance"() {
+        setup:
+        def id = UUID.randomUUID().toString()
+        insertTransfer(100, 1, 2, TransferStatus.PROCESSING, id)
+        def runnable = new LedgerProcessingRunnable(ctx, id, engine)
+
+        when:
+        runnable.run()
+        engine.close()
+
+        then:
+        ctx.select(ACCOUNT.AMOUNT)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(1))
+                .fetchOne().value1() == BALANCE - 100
+
+        ctx.select(ACCOUNT.AMOUNT)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(2))
+                .fetchOne().value1() == BALANCE + 100
+
+        ctx.select(TRANSFER.PROCESSING_END)
+                .from(TRANSFER)
+                .where(TRANSFER.STATUS.eq(TransferStatus.COMPLETED))
+                .fetchOne().value1() != null
+    }
+
+    def "Engine rejects transfers"() {
+        setup:
+        def transferSize = 1000
+        def numRecords = (int) (BALANCE / transferSize)
+        def id = UUID.randomUUID().toString()
+        for (i in 1..2*numRecords) {
+            insertTransfer(transferSize, 1, 2, TransferStatus.PROCESSING, id)
+        }
+        def runnable = new LedgerProcessingRunnable(ctx, id, engine)
+
+        when:
+        runnable.run()
+        engine.close()
+
+        then:
+        ctx.selectCount()
+                .from(TRANSFER)
+                .where(TRANSFER.STATUS.eq(TransferStatus.COMPLETED))
+                .fetchOne(0, int.class) == numRecords
+
+        ctx.selectCount()
+                .from(TRANSFER)
+                .where(TRANSFER.STATUS.eq(TransferStatus.REJECTED))
+                .fetchOne(0, int.class) == numRecords
+
+        ctx.select(ACCOUNT.AMOUNT)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(1))
+                .fetchOne().value1() == 0
+
+        ctx.select(ACCOUNT.AMOUNT)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(2))
+                .fetchOne().value1() == 2 * BALANCE
+    }
+
+    def "Engine loads accounts created after rebuild"() {
+        setup:
+        insertAccount(3, "Account 3", 0)
+        def id = UUID.randomUUID().toString()
+        insertTransfer(100, 1, 3, TransferStatus.PROCESSING, id)
+        def runnable = new LedgerProcessingRunnable(ctx, id, engine)
+
+        when:
+        runnable.run()
+        engine.close()
+
+        then:
+        ctx.select(ACCOUNT.AMOUNT)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(3))
+                .fetchOne().value1() == 100
+
+        ctx.selectCount()
+                .from(TRANSFER)
+                .where(TRANSFER.STATUS.eq(TransferStatus.COMPLETED))
+                .fetchOne(0, int.class) == 1
+    }
+
+    def "Engine fails transfers of not existing accounts"() {
+        setup:
+        def transfer = new Transfer()
+        transfer.setId(1)
+        transfer.setSenderAccountId(1)
+        transfer.setReceiverAccountId(10)
+        transfer.setAmount(100)
+
+        when:
+        engine.submit(MinorUnitsTransfer.of(transfer))
+        engine.close()
+        engine = new LedgerEngine(ctx, 4, 10, 100, TransferListener.NONE)
+        engine.rebuild()
+        insertTransfer(BALANCE, 1, 2, TransferStatus.PROCESSING, "id")
+        new LedgerProcessingRunnable(ctx, "id", engine).run()
+        engine.close()
+
+        then:
+        ctx.select(ACCOUNT.AMOUNT)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(1))
+                .fetchOne().value1() == 0
+    }
+
+    def cleanup() {
+        engine.close()
+    }
+}
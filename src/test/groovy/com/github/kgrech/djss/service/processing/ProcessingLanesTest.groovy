@@ -0,0 +1,140 @@
+package com.github.kgrech.djss.service.processing
+
+import com.github.kgrech.djss.DBTest
+import com.github.kgrech.djss.jooq.MinorUnits
+import com.github.kgrech.djss.jooq.TransferStatus
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer
+import com.github.kgrech.djss.service.TransferListener
+import com.github.kgrech.djss.service.proccessing.LaneTransferProcessingRunnable
+import com.github.kgrech.djss.service.proccessing.ProcessingLanes
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import static com.github.kgrech.djss.jooq.MinorUnits.ACCOUNT_AMOUNT
+import static com.github.kgrech.djss.jooq.tables.Account.ACCOUNT
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER
+
+class ProcessingLanesTest extends DBTest {
+
+    private final double BALANCE = 1_000_000
+    private final int NUM_LANES = 4
+
+    private ProcessingLanes lanes = new ProcessingLanes(NUM_LANES)
+
+    def "Transfers of the same account never run concurrently"() {
+        setup:
+        def numAccounts = 10
+        def running = new ConcurrentHashMap<Integer, AtomicInteger>()
+        (1..numAccounts).each { running.put(it, new AtomicInteger()) }
+        def violations = new AtomicInteger()
+        def processed = new AtomicInteger()
+
+        def processor = { Transfer transfer ->
+            def accounts = [transfer.getSenderAccountId(),
+                            transfer.getReceiverAccountId()].unique()
+            accounts.each {
+                if (running.get(it).incrementAndGet() > 1) {
+                    violations.incrementAndGet()
+                }
+            }
+            Thread.sleep(1)
+            accounts.each { running.get(it).decrementAndGet() }
+            processed.incrementAndGet()
+        }
+
+        when:
+        def random = new Random()
+        def numTransfers = 500
+        for (i in 1..numTransfers) {
+            def transfer = new Transfer()
+            transfer.setId(i)
+            transfer.setSenderAccountId(random.nextInt(numAccounts) + 1)
+            transfer.setReceiverAccountId(random.nextInt(numAccounts) + 1)
+            lanes.submit(transfer, processor)
+        }
+        lanes.close()
+        awaitLanes()
+
+        then:
+        violations.get() == 0
+        processed.get() == numTransfers
+    }
+
+    def "Concurrent lane processing work well"() {
+        setup:
+        def numAccounts = 6
+        (1..numAccounts).each { insertAccount(it, "Account $it", BALANCE) }
+        def transfersPerRun = 10
+        def numRuns = 30
+        def random = new Random()
+        List<Runnable> runs = []
+        for (i in 1..numRuns) {
+            def id = UUID.randomUUID().toString()
+            for (j in 1..transfersPerRun) {
+                def sender = random.nextInt(numAccounts) + 1
+                def receiver = sender % numAccounts + 1
+                insertTransfer(Math.random() * 10, sender, receiver,
+                        TransferStatus.PROCESSING, id)
+            }
+            runs << new LaneTransferProcessingRunnable(ctx, id, lanes,
+                    TransferListener.NONE)
+        }
+
+        when:
+        def executorService = Executors.newFixedThreadPool(NUM_LANES)
+        runs.each { executorService.submit(it) }
+        executorService.shutdown()
+        while (!executorService.awaitTermination(1, TimeUnit.SECONDS)) { }
+        lanes.close()
+        awaitLanes()
+
+        long total = ctx.select(ACCOUNT_AMOUNT.sum())
+                .from(ACCOUNT)
+                .fetchOne(0, Long)
+
+        then:
+        total == MinorUnits.of(numAccounts * BALANCE)
+        ctx.selectCount()
+                .from(TRANSFER)
+                .where(TRANSFER.STATUS.eq(TransferStatus.COMPLETED))
+                .fetchOne(0, int.class) == numRuns * transfersPerRun
+    }
+
+    def "Batch latency is reported once the lanes process the batch"() {
+        setup:
+        (1..2).each { insertAccount(it, "Account $it", BALANCE) }
+        def id = UUID.randomUUID().toString()
+        (1..5).each { insertTransfer(1, 1, 2, TransferStatus.PROCESSING, id) }
+        def latencies = new CopyOnWriteArrayList<Long>()
+        def completed = new AtomicInteger()
+        def listener = new TransferListener() {
+            @Override
+            void transferProcessed(Transfer transfer) {
+                Thread.sleep(20)
+                completed.incrementAndGet()
+            }
+        }
+        def runnable = new LaneTransferProcessingRunnable(ctx, id, lanes, listener)
+                .onBatchProcessed { latencies << it }
+
+        when:
+        runnable.run()
+        def reportedOnHandOver = latencies.size()
+        lanes.close()
+        awaitLanes()
+
+        then:
+        reportedOnHandOver == 0
+        latencies.size() == 1
+        completed.get() == 5
+        latencies[0] >= TimeUnit.MILLISECONDS.toNanos(100)
+    }
+
+    private void awaitLanes() {
+        while (!lanes.awaitTermination(1, TimeUnit.SECONDS)) { }
+    }
+}
@@ -0,0 +1,218 @@
+package com.github.kgrech.djss.service.processing
+
+import com.github.kgrech.djss.DBTest
+import com.github.kgrech.djss.exception.LeaseExpiredException
+import com.github.kgrech.djss.jooq.TransferStatus
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer
+import com.github.kgrech.djss.service.TransferListener
+import com.github.kgrech.djss.service.TransferProcessingScheduler
+import com.github.kgrech.djss.service.proccessing.AdaptiveBatchSize
+import com.github.kgrech.djss.service.proccessing.ProcessingNode
+import com.github.kgrech.djss.service.proccessing.TransferDispensingRunnable
+import com.github.kgrech.djss.service.proccessing.TransferProcessingRunnable
+
+import java.sql.Timestamp
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+import static com.github.kgrech.djss.jooq.tables.Account.ACCOUNT
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER
+
+class ProcessingNodeTest extends DBTest {
+
+    private final int LEASE_TIME = 3
+
+    private ProcessingNode node1 = new ProcessingNode("node-1", LEASE_TIME)
+    private ProcessingNode node2 = new ProcessingNode("node-2", LEASE_TIME)
+
+    def setup() {
+        insertAccount(1, "Account 1", 1000)
+        insertAccount(2, "Account 2", 1000)
+    }
+
+    def "Dispensing leases the transfers to the node"() {
+        setup:
+        5.times { insertTransfer(10, 1, 2) }
+        def runnable = dispensing(node1, 10)
+
+        when:
+        runnable.dispense()
+        def transfers = getCtx().selectFrom(TRANSFER).fetchInto(Transfer)
+        def now = getCtx().select(org.jooq.impl.DSL.currentTimestamp())
+                .fetchOne(0, Timestamp)
+
+        then:
+        transfers.every { it.getStatus() == TransferStatus.PROCESSING }
+        transfers.every { it.getProcessingNode() == node1.getId() }
+        transfers.every { it.getLeaseExpiry().after(now) }
+    }
+
+    def "Nodes dispensing concurrently never claim the same transfer"() {
+        setup:
+        def numTransfers = 200
+        numTransfers.times { insertTransfer(10, 1, 2) }
+        def executor = Executors.newFixedThreadPool(4)
+
+        when:
+        [node1, node2, node1, node2].each { node ->
+            executor.submit {
+                def runnable = dispensing(node, 5)
+                while (runnable.dispense() > 0) { }
+            }
+        }
+        executor.shutdown()
+        executor.awaitTermination(30, TimeUnit.SECONDS)
+        def transfers = getCtx().selectFrom(TRANSFER).fetchInto(Transfer)
+        def batches = transfers.groupBy { it.getProcessingId() }
+
+        then:
+        transfers.every { it.getStatus() == TransferStatus.PROCESSING }
+        batches.values().every { it.size() <= 5 }
+        batches.values().every { batch ->
+            batch*.getProcessingNode().unique().size() == 1
+        }
+    }
+
+    def "Only expired leases are reclaimed"() {
+        setup:
+        insertTransfer(10, 1, 2, TransferStatus.PROCESSING, "expired")
+        insertTransfer(10, 1, 2, TransferStatus.PROCESSING, "active")
+        lease("expired", node2, -60)
+        lease("active", node2, 60)
+
+        when:
+        def reclaimed = node1.reclaimExpired(getCtx())
+
+        then:
+        reclaimed == 1
+        status("expired") == []
+        status("active") == [TransferStatus.PROCESSING]
+        getCtx().fetchCount(TRANSFER, TRANSFER.STATUS.eq(TransferStatus.PENDING)
+                .and(TRANSFER.PROCESSING_NODE.isNull())) == 1
+    }
+
+    def "Node releases only its own transfers on start"() {
+        setup:
+        insertTransfer(10, 1, 2, TransferStatus.PROCESSING, "own")
+        insertTransfer(10, 1, 2, TransferStatus.PROCESSING, "other")
+        lease("own", node1, 60)
+        lease("other", node2, 60)
+
+        when:
+        def released = node1.releaseOwn(getCtx())
+
+        then:
+        released == 1
+        status("own") == []
+        status("other") == [TransferStatus.PROCESSING]
+    }
+
+    def "Reclaimed transfer is not processed by the former owner"() {
+        setup:
+        insertTransfer(10, 1, 2, TransferStatus.PROCESSING, "run")
+        lease("run", node1, -60)
+        def runnable = new TransferProcessingRunnable(getCtx(), "run",
+                TransferListener.NONE, node1.lease(getCtx(), "run"))
+        def transfers = runnable.fetchTransfers()
+
+        when:
+        node2.reclaimExpired(getCtx())
+        runnable.process(transfers[0])
+
+        then:
+        thrown(LeaseExpiredException)
+        getCtx().fetchOne(TRANSFER).getStatus() == TransferStatus.PENDING
+        getCtx().select(ACCOUNT.AMOUNT).from(ACCOUNT).fetch(ACCOUNT.AMOUNT)
+                .every { it == 1000 }
+    }
+
+    def "Lease is renewed while the transfers are processed"() {
+        setup:
+        insertTransfer(10, 1, 2, TransferStatus.PROCESSING, "run")
+        insertTransfer(10, 1, 2, TransferStatus.PROCESSING, "run")
+        lease("run", node1, 1)
+        def runnable = new TransferProcessingRunnable(getCtx(), "run",
+                TransferListener.NONE, node1.lease(getCtx(), "run"))
+        def transfers = runnable.fetchTransfers()
+
+        when:
+        //A third of the lease time passes, the first lease is about to expire
+        Thread.sleep(TimeUnit.SECONDS.toMillis(LEASE_TIME).intdiv(3) + 100)
+        runnable.process(transfers[0])
+        Thread.sleep(1000)
+        def reclaimed = node2.reclaimExpired(getCtx())
+        runnable.process(transfers[1])
+
+        then:
+        reclaimed == 0
+        status("run") == [TransferStatus.COMPLETED, TransferStatus.COMPLETED]
+    }
+
+    def "Dispensing publishes the claimed transfers"() {
+        setup:
+        3.times { insertTransfer(10, 1, 2) }
+        def listener = Mock(TransferListener)
+        def runnable = new TransferDispensingRunnable(getCtx(),
+                AdaptiveBatchSize.fixed(2), Integer.MAX_VALUE,
+                Mock(TransferProcessingScheduler), node1, listener)
+
+        when:
+        runnable.dispense()
+
+        then:
+        1 * listener.transfersChanged({ it.size() == 2 })
+    }
+
+    def "Lease renewal keeps the versions of the transfers"() {
+        setup:
+        insertTransfer(10, 1, 2, TransferStatus.PROCESSING, "run")
+        lease("run", node1, 60)
+
+        when:
+        node1.lease(getCtx(), "run").renewQuery().execute()
+
+        then:
+        getCtx().fetchOne(TRANSFER).getVersion() == 0
+    }
+
+    def "Finished transfers give up their leases and are never reclaimed"() {
+        setup:
+        insertTransfer(10, 1, 2, TransferStatus.PROCESSING, "run")
+        lease("run", node1, 60)
+        def runnable = new TransferProcessingRunnable(getCtx(), "run",
+                TransferListener.NONE, node1.lease(getCtx(), "run"))
+        def transfers = runnable.fetchTransfers()
+
+        when:
+        runnable.process(transfers[0])
+        def reclaimed = node2.reclaimExpired(getCtx())
+
+        then:
+        reclaimed == 0
+        status("run") == [TransferStatus.COMPLETED]
+        getCtx().fetchOne(TRANSFER).getLeaseExpiry() == null
+    }
+
+    private TransferDispensingRunnable dispensing(ProcessingNode node, int batchSize) {
+        return new TransferDispensingRunnable(getCtx(),
+                AdaptiveBatchSize.fixed(batchSize), Integer.MAX_VALUE,
+                Mock(TransferProcessingScheduler), node)
+    }
+
+    private void lease(String processingId, ProcessingNode node, int seconds) {
+        getCtx().update(TRANSFER)
+                .set(TRANSFER.PROCESSING_NODE, node.getId())
+                .set(TRANSFER.LEASE_EXPIRY, new Timestamp(
+                        System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(seconds)))
+                .where(TRANSFER.PROCESSING_ID.eq(processingId))
+                .execute()
+    }
+
+    private List<TransferStatus> status(String processingId) {
+        return getCtx().select(TRANSFER.STATUS)
+                .from(TRANSFER)
+                .where(TRANSFER.PROCESSING_ID.eq(processingId))
+                .orderBy(TRANSFER.ID)
+                .fetch(TRANSFER.STATUS)
+    }
+}
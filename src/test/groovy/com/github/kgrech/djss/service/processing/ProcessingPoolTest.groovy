@@ -0,0 +1,64 @@
+package com.github.kgrech.djss.service.processing
+
+import com.github.kgrech.djss.DBTest
+import com.github.kgrech.djss.jooq.TransferStatus
+import com.github.kgrech.djss.service.DSLContextProvider
+import com.github.kgrech.djss.service.ProcessingMode
+import com.github.kgrech.djss.service.ProcessingService
+import com.github.kgrech.djss.service.ProcessingSettings
+import com.github.kgrech.djss.service.TransferEvents
+
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER
+
+class ProcessingPoolTest extends DBTest {
+
+    private DSLContextProvider provider
+
+    def setup() {
+        //Same pool as App creates with db.processingPool.enabled=true
+        provider = new DSLContextProvider("processing", getApp().getProperties(),
+                "db.processingPool.")
+    }
+
+    def cleanup() {
+        provider.close()
+    }
+
+    def "Processing pool properties fall back to the default pool ones"() {
+        expect:
+        provider.getName() == "processing"
+        provider.getMaxActive() == 12
+        provider.getMaxActive() != getApp().getProvider().getMaxActive()
+    }
+
+    def "Transfers are processed on the connections of the processing pool"() {
+        setup:
+        insertAccount(1, "Sender", 100)
+        insertAccount(2, "Receiver", 0)
+        def numTransfers = 5
+        numTransfers.times { insertTransfer(10, 1, 2) }
+        def settings = ProcessingSettings.builder()
+                .delay(1)
+                .maxThreads(2)
+                .batchSize(10)
+                .maxQueueSize(10)
+                .mode(ProcessingMode.DATABASE)
+                .build()
+
+        when:
+        def service = new ProcessingService(settings, provider.getContext(),
+                new TransferEvents())
+        def completed = 0
+        for (int i = 0; i < 100 && completed < numTransfers; i++) {
+            Thread.sleep(100)
+            completed = ctx.fetchCount(TRANSFER,
+                    TRANSFER.STATUS.eq(TransferStatus.COMPLETED))
+        }
+        service.close()
+
+        then:
+        completed == numTransfers
+        provider.getAcquired() > 0
+        provider.getErrors() == 0
+    }
+}
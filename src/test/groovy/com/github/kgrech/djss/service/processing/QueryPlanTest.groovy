@@ -0,0 +1,85 @@
+package com.github.kgrech.djss.service.processing
+
+import com.github.kgrech.djss.DBTest
+import com.github.kgrech.djss.jooq.TransferStatus
+import com.github.kgrech.djss.service.TransferListener
+import com.github.kgrech.djss.service.TransferProcessingScheduler
+import com.github.kgrech.djss.service.proccessing.AccountJournal
+import com.github.kgrech.djss.service.proccessing.AdaptiveBatchSize
+import com.github.kgrech.djss.service.proccessing.ProcessingNode
+import com.github.kgrech.djss.service.proccessing.TransferDispensingRunnable
+import com.github.kgrech.djss.service.proccessing.TransferProcessingRunnable
+import org.jooq.Query
+import spock.lang.Unroll
+
+import java.sql.Timestamp
+
+import static com.github.kgrech.djss.jooq.tables.Account.ACCOUNT
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER
+
+/**
+ * Runs EXPLAIN on the queries executed for every batch or request and fails
+ * if any of them scans a whole table
+ */
+class QueryPlanTest extends DBTest {
+
+    ProcessingNode node = new ProcessingNode("node-1", 30)
+
+    def setup() {
+        insertAccount(1, "Account 1", 1000)
+        insertAccount(2, "Account 2", 1000)
+        //Most of the table is processed already, as it is in production
+        def insert = getCtx().insertInto(TRANSFER,
+                TRANSFER.SENDER_ACCOUNT_ID,
+                TRANSFER.RECEIVER_ACCOUNT_ID,
+                TRANSFER.STATUS,
+                TRANSFER.AMOUNT,
+                TRANSFER.PROCESSING_ID)
+        1000.times { i ->
+            def status = i % 10 == 0 ? TransferStatus.PENDING : TransferStatus.COMPLETED
+            insert = insert.values(1, 2, status, 10d, "run-" + i.intdiv(100))
+        }
+        insert.execute()
+        getCtx().execute("ANALYZE")
+    }
+
+    @Unroll
+    def "#name uses an index"() {
+        when:
+        def plan = explain(query.call(this))
+
+        then:
+        !plan.contains("tableScan")
+        plan.contains(index)
+
+        where:
+        name                   | index                        | query
+        "Dispensing"           | "IDX_TRANSFER_STATUS_ID"     | { it.dispensing().claimQuery("run", new Timestamp(0), 10) }
+        "Fetching the batch"   | "IDX_TRANSFER_PROCESSING_ID" | { it.processing("run-1").fetchTransfersQuery() }
+        "Lease renewal"        | "IDX_TRANSFER_PROCESSING_ID" | { it.node.lease(getCtx(), "run-1").renewQuery() }
+        "Reclaiming leases"    | "IDX_TRANSFER_STATUS_LEASE"  | { it.node.reclaimExpiredQuery(getCtx()) }
+        "Releasing own leases" | "IDX_TRANSFER_STATUS"        | { it.node.releaseOwnQuery(getCtx()) }
+        "Account balance"      | "IDX_LEDGER_ENTRY_ACCOUNT"   | { it.balanceQuery(1) }
+    }
+
+    private String explain(Query query) {
+        return getCtx().fetchValue("EXPLAIN " + getCtx().renderInlined(query))
+    }
+
+    Query balanceQuery(int accountId) {
+        return getCtx().select(AccountJournal.BALANCE)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(accountId))
+    }
+
+    TransferDispensingRunnable dispensing() {
+        return new TransferDispensingRunnable(getCtx(),
+                AdaptiveBatchSize.fixed(10), Integer.MAX_VALUE,
+                Mock(TransferProcessingScheduler), node)
+    }
+
+    TransferProcessingRunnable processing(String processingId) {
+        return new TransferProcessingRunnable(getCtx(), processingId,
+                TransferListener.NONE, node.lease(getCtx(), processingId))
+    }
+}
@@ -3,6 +3,7 @@ package com.github.kgrech.djss.service.processing
 import com.github.kgrech.djss.DBTest
 import com.github.kgrech.djss.jooq.TransferStatus
 import com.github.kgrech.djss.service.TransferProcessingScheduler
+import com.github.kgrech.djss.service.proccessing.AdaptiveBatchSize
 import com.github.kgrech.djss.service.proccessing.TransferDispensingRunnable
 
 import java.sql.Timestamp
@@ -133,4 +134,64 @@ class TransferDispensingRunnableTest extends DBTest   {
         0 * scheduler.scheduleProcessing(_)
 
     }
+
+    def "Runnable does not schedule the run without pending transfers"() {
+        setup:
+        insertTransfer(10, 1, 2, TransferStatus.COMPLETED)
+
+        def scheduler = Mock(TransferProcessingScheduler)
+        def runnable = new TransferDispensingRunnable(getCtx(),
+                MAX_BATCH_SIZE, MAX_QUEUE_SIZE, scheduler)
+
+        when:
+        def dispensed = runnable.dispense()
+
+        then:
+        dispensed == 0
+        0 * scheduler.scheduleProcessing(_)
+    }
+
+    def "Adaptive runnable dispenses while the batches are full"() {
+        setup:
+        for(i in 1..25) {
+            insertTransfer(10, 1, 2)
+        }
+
+        def scheduler = Mock(TransferProcessingScheduler)
+        def batchSize = new AdaptiveBatchSize(MAX_BATCH_SIZE, 1,
+                MAX_BATCH_SIZE, 500)
+        def runnable = new TransferDispensingRunnable(getCtx(),
+                batchSize, MAX_QUEUE_SIZE, scheduler)
+
+        when:
+        runnable.run()
+
+        def count = getCtx().selectCount()
+                .from(TRANSFER)
+                .where(TRANSFER.STATUS.eq(TransferStatus.PROCESSING))
+                .fetchOne(0, int.class)
+
+        then:
+        3 * scheduler.scheduleProcessing(_)
+        count == 25
+    }
+
+    def "Adaptive runnable decreases the batch size with a full queue"() {
+        setup:
+        insertTransfer(10, 1, 2)
+
+        def scheduler = Mock(TransferProcessingScheduler)
+        scheduler.queueSize() >> MAX_QUEUE_SIZE + 1
+        def batchSize = new AdaptiveBatchSize(MAX_BATCH_SIZE, 1,
+                MAX_BATCH_SIZE, 500)
+        def runnable = new TransferDispensingRunnable(getCtx(),
+                batchSize, MAX_QUEUE_SIZE, scheduler)
+
+        when:
+        runnable.run()
+
+        then:
+        0 * scheduler.scheduleProcessing(_)
+        batchSize.get() == MAX_BATCH_SIZE.intdiv(2)
+    }
 }
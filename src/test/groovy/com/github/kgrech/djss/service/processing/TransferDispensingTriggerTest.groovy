@@ -0,0 +1,59 @@
+package com.github.kgrech.djss.service.processing
+
+import com.github.kgrech.djss.jooq.tables.pojos.Transfer
+import com.github.kgrech.djss.service.proccessing.TransferDispensingRunnable
+import com.github.kgrech.djss.service.proccessing.TransferDispensingTrigger
+import spock.lang.Specification
+
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+class TransferDispensingTriggerTest extends Specification {
+
+    private final int BATCH_SIZE = 10
+    private final long LINGER = 200
+
+    private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1)
+
+    def "Full batch is dispensed immediately"() {
+        setup:
+        def runnable = Mock(TransferDispensingRunnable)
+        def trigger = new TransferDispensingTrigger(runnable, scheduler,
+                BATCH_SIZE, 60_000)
+
+        when:
+        BATCH_SIZE.times { trigger.transferCreated(new Transfer()) }
+        scheduler.shutdown()
+        scheduler.awaitTermination(1, TimeUnit.SECONDS)
+
+        then:
+        1 * runnable.dispense() >> BATCH_SIZE
+        1 * runnable.dispense() >> 0
+    }
+
+    def "Partial batch is dispensed after linger time"() {
+        setup:
+        def runnable = Mock(TransferDispensingRunnable)
+        def trigger = new TransferDispensingTrigger(runnable, scheduler,
+                BATCH_SIZE, LINGER)
+
+        when:
+        trigger.transferCreated(new Transfer())
+        trigger.transferCreated(new Transfer())
+        Thread.sleep(LINGER.intdiv(2))
+
+        then:
+        0 * runnable.dispense()
+
+        when:
+        Thread.sleep(LINGER * 2)
+
+        then:
+        1 * runnable.dispense() >> 2
+    }
+
+    def cleanup() {
+        scheduler.shutdownNow()
+    }
+}
@@ -56,6 +56,24 @@ class TransferProcessingRunnableLogicTest extends DBTest  {
                 .fetchOne().value1() == BALANCE + 100
     }
 
+    def "Balance arithmetic is exact for decimal amounts"() {
+        setup:
+        def id = UUID.randomUUID().toString()
+        insertAccount(3, "Account 3", 1)
+        10.times { insertTransfer(0.1, 3, 2, TransferStatus.PROCESSING, id) }
+        def runnable = new TransferProcessingRunnable(ctx, id)
+
+        when:
+        runnable.run()
+
+        then:
+        ctx.fetchCount(TRANSFER, TRANSFER.STATUS.eq(TransferStatus.COMPLETED)) == 10
+        ctx.select(ACCOUNT.AMOUNT)
+                .from(ACCOUNT)
+                .where(ACCOUNT.ID.eq(3))
+                .fetchOne().value1() == 0
+    }
+
     def "Runnable processes all records"() {
         setup:
         def numRecords = 100
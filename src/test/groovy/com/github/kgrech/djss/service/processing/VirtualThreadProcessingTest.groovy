@@ -0,0 +1,114 @@
+package com.github.kgrech.djss.service.processing
+
+import com.github.kgrech.djss.DBTest
+import com.github.kgrech.djss.controller.VirtualThreadPool
+import com.github.kgrech.djss.jooq.MinorUnits
+import com.github.kgrech.djss.jooq.TransferStatus
+import com.github.kgrech.djss.service.ProcessingMode
+import com.github.kgrech.djss.service.ProcessingService
+import com.github.kgrech.djss.service.ProcessingSettings
+import com.github.kgrech.djss.service.TransferEvents
+import com.github.kgrech.djss.service.VirtualThreads
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import static com.github.kgrech.djss.jooq.MinorUnits.ACCOUNT_AMOUNT
+import static com.github.kgrech.djss.jooq.tables.Account.ACCOUNT
+import static com.github.kgrech.djss.jooq.tables.Transfer.TRANSFER
+
+class VirtualThreadProcessingTest extends DBTest {
+
+    private final double BALANCE = 1_000_000
+
+    def "Virtual threads executor runs every task on its own thread"() {
+        setup:
+        def executor = VirtualThreads.newExecutor("test-")
+        def numTasks = 20
+        def started = new CountDownLatch(numTasks)
+        def names = ConcurrentHashMap.newKeySet()
+
+        when:
+        numTasks.times {
+            executor.execute {
+                names.add(Thread.currentThread().getName())
+                started.countDown()
+                //Blocks until all of the tasks are started
+                started.await()
+            }
+        }
+        def allStarted = started.await(10, TimeUnit.SECONDS)
+        executor.shutdown()
+
+        then:
+        allStarted
+        names.size() == numTasks
+        names.every { it.startsWith("test-") }
+    }
+
+    def "Http thread pool runs every job on its own thread"() {
+        setup:
+        def pool = new VirtualThreadPool("http-")
+        pool.start()
+        def numJobs = 20
+        def started = new CountDownLatch(numJobs)
+        def names = ConcurrentHashMap.newKeySet()
+
+        when:
+        numJobs.times {
+            pool.execute {
+                names.add(Thread.currentThread().getName())
+                started.countDown()
+                started.await()
+            }
+        }
+        def allStarted = started.await(10, TimeUnit.SECONDS)
+        pool.stop()
+
+        then:
+        allStarted
+        names.size() == numJobs
+        names.every { it.startsWith("http-") }
+        !pool.isLowOnThreads()
+    }
+
+    def "Transfers are processed on virtual threads"() {
+        setup:
+        def numAccounts = 6
+        (1..numAccounts).each { insertAccount(it, "Account $it", BALANCE) }
+        def numTransfers = 30
+        def random = new Random()
+        for (i in 1..numTransfers) {
+            def sender = random.nextInt(numAccounts) + 1
+            def receiver = sender % numAccounts + 1
+            insertTransfer(Math.random() * 10, sender, receiver)
+        }
+        def settings = ProcessingSettings.builder()
+                .delay(1)
+                .maxThreads(1)
+                .virtualThreads(true)
+                .maxConcurrency(2)
+                .batchSize(10)
+                .maxQueueSize(100)
+                .mode(ProcessingMode.DATABASE)
+                .build()
+
+        when:
+        def service = new ProcessingService(settings, ctx, new TransferEvents())
+        def completed = 0
+        for (int i = 0; i < 200 && completed < numTransfers; i++) {
+            Thread.sleep(100)
+            completed = ctx.fetchCount(TRANSFER,
+                    TRANSFER.STATUS.eq(TransferStatus.COMPLETED))
+        }
+        service.close()
+
+        then:
+        completed == numTransfers
+        service.queueSize() == 0
+        ctx.select(ACCOUNT_AMOUNT.sum()).from(ACCOUNT).fetchOne(0, Long) ==
+                MinorUnits.of(numAccounts * BALANCE)
+    }
+}
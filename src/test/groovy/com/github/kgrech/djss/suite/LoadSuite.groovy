@@ -0,0 +1,33 @@
+package com.github.kgrech.djss.suite
+
+import com.github.kgrech.djss.App
+import com.github.kgrech.djss.DBTest
+import com.github.kgrech.djss.TestCaseInitializer
+import com.github.kgrech.djss.load.LoadTest
+import org.junit.AfterClass
+import org.junit.BeforeClass
+import org.junit.runner.RunWith
+import org.junit.runners.Suite
+
+@RunWith(Suite)
+@Suite.SuiteClasses([
+        LoadTest.class
+])
+class LoadSuite {
+
+    private static App app
+
+    @BeforeClass
+    static void setup() {
+        //Processing is started by the test with the settings under load
+        app = new TestCaseInitializer()
+                .withSpark()
+                .build()
+        DBTest.setApp(app)
+    }
+
+    @AfterClass
+    static void cleanup() {
+        app.close()
+    }
+}
@@ -3,9 +3,23 @@ package com.github.kgrech.djss.suite
 import com.github.kgrech.djss.App
 import com.github.kgrech.djss.DBTest
 import com.github.kgrech.djss.TestCaseInitializer
+import com.github.kgrech.djss.metrics.MetricsRegistryTest
+import com.github.kgrech.djss.service.TransferWatchersTest
+import com.github.kgrech.djss.service.intake.TransferIntakeTest
+import com.github.kgrech.djss.service.processing.AccountJournalTest
+import com.github.kgrech.djss.service.processing.AccountStripesTest
+import com.github.kgrech.djss.service.processing.AdaptiveBatchSizeTest
+import com.github.kgrech.djss.service.processing.BatchTransferProcessingRunnableTest
+import com.github.kgrech.djss.service.processing.LedgerEngineTest
+import com.github.kgrech.djss.service.processing.ProcessingLanesTest
+import com.github.kgrech.djss.service.processing.ProcessingNodeTest
+import com.github.kgrech.djss.service.processing.ProcessingPoolTest
+import com.github.kgrech.djss.service.processing.QueryPlanTest
 import com.github.kgrech.djss.service.processing.TransferDispensingRunnableTest
+import com.github.kgrech.djss.service.processing.TransferDispensingTriggerTest
 import com.github.kgrech.djss.service.processing.TransferProcessingRunnableLogicTest
 import com.github.kgrech.djss.service.processing.TransferProcessingRunnableNegativeTest
+import com.github.kgrech.djss.service.processing.VirtualThreadProcessingTest
 import org.junit.After
 import org.junit.BeforeClass
 import org.junit.runner.RunWith
@@ -14,8 +28,22 @@ import org.junit.runners.Suite
 @RunWith(Suite)
 @Suite.SuiteClasses([
     TransferDispensingRunnableTest,
+    TransferDispensingTriggerTest,
     TransferProcessingRunnableLogicTest,
-    TransferProcessingRunnableNegativeTest
+    TransferProcessingRunnableNegativeTest,
+    LedgerEngineTest,
+    BatchTransferProcessingRunnableTest,
+    ProcessingLanesTest,
+    VirtualThreadProcessingTest,
+    ProcessingPoolTest,
+    AdaptiveBatchSizeTest,
+    ProcessingNodeTest,
+    QueryPlanTest,
+    AccountJournalTest,
+    AccountStripesTest,
+    TransferIntakeTest,
+    TransferWatchersTest,
+    MetricsRegistryTest
 ])
 class ProcessingSuite {
 